@@ -0,0 +1,363 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.CompressorRegistry;
+import scake.common.rpc.data.DataChunk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Policy turning message compression on or off per stream, from the
+ * compressibility sampled on its first messages.
+ * <p>
+ * The compression ratio of a message is estimated from the byte
+ * entropy of a sample of it, which is far cheaper than compressing
+ * it. Streams are resampled periodically, so that a stream changing
+ * its content, e.g. a tar of logs and media, follows it.
+ * <p>
+ * The codec of the call is the first of the preferred codecs
+ * registered in the {@link CompressorRegistry}, set when the stream
+ * is opened, see {@link StreamObserverWrapper#setAdaptiveCompression}.
+ *
+ * @author RollW
+ */
+public class AdaptiveCompressionPolicy {
+    /**
+     * Preferred codecs, fastest first. Only "gzip" is registered
+     * by default.
+     */
+    public static final List<String> DEFAULT_PREFERRED_CODECS =
+            Collections.unmodifiableList(Arrays.asList("lz4", "zstd", "snappy", "gzip"));
+    public static final int DEFAULT_SAMPLE_MESSAGES = 4;
+    public static final int DEFAULT_SAMPLE_BYTES = 4096;
+    public static final int DEFAULT_RESAMPLE_INTERVAL = 1024;
+    public static final double DEFAULT_MAX_RATIO = 0.9;
+
+    private final List<String> preferredCodecs;
+    private final CompressorRegistry compressorRegistry;
+
+    /**
+     * Messages sampled before deciding.
+     */
+    private final int sampleMessages;
+
+    /**
+     * Bytes sampled per message at most.
+     */
+    private final int sampleBytes;
+
+    /**
+     * Messages after which the stream is sampled again,
+     * zero to decide only once.
+     */
+    private final int resampleInterval;
+
+    /**
+     * Estimated ratio of compressed to original size at or
+     * below which messages are compressed.
+     */
+    private final double maxRatio;
+
+    private final CompressionStats stats = new CompressionStats();
+
+    private AdaptiveCompressionPolicy(Builder builder) {
+        if (builder.sampleMessages <= 0 || builder.sampleBytes <= 0) {
+            throw new IllegalArgumentException("Sample sizes must be positive.");
+        }
+        if (builder.resampleInterval < 0) {
+            throw new IllegalArgumentException("resampleInterval must not be negative.");
+        }
+        if (builder.maxRatio <= 0 || builder.maxRatio > 1) {
+            throw new IllegalArgumentException("maxRatio must be in range (0, 1].");
+        }
+        this.preferredCodecs = Collections.unmodifiableList(
+                new ArrayList<>(builder.preferredCodecs));
+        this.compressorRegistry = builder.compressorRegistry;
+        this.sampleMessages = builder.sampleMessages;
+        this.sampleBytes = builder.sampleBytes;
+        this.resampleInterval = builder.resampleInterval;
+        this.maxRatio = builder.maxRatio;
+    }
+
+    /**
+     * Get the codec to open streams with, or null if none
+     * of the preferred codecs is registered.
+     */
+    public String selectCodec() {
+        for (String codec : preferredCodecs) {
+            if (compressorRegistry.lookupCompressor(codec) != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    public List<String> getPreferredCodecs() {
+        return preferredCodecs;
+    }
+
+    public int getSampleMessages() {
+        return sampleMessages;
+    }
+
+    public int getSampleBytes() {
+        return sampleBytes;
+    }
+
+    public int getResampleInterval() {
+        return resampleInterval;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+
+    /**
+     * Decisions and savings of all streams using the policy.
+     */
+    public CompressionStats getStats() {
+        return stats;
+    }
+
+    StreamDecision newStream() {
+        return new StreamDecision();
+    }
+
+    /**
+     * Estimate the ratio of compressed to original size of the
+     * remaining bytes, from the order-0 entropy of up to
+     * {@code maxBytes} of them sampled across the buffer.
+     */
+    public static double estimateRatio(ByteBuffer data, int maxBytes) {
+        int length = data.remaining();
+        if (length == 0) {
+            return 1;
+        }
+        int samples = Math.min(length, maxBytes);
+        int stride = Math.max(1, length / samples);
+        int[] counts = new int[256];
+        int base = data.position();
+        int taken = 0;
+        for (int i = 0; i < length && taken < samples; i += stride, taken++) {
+            counts[data.get(base + i) & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) {
+                continue;
+            }
+            double p = (double) count / taken;
+            entropy -= p * Math.log(p);
+        }
+        // bits per byte over 8 bits
+        return Math.min(1, entropy / Math.log(2) / 8);
+    }
+
+    /**
+     * Copy a prefix of the message into the sample buffer, without
+     * serializing or mapping the whole message.
+     *
+     * @return the sample, or null if the message cannot be sampled
+     */
+    private static ByteBuffer sampleOf(Object value, byte[] sample) {
+        if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).duplicate();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sample);
+        if (value instanceof DataChunk) {
+            try {
+                ((DataChunk) value).copyTo(buffer);
+            } catch (IOException e) {
+                return null;
+            }
+            buffer.flip();
+            return buffer;
+        }
+        if (value instanceof MessageLite) {
+            PrefixOutputStream prefix = new PrefixOutputStream(buffer);
+            try {
+                ((MessageLite) value).writeTo(prefix);
+            } catch (IOException e) {
+                if (e != PrefixOutputStream.FULL) {
+                    return null;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the bytes written into a buffer, and stops the writer
+     * once the buffer is full.
+     */
+    private static final class PrefixOutputStream extends OutputStream {
+        static final IOException FULL = new IOException("Sample is full.", null) {
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        };
+
+        private final ByteBuffer buffer;
+
+        PrefixOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                throw FULL;
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            if (count < len) {
+                throw FULL;
+            }
+        }
+    }
+
+    /**
+     * Decision of one stream, not thread safe. Messages are passed
+     * in the order they are sent.
+     */
+    final class StreamDecision {
+        private long messages = 0;
+        private int sampled = 0;
+        private double ratioSum = 0;
+        private double ratio = 1;
+        private boolean decided = false;
+        private boolean compress = false;
+        private byte[] sample;
+
+        /**
+         * Returns true if the message should be compressed.
+         */
+        boolean onMessage(Object value, int size) {
+            if (isSampling()) {
+                sample(value);
+            }
+            messages++;
+            stats.recordMessage(compress, size, ratio);
+            return compress;
+        }
+
+        private boolean isSampling() {
+            if (!decided) {
+                return true;
+            }
+            if (resampleInterval == 0) {
+                return false;
+            }
+            return messages % resampleInterval < sampleMessages;
+        }
+
+        private void sample(Object value) {
+            if (sample == null) {
+                sample = new byte[sampleBytes];
+            }
+            ByteBuffer data = sampleOf(value, sample);
+            if (data == null) {
+                return;
+            }
+            ratioSum += estimateRatio(data, sampleBytes);
+            sampled++;
+            if (sampled < sampleMessages) {
+                return;
+            }
+            ratio = ratioSum / sampled;
+            boolean next = ratio <= maxRatio;
+            if (!decided || next != compress) {
+                stats.recordDecision(next, !decided);
+            }
+            decided = true;
+            compress = next;
+            sampled = 0;
+            ratioSum = 0;
+        }
+    }
+
+    public static AdaptiveCompressionPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private List<String> preferredCodecs = DEFAULT_PREFERRED_CODECS;
+        private CompressorRegistry compressorRegistry =
+                CompressorRegistry.getDefaultInstance();
+        private int sampleMessages = DEFAULT_SAMPLE_MESSAGES;
+        private int sampleBytes = DEFAULT_SAMPLE_BYTES;
+        private int resampleInterval = DEFAULT_RESAMPLE_INTERVAL;
+        private double maxRatio = DEFAULT_MAX_RATIO;
+
+        public Builder setPreferredCodecs(List<String> preferredCodecs) {
+            this.preferredCodecs = preferredCodecs;
+            return this;
+        }
+
+        public Builder setCompressorRegistry(CompressorRegistry compressorRegistry) {
+            this.compressorRegistry = compressorRegistry;
+            return this;
+        }
+
+        public Builder setSampleMessages(int sampleMessages) {
+            this.sampleMessages = sampleMessages;
+            return this;
+        }
+
+        public Builder setSampleBytes(int sampleBytes) {
+            this.sampleBytes = sampleBytes;
+            return this;
+        }
+
+        public Builder setResampleInterval(int resampleInterval) {
+            this.resampleInterval = resampleInterval;
+            return this;
+        }
+
+        public Builder setMaxRatio(double maxRatio) {
+            this.maxRatio = maxRatio;
+            return this;
+        }
+
+        public AdaptiveCompressionPolicy build() {
+            return new AdaptiveCompressionPolicy(this);
+        }
+    }
+}
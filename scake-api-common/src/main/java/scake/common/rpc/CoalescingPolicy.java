@@ -0,0 +1,108 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds of the batches built by a {@link CoalescingStreamObserver}.
+ *
+ * @author RollW
+ */
+public class CoalescingPolicy {
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_BATCH_ITEMS = 1024;
+    public static final long DEFAULT_MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Estimated size in Bytes of the items after which
+     * a batch is sent.
+     */
+    private final int maxBatchBytes;
+
+    /**
+     * Number of items after which a batch is sent.
+     */
+    private final int maxBatchItems;
+
+    /**
+     * Time in nanoseconds an item may wait for its batch to fill.
+     * Zero sends a batch only when it is full, or when the stream
+     * becomes ready again.
+     */
+    private final long maxDelay;
+
+    private CoalescingPolicy(Builder builder) {
+        if (builder.maxBatchBytes <= 0 || builder.maxBatchItems <= 0) {
+            throw new IllegalArgumentException("Batch bounds must be positive.");
+        }
+        if (builder.maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative.");
+        }
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.maxBatchItems = builder.maxBatchItems;
+        this.maxDelay = builder.maxDelay;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchItems() {
+        return maxBatchItems;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public static CoalescingPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        private int maxBatchItems = DEFAULT_MAX_BATCH_ITEMS;
+        private long maxDelay = DEFAULT_MAX_DELAY;
+
+        public Builder setMaxBatchBytes(int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        public Builder setMaxBatchItems(int maxBatchItems) {
+            this.maxBatchItems = maxBatchItems;
+            return this;
+        }
+
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            this.maxDelay = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        public CoalescingPolicy build() {
+            return new CoalescingPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Gathers small items into batch messages before sending them to
+ * a {@link StreamObserverWrapper}, so that a frame and a flush are
+ * paid per batch instead of per item.
+ * <p>
+ * A batch is sent when it reaches the size or item bound of the
+ * {@link CoalescingPolicy}, or when its first item has waited for the
+ * max delay. While the stream is not ready the batch keeps filling up
+ * to its bounds, and it is sent as soon as the stream becomes ready.
+ * The receiver splits batches with an {@link UnbatchingStreamObserver}.
+ * <p>
+ * Created by {@link StreamObserverWrapper#coalescing(Function, CoalescingPolicy)}.
+ *
+ * @author RollW
+ */
+public class CoalescingStreamObserver<T, B> implements StreamObserver<T> {
+    private final StreamObserverWrapper<B> target;
+    private final Function<List<T>, B> batcher;
+    private final CoalescingPolicy policy;
+    private final ToIntFunction<? super T> itemSizer;
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private List<T> pending;
+    private long pendingBytes = 0;
+    private ScheduledFuture<?> flushTask;
+    private boolean closed = false;
+
+    private volatile Runnable onReadyHandler;
+
+    public CoalescingStreamObserver(StreamObserverWrapper<B> target,
+                                    Function<List<T>, B> batcher,
+                                    CoalescingPolicy policy,
+                                    ToIntFunction<? super T> itemSizer,
+                                    ScheduledExecutorService scheduler) {
+        this.target = target;
+        this.batcher = batcher;
+        this.policy = policy;
+        this.itemSizer = itemSizer;
+        this.scheduler = scheduler;
+        this.pending = new ArrayList<>();
+        target.setOnReadyHandler(this::onReady);
+    }
+
+    public CoalescingStreamObserver(StreamObserverWrapper<B> target,
+                                    Function<List<T>, B> batcher,
+                                    CoalescingPolicy policy) {
+        this(target, batcher, policy, StreamObserverWrapper::estimateSize,
+                SchedulerHolder.SCHEDULER);
+    }
+
+    /**
+     * Set the handler called when the stream becomes ready,
+     * after pending items have been sent.
+     */
+    public void setOnReadyHandler(Runnable onReadyHandler) {
+        this.onReadyHandler = onReadyHandler;
+    }
+
+    public boolean isReady() {
+        return target.isReady();
+    }
+
+    @Override
+    public void onNext(T value) {
+        int size = Math.max(0, itemSizer.applyAsInt(value));
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Stream is already closed.");
+            }
+            pending.add(value);
+            pendingBytes += size;
+            if (pendingBytes >= policy.getMaxBatchBytes() ||
+                    pending.size() >= policy.getMaxBatchItems()) {
+                flushLocked();
+                return;
+            }
+            if (pending.size() == 1 && policy.getMaxDelay() > 0) {
+                flushTask = scheduler.schedule(this::onDelayElapsed,
+                        policy.getMaxDelay(), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send the pending items now.
+     */
+    public synchronized void flush() {
+        flushLocked();
+    }
+
+    private void flushLocked() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<T> batch = pending;
+        pending = new ArrayList<>(Math.min(batch.size(), policy.getMaxBatchItems()));
+        pendingBytes = 0;
+        target.onNext(batcher.apply(batch));
+    }
+
+    private synchronized void onDelayElapsed() {
+        flushTask = null;
+        if (closed || !target.isReady()) {
+            // sent by onReady once the stream drains
+            return;
+        }
+        flushLocked();
+    }
+
+    private void onReady() {
+        synchronized (this) {
+            if (!closed) {
+                flushLocked();
+            }
+        }
+        Runnable handler = onReadyHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            pending.clear();
+        }
+        target.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flushLocked();
+            closed = true;
+        }
+        target.onCompleted();
+    }
+
+    private static final class SchedulerHolder {
+        static final ScheduledExecutorService SCHEDULER =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("scake-coalescing-%d")
+                                .setDaemon(true)
+                                .build()
+                );
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.CompressorRegistry;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Interceptors enabling message compression on the calls.
+ *
+ * @author RollW
+ */
+public final class CompressionInterceptors {
+    private CompressionInterceptors() {
+    }
+
+    /**
+     * Create a client interceptor compressing the requests with the
+     * given compressor, e.g. "gzip".
+     *
+     * @throws IllegalArgumentException if the compressor is not
+     *                                  registered
+     */
+    public static ClientInterceptor client(String compression) {
+        return client(compression, CompressorRegistry.getDefaultInstance());
+    }
+
+    /**
+     * Create a client interceptor compressing the requests with the
+     * given compressor of the registry.
+     *
+     * @throws IllegalArgumentException if the compressor is not
+     *                                  registered
+     */
+    public static ClientInterceptor client(String compression,
+                                           CompressorRegistry registry) {
+        if (compression != null) {
+            checkRegistered(compression, registry);
+        }
+        return new ClientCompressionInterceptor(compression);
+    }
+
+    /**
+     * Create a client interceptor opening the calls with the codec of
+     * the policy, if one is registered. Whether messages are compressed
+     * is decided per stream, see
+     * {@link StreamObserverWrapper#setAdaptiveCompression(AdaptiveCompressionPolicy)}.
+     */
+    public static ClientInterceptor client(AdaptiveCompressionPolicy policy) {
+        return new ClientCompressionInterceptor(policy.selectCodec());
+    }
+
+    /**
+     * Create a server interceptor compressing the responses with the
+     * given compressor, e.g. "gzip".
+     *
+     * @throws IllegalArgumentException if the compressor is not
+     *                                  registered
+     */
+    public static ServerInterceptor server(String compression) {
+        return server(compression, CompressorRegistry.getDefaultInstance());
+    }
+
+    /**
+     * Create a server interceptor compressing the responses with the
+     * given compressor of the registry, which must be the one of the
+     * server.
+     *
+     * @throws IllegalArgumentException if the compressor is not
+     *                                  registered
+     */
+    public static ServerInterceptor server(String compression,
+                                           CompressorRegistry registry) {
+        checkRegistered(compression, registry);
+        return new ServerCompressionInterceptor(compression);
+    }
+
+    // Checked up front, an unknown compressor fails every call with
+    // IllegalArgumentException otherwise.
+    private static void checkRegistered(String compression, CompressorRegistry registry) {
+        if (compression == null || registry.lookupCompressor(compression) == null) {
+            throw new IllegalArgumentException("Compressor " + compression +
+                    " is not registered.");
+        }
+    }
+
+    private static final class ClientCompressionInterceptor implements ClientInterceptor {
+        private final String compression;
+
+        ClientCompressionInterceptor(String compression) {
+            this.compression = compression;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method,
+                CallOptions callOptions, Channel next) {
+            if (compression == null || callOptions.getCompressor() != null) {
+                return next.newCall(method, callOptions);
+            }
+            return next.newCall(method, callOptions.withCompression(compression));
+        }
+    }
+
+    private static final class ServerCompressionInterceptor implements ServerInterceptor {
+        private final String compression;
+
+        ServerCompressionInterceptor(String compression) {
+            this.compression = compression;
+        }
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                ServerCall<ReqT, RespT> call, Metadata headers,
+                ServerCallHandler<ReqT, RespT> next) {
+            call.setCompression(compression);
+            return next.startCall(call, headers);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the decisions made by an {@link AdaptiveCompressionPolicy}.
+ *
+ * @author RollW
+ */
+public class CompressionStats {
+    private final LongAdder streamsCompressed = new LongAdder();
+    private final LongAdder streamsUncompressed = new LongAdder();
+    private final LongAdder decisionChanges = new LongAdder();
+    private final LongAdder messagesCompressed = new LongAdder();
+    private final LongAdder messagesUncompressed = new LongAdder();
+    private final LongAdder bytesCompressed = new LongAdder();
+    private final LongAdder bytesUncompressed = new LongAdder();
+    private final LongAdder estimatedBytesSaved = new LongAdder();
+
+    void recordDecision(boolean compress, boolean first) {
+        if (!first) {
+            decisionChanges.increment();
+            return;
+        }
+        if (compress) {
+            streamsCompressed.increment();
+        } else {
+            streamsUncompressed.increment();
+        }
+    }
+
+    void recordMessage(boolean compressed, int size, double ratio) {
+        if (compressed) {
+            messagesCompressed.increment();
+            bytesCompressed.add(size);
+            estimatedBytesSaved.add((long) (size * (1 - ratio)));
+        } else {
+            messagesUncompressed.increment();
+            bytesUncompressed.add(size);
+        }
+    }
+
+    /**
+     * Streams whose first decision was to compress.
+     */
+    public long getStreamsCompressed() {
+        return streamsCompressed.sum();
+    }
+
+    /**
+     * Streams whose first decision was not to compress.
+     */
+    public long getStreamsUncompressed() {
+        return streamsUncompressed.sum();
+    }
+
+    /**
+     * Times a stream turned compression on or off after
+     * a resample.
+     */
+    public long getDecisionChanges() {
+        return decisionChanges.sum();
+    }
+
+    public long getMessagesCompressed() {
+        return messagesCompressed.sum();
+    }
+
+    public long getMessagesUncompressed() {
+        return messagesUncompressed.sum();
+    }
+
+    /**
+     * Bytes of the messages sent compressed, before compression.
+     */
+    public long getBytesCompressed() {
+        return bytesCompressed.sum();
+    }
+
+    public long getBytesUncompressed() {
+        return bytesUncompressed.sum();
+    }
+
+    /**
+     * Bytes saved by compression, estimated from the sampled
+     * compression ratio.
+     */
+    public long getEstimatedBytesSaved() {
+        return estimatedBytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" +
+                "streamsCompressed=" + getStreamsCompressed() +
+                ", streamsUncompressed=" + getStreamsUncompressed() +
+                ", decisionChanges=" + getDecisionChanges() +
+                ", messagesCompressed=" + getMessagesCompressed() +
+                ", messagesUncompressed=" + getMessagesUncompressed() +
+                ", estimatedBytesSaved=" + getEstimatedBytesSaved() +
+                '}';
+    }
+}
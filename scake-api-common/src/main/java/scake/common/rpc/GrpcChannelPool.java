@@ -19,63 +19,478 @@
 
 package scake.common.rpc;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * gRPC channel pool. It is used to manage the creation and
  * reuse of gRPC channels.
+ * <p>
+ * The pool is safe for concurrent use. Each key owns a group of
+ * channels, each channel in the group is built once and only
+ * rebuilt after it was shut down. Creation is guarded by the lock
+ * of the key's group, so callers for different keys never block
+ * each other.
+ * <p>
+ * The pool is bounded. Groups not requested for the idle timeout,
+ * or exceeding the maximum number of keys, are evicted and their
+ * channels drained: shut down first, then closed forcibly if the
+ * calls on them did not finish in the drain timeout. Eviction never
+ * cancels calls in flight: an expired group with calls in flight is
+ * kept for another idle timeout, a group evicted for the size bound
+ * is shut down but only closed forcibly once its calls finished.
+ * The state of
+ * every channel is watched, failed or idle channels are reconnected
+ * proactively with an exponential backoff.
  *
  * @author RollW
  */
 public abstract class GrpcChannelPool<K> implements Closeable {
-    private final Map<K, ManagedChannel> channelMap = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(GrpcChannelPool.class);
+
+    private final Cache<K, ChannelGroup> channelGroups;
+    private final ConcurrentMap<K, ChannelGroup> channelGroupMap;
+    private final ScheduledExecutorService scheduler;
+    private final int channelsPerKey;
+    private final ChannelSelectStrategy selectStrategy;
+    private final long drainTimeout;
+    private final long reconnectBackoffInitial;
+    private final long reconnectBackoffMax;
+    private volatile boolean closed = false;
 
     public GrpcChannelPool() {
+        this(RpcConfig.builder().build());
+    }
+
+    /**
+     * Create a pool with the channel pool settings from the
+     * given {@link RpcConfig}.
+     */
+    public GrpcChannelPool(RpcConfig rpcConfig) {
+        if (rpcConfig.getChannelsPerServer() <= 0) {
+            throw new IllegalArgumentException("channelsPerServer must be positive.");
+        }
+        if (rpcConfig.getChannelSelectStrategy() == null) {
+            throw new IllegalArgumentException("channelSelectStrategy must not be null.");
+        }
+        this.channelsPerKey = rpcConfig.getChannelsPerServer();
+        this.selectStrategy = rpcConfig.getChannelSelectStrategy();
+        this.drainTimeout = rpcConfig.getChannelDrainTimeout();
+        this.reconnectBackoffInitial = Math.max(1, rpcConfig.getReconnectBackoffInitial());
+        this.reconnectBackoffMax = Math.max(reconnectBackoffInitial,
+                rpcConfig.getReconnectBackoffMax());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("scake-channel-pool-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .executor(scheduler)
+                .scheduler(Scheduler.forScheduledExecutorService(scheduler));
+        if (rpcConfig.getMaxPooledServers() > 0) {
+            builder.maximumSize(rpcConfig.getMaxPooledServers());
+        }
+        if (rpcConfig.getChannelIdleTimeout() > 0) {
+            builder.expireAfterAccess(rpcConfig.getChannelIdleTimeout(),
+                    TimeUnit.MILLISECONDS);
+        }
+        this.channelGroups = builder.<K, ChannelGroup>removalListener(
+                this::onGroupRemoved).build();
+        this.channelGroupMap = channelGroups.asMap();
     }
 
     @NonNull
     protected abstract ManagedChannel buildChannel(K key);
 
     /**
-     * Establish a new channel.
+     * Establish a channel for the key, or return the one
+     * already established.
      */
     protected ManagedChannel establish(K key) {
-        ManagedChannel managedChannel = buildChannel(key);
-        channelMap.put(key, managedChannel);
-        return managedChannel;
+        if (closed) {
+            throw new IllegalStateException("Channel pool is closed.");
+        }
+        while (true) {
+            ChannelGroup group = channelGroups.get(key, ChannelGroup::new);
+            if (closed) {
+                // closed concurrently, the group may have been created
+                // after close() shut down the others
+                channelGroupMap.remove(key, group);
+                group.shutdown();
+                throw new IllegalStateException("Channel pool is closed.");
+            }
+            ManagedChannel channel = group.select();
+            if (channel != null) {
+                return channel;
+            }
+            // the group was disconnected concurrently, drop it and retry
+            channelGroupMap.remove(key, group);
+        }
     }
 
     public ManagedChannel getChannel(K key) {
         if (key == null) {
             return null;
         }
-
-        if (channelMap.containsKey(key)) {
-            ManagedChannel channel = channelMap.get(key);
-            if (channel.isShutdown()) {
-                return establish(key);
-            }
-            return channel;
-        }
         return establish(key);
     }
 
+    public int getChannelsPerKey() {
+        return channelsPerKey;
+    }
+
+    public ChannelSelectStrategy getSelectStrategy() {
+        return selectStrategy;
+    }
+
+    /**
+     * Returns the number of keys the pool currently keeps
+     * channels for.
+     */
+    public long size() {
+        return channelGroups.estimatedSize();
+    }
+
+    /**
+     * Returns true if the key has at least one channel that is
+     * not failing to connect.
+     */
+    public boolean isHealthy(K key) {
+        ChannelGroup group = channelGroups.getIfPresent(key);
+        return group != null && group.isHealthy();
+    }
+
+    /**
+     * Disconnect the key, its channels are drained gracefully.
+     */
     public void disconnect(K key) {
-        if (!channelMap.containsKey(key)) {
+        if (key == null) {
             return;
         }
-        channelMap.get(key).shutdown();
+        channelGroups.invalidate(key);
+    }
+
+    /**
+     * Disconnect all keys not in the given collection, e.g. the
+     * servers that left the cluster.
+     */
+    public void retainAll(Collection<? extends K> liveKeys) {
+        List<K> stale = new ArrayList<>();
+        for (K key : channelGroupMap.keySet()) {
+            if (!liveKeys.contains(key)) {
+                stale.add(key);
+            }
+        }
+        for (K key : stale) {
+            disconnect(key);
+        }
     }
 
+    /**
+     * Close the pool. Channels are shut down and then awaited for
+     * the drain timeout before they are closed forcibly.
+     */
     @Override
     public void close() {
-        for (ManagedChannel value : channelMap.values()) {
-            value.shutdown();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<PooledChannel> channels = new ArrayList<>();
+        for (ChannelGroup group : channelGroupMap.values()) {
+            channels.addAll(group.shutdown());
+        }
+        channelGroups.invalidateAll();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        try {
+            for (PooledChannel channel : channels) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 ||
+                        !channel.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    channel.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (PooledChannel channel : channels) {
+                channel.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void onGroupRemoved(K key, ChannelGroup group, RemovalCause cause) {
+        if (group == null) {
+            return;
+        }
+        boolean busy = cause.wasEvicted() && group.isBusy();
+        if (busy && cause == RemovalCause.EXPIRED && putBack(key, group)) {
+            return;
+        }
+        if (cause != RemovalCause.EXPLICIT) {
+            logger.debug("Evict channels of {}, cause: {}.", key, cause);
+        }
+        for (PooledChannel channel : group.shutdown()) {
+            drain(channel, busy);
+        }
+    }
+
+    /**
+     * Put an expired group with calls in flight back, its idle time
+     * counts from now on.
+     *
+     * @return false if the key has a new group or the pool is closed
+     */
+    private boolean putBack(K key, ChannelGroup group) {
+        if (closed || channelGroupMap.putIfAbsent(key, group) != null) {
+            return false;
+        }
+        if (closed) {
+            // close() may have missed it
+            channelGroupMap.remove(key, group);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Close the channel forcibly if it did not terminate in the drain
+     * timeout, or once it has no calls in flight if waiting for them.
+     */
+    private void drain(PooledChannel channel, boolean waitForCalls) {
+        if (scheduler.isShutdown()) {
+            channel.shutdownNow();
+            return;
+        }
+        // shutdown() is already called, only the calls in flight
+        // are allowed to finish
+        scheduler.schedule(() -> {
+            if (channel.isTerminated()) {
+                return;
+            }
+            if (waitForCalls && !closed && channel.getOutstandingCalls() > 0) {
+                drain(channel, true);
+                return;
+            }
+            logger.debug("Channel {} not terminated after drain timeout, close it forcibly.",
+                    channel);
+            channel.shutdownNow();
+        }, drainTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void watchState(PooledChannel channel, ConnectivityState current) {
+        try {
+            channel.notifyWhenStateChanged(current, () -> onStateChanged(channel));
+        } catch (UnsupportedOperationException ignored) {
+            // the transport does not report state
+        }
+    }
+
+    private void onStateChanged(PooledChannel channel) {
+        ConnectivityState state = channel.getState(false);
+        ConnectivityState previous = channel.getLastState();
+        channel.setLastState(state);
+        switch (state) {
+            case SHUTDOWN:
+                return;
+            case READY:
+                channel.resetConnectFailures();
+                break;
+            case TRANSIENT_FAILURE:
+                scheduleReconnect(channel, channel.incrementConnectFailures());
+                break;
+            case IDLE:
+                if (previous == ConnectivityState.READY ||
+                        previous == ConnectivityState.TRANSIENT_FAILURE) {
+                    // connection lost or went idle, reconnect before the
+                    // next call has to pay for it
+                    scheduleReconnect(channel, channel.getConnectFailures());
+                }
+                break;
+            default:
+                break;
+        }
+        watchState(channel, state);
+    }
+
+    private void scheduleReconnect(PooledChannel channel, int failures) {
+        if (closed || channel.isShutdown()) {
+            return;
+        }
+        long delay = reconnectDelay(failures);
+        Runnable reconnect = () -> {
+            if (channel.isShutdown()) {
+                return;
+            }
+            channel.resetConnectBackoff();
+            channel.getState(true);
+        };
+        if (delay <= 0) {
+            reconnect.run();
+            return;
+        }
+        scheduler.schedule(reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long reconnectDelay(int failures) {
+        if (failures <= 0) {
+            return 0;
+        }
+        int shift = Math.min(failures - 1, 30);
+        long delay = Math.min(reconnectBackoffInitial << shift, reconnectBackoffMax);
+        // jitter by +-20% to avoid reconnecting all channels at once
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+        return (long) (delay * jitter);
+    }
+
+    private final class ChannelGroup {
+        private final K key;
+        private final AtomicReferenceArray<PooledChannel> channels;
+        private final AtomicInteger next = new AtomicInteger();
+        private boolean shutdown = false;
+
+        ChannelGroup(K key) {
+            this.key = key;
+            this.channels = new AtomicReferenceArray<>(channelsPerKey);
+        }
+
+        /**
+         * Select a channel of the group, healthy channels are
+         * preferred.
+         *
+         * @return the channel, or null if the group has been shut down
+         */
+        ManagedChannel select() {
+            if (channelsPerKey == 1) {
+                return obtain(0);
+            }
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            switch (selectStrategy) {
+                case LEAST_OUTSTANDING_CALLS:
+                    return obtain(leastOutstanding(start));
+                case ROUND_ROBIN:
+                default:
+                    return obtain(nextHealthy(start));
+            }
+        }
+
+        private int nextHealthy(int start) {
+            for (int i = 0; i < channelsPerKey; i++) {
+                int index = (start + i) % channelsPerKey;
+                PooledChannel channel = channels.get(index);
+                if (channel == null || channel.isHealthy()) {
+                    return index;
+                }
+            }
+            return start % channelsPerKey;
+        }
+
+        private int leastOutstanding(int start) {
+            int selected = -1;
+            int least = Integer.MAX_VALUE;
+            for (int i = 0; i < channelsPerKey; i++) {
+                int index = (start + i) % channelsPerKey;
+                PooledChannel channel = channels.get(index);
+                if (channel == null || channel.isShutdown()) {
+                    // an unused slot has nothing in flight
+                    return index;
+                }
+                if (!channel.isHealthy()) {
+                    continue;
+                }
+                int outstanding = channel.getOutstandingCalls();
+                if (outstanding < least) {
+                    least = outstanding;
+                    selected = index;
+                }
+            }
+            return selected < 0 ? start % channelsPerKey : selected;
+        }
+
+        private ManagedChannel obtain(int index) {
+            PooledChannel channel = channels.get(index);
+            if (channel != null && !channel.isShutdown()) {
+                return channel;
+            }
+            synchronized (this) {
+                if (shutdown) {
+                    return null;
+                }
+                channel = channels.get(index);
+                if (channel == null || channel.isShutdown()) {
+                    channel = new PooledChannel(buildChannel(key));
+                    channels.set(index, channel);
+                    watchState(channel, ConnectivityState.IDLE);
+                }
+                return channel;
+            }
+        }
+
+        /**
+         * Returns true if any channel of the group has calls in flight.
+         */
+        boolean isBusy() {
+            for (int i = 0; i < channelsPerKey; i++) {
+                PooledChannel channel = channels.get(i);
+                if (channel != null && channel.getOutstandingCalls() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isHealthy() {
+            for (int i = 0; i < channelsPerKey; i++) {
+                PooledChannel channel = channels.get(i);
+                if (channel != null && channel.isHealthy()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Shut down all channels of the group, calls in flight
+         * are allowed to finish.
+         *
+         * @return the channels that were shut down
+         */
+        List<PooledChannel> shutdown() {
+            synchronized (this) {
+                shutdown = true;
+            }
+            List<PooledChannel> closing = new ArrayList<>(channelsPerKey);
+            for (int i = 0; i < channelsPerKey; i++) {
+                PooledChannel channel = channels.getAndSet(i, null);
+                if (channel != null) {
+                    channel.shutdown();
+                    closing.add(channel);
+                }
+            }
+            return closing;
         }
     }
-}
\ No newline at end of file
+}
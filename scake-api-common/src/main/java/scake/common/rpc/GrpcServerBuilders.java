@@ -0,0 +1,92 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import scake.server.Server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates gRPC server builders with the transport settings of
+ * {@link RpcConfig} applied, matching the channels of
+ * {@link ServerGrpcChannelPool}.
+ *
+ * @author RollW
+ */
+public final class GrpcServerBuilders {
+    private GrpcServerBuilders() {
+    }
+
+    /**
+     * Create a builder of the Netty server listening on the port
+     * of the server.
+     */
+    public static NettyServerBuilder forServer(Server server,
+                                               RpcConfig rpcConfig,
+                                               TransportResources transportResources) {
+        NettyServerBuilder builder = NettyServerBuilder.forPort(server.getPort())
+                .bossEventLoopGroup(transportResources.getEventLoopGroup())
+                .workerEventLoopGroup(transportResources.getEventLoopGroup())
+                .channelType(transportResources.getServerChannelType())
+                .keepAliveTime(rpcConfig.getKeepAliveTime(), TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(rpcConfig.getKeepAliveTimeout(), TimeUnit.MILLISECONDS)
+                // let our own clients ping as often as they are configured to
+                .permitKeepAliveTime(rpcConfig.getKeepAliveTime(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveWithoutCalls(rpcConfig.isKeepAliveWithoutCalls());
+        if (rpcConfig.isAutoFlowControl()) {
+            builder.initialFlowControlWindow(rpcConfig.getFlowControlWindow());
+        } else {
+            builder.flowControlWindow(rpcConfig.getFlowControlWindow());
+        }
+        if (rpcConfig.getMaxConcurrentCallsPerConnection() > 0) {
+            builder.maxConcurrentCallsPerConnection(
+                    rpcConfig.getMaxConcurrentCallsPerConnection());
+        }
+        applyCommon(builder, rpcConfig, transportResources);
+        return builder;
+    }
+
+    /**
+     * Create a builder of the in-process server of the server. It is
+     * reached by the channels of this JVM once the server is
+     * registered to {@link LocalServerRegistry}.
+     */
+    public static InProcessServerBuilder forInProcess(Server server,
+                                                      RpcConfig rpcConfig,
+                                                      TransportResources transportResources) {
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(
+                LocalServerRegistry.getInProcessName(server));
+        applyCommon(builder, rpcConfig, transportResources);
+        return builder;
+    }
+
+    private static void applyCommon(ServerBuilder<?> builder,
+                                    RpcConfig rpcConfig,
+                                    TransportResources transportResources) {
+        builder.executor(transportResources.getExecutor())
+                .maxInboundMessageSize(rpcConfig.getMaxInboundMessageSize());
+        if (rpcConfig.isCompressionEnabled()) {
+            builder.intercept(CompressionInterceptors.server(rpcConfig.getCompression()));
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import scake.server.Server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads from one of several replicas of the data, usually a list
+ * of {@link Server.Type#FILE_SERVER} servers.
+ * <p>
+ * The read is sent to the fastest replica first. If it gives no
+ * response within the hedge delay, the configured percentile of its
+ * recent latencies, the read is also sent to the next replica. The
+ * first replica to respond wins, the others are cancelled through
+ * {@link CancelableStreamObserver#cancel()}. A replica failing before
+ * any response fails over to the next one immediately.
+ * <p>
+ * The latency measured is the time to the first response.
+ *
+ * @author RollW
+ */
+public class HedgedReadClient<Req, Resp> implements Closeable {
+    private final ServerGrpcChannelPool channelPool;
+    private final ReplicaCall<Req, Resp> replicaCall;
+    private final HedgingPolicy hedgingPolicy;
+    private final ServerLatencyTracker latencyTracker;
+    private final ScheduledExecutorService scheduler;
+
+    public HedgedReadClient(ServerGrpcChannelPool channelPool,
+                            ReplicaCall<Req, Resp> replicaCall,
+                            HedgingPolicy hedgingPolicy,
+                            ServerLatencyTracker latencyTracker) {
+        this.channelPool = channelPool;
+        this.replicaCall = replicaCall;
+        this.hedgingPolicy = hedgingPolicy;
+        this.latencyTracker = latencyTracker;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("scake-hedged-read-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+    }
+
+    public HedgedReadClient(ServerGrpcChannelPool channelPool,
+                            ReplicaCall<Req, Resp> replicaCall) {
+        this(channelPool, replicaCall, HedgingPolicy.defaultPolicy(),
+                new ServerLatencyTracker());
+    }
+
+    /**
+     * Read from the replicas.
+     *
+     * @param replicas         servers holding the data
+     * @param request          the read request
+     * @param responseObserver receives the responses of the winning replica
+     * @return the read in progress
+     */
+    public HedgedRead read(List<Server> replicas,
+                           Req request,
+                           StreamObserver<Resp> responseObserver) {
+        if (replicas == null || replicas.isEmpty()) {
+            throw new IllegalArgumentException("replicas must not be empty.");
+        }
+        HedgedRead read = new HedgedRead(latencyTracker.rank(replicas),
+                request, responseObserver);
+        read.startAttempt(false);
+        return read;
+    }
+
+    public ServerLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private long hedgeDelay(Server server) {
+        long percentile = latencyTracker.getPercentile(server,
+                hedgingPolicy.getHedgePercentile());
+        if (percentile < 0) {
+            return hedgingPolicy.getMaxHedgeDelay();
+        }
+        return Math.max(hedgingPolicy.getMinHedgeDelay(),
+                Math.min(percentile, hedgingPolicy.getMaxHedgeDelay()));
+    }
+
+    /**
+     * Starts a read call on a replica.
+     */
+    @FunctionalInterface
+    public interface ReplicaCall<Req, Resp> {
+        /**
+         * Start the call, e.g. {@code FooGrpc.newStub(channel).read(request, observer)}.
+         * The observer is a {@link ClientResponseObserver} and must be
+         * passed to the stub as is.
+         */
+        void start(ManagedChannel channel, Req request,
+                   StreamObserver<Resp> responseObserver);
+    }
+
+    /**
+     * A hedged read in progress.
+     */
+    public final class HedgedRead {
+        private final List<Server> candidates;
+        private final Req request;
+        private final StreamObserver<Resp> responseObserver;
+        private final List<Attempt> attempts = new ArrayList<>();
+        private final int maxHedges;
+        private int hedges = 0;
+        private Attempt winner;
+        private boolean done = false;
+        private ScheduledFuture<?> hedgeTask;
+
+        private HedgedRead(List<Server> candidates, Req request,
+                           StreamObserver<Resp> responseObserver) {
+            this.candidates = candidates;
+            this.request = request;
+            this.responseObserver = responseObserver;
+            this.maxHedges = hedgingPolicy.getMaxAttempts() - 1;
+        }
+
+        /**
+         * Get the replica serving the read, or null if no replica
+         * has responded yet.
+         */
+        public synchronized Server getServedBy() {
+            return winner == null ? null : winner.server;
+        }
+
+        /**
+         * Cancel the read on all replicas. The response observer
+         * gets no more calls.
+         */
+        public void cancel() {
+            List<Attempt> running;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                cancelHedge();
+                running = new ArrayList<>(attempts);
+            }
+            for (Attempt attempt : running) {
+                attempt.cancel();
+            }
+        }
+
+        /**
+         * Send the read to the next replica.
+         *
+         * @param hedge true if it is a hedged request, false if it
+         *              is the first request or a failover
+         */
+        private void startAttempt(boolean hedge) {
+            Attempt attempt;
+            synchronized (this) {
+                int next = attempts.size();
+                if (done || winner != null || next >= candidates.size()) {
+                    return;
+                }
+                if (hedge && hedges >= maxHedges) {
+                    return;
+                }
+                if (hedge) {
+                    hedges++;
+                }
+                attempt = new Attempt(candidates.get(next));
+                attempts.add(attempt);
+                cancelHedge();
+                if (hedges < maxHedges && next + 1 < candidates.size()) {
+                    hedgeTask = scheduler.schedule(() -> startAttempt(true),
+                            hedgeDelay(attempt.server), TimeUnit.NANOSECONDS);
+                }
+            }
+            try {
+                ManagedChannel channel = channelPool.getChannel(attempt.server);
+                replicaCall.start(channel, request, attempt);
+            } catch (RuntimeException e) {
+                attempt.onError(e);
+            }
+        }
+
+        private void cancelHedge() {
+            if (hedgeTask != null) {
+                hedgeTask.cancel(false);
+                hedgeTask = null;
+            }
+        }
+
+        /**
+         * Try to make the attempt the winner.
+         *
+         * @return true if the attempt is the winner
+         */
+        private boolean claim(Attempt attempt) {
+            List<Attempt> losers = new ArrayList<>();
+            synchronized (this) {
+                if (winner != null || done) {
+                    return winner == attempt;
+                }
+                winner = attempt;
+                cancelHedge();
+                for (Attempt other : attempts) {
+                    if (other != attempt) {
+                        losers.add(other);
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            for (Attempt loser : losers) {
+                if (!loser.finished) {
+                    // lower bound of its latency, still worth to know
+                    latencyTracker.record(loser.server, now - loser.startTime,
+                            TimeUnit.NANOSECONDS);
+                }
+                loser.cancel();
+            }
+            return true;
+        }
+
+        private void onAttemptFailed(Attempt attempt, Throwable t) {
+            boolean failover;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (winner != null && winner != attempt) {
+                    // cancelled loser
+                    return;
+                }
+                if (winner == null) {
+                    for (Attempt other : attempts) {
+                        if (!other.finished) {
+                            // wait for the others still running
+                            return;
+                        }
+                    }
+                }
+                failover = winner == null && attempts.size() < candidates.size();
+                if (!failover) {
+                    done = true;
+                }
+            }
+            if (failover) {
+                startAttempt(false);
+                return;
+            }
+            responseObserver.onError(t);
+        }
+
+        private synchronized void complete() {
+            done = true;
+        }
+
+        private final class Attempt implements ClientResponseObserver<Req, Resp> {
+            private final Server server;
+            private final long startTime = System.nanoTime();
+            private volatile CancelableStreamObserver<Req> call;
+            private volatile boolean cancelled = false;
+            private volatile boolean finished = false;
+            private boolean responded = false;
+
+            Attempt(Server server) {
+                this.server = server;
+            }
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<Req> requestStream) {
+                this.call = StreamObserverWrapper.wrap(requestStream);
+            }
+
+            void cancel() {
+                cancelled = true;
+                CancelableStreamObserver<Req> current = call;
+                if (current != null) {
+                    current.cancel();
+                }
+            }
+
+            private boolean onFirstResponse() {
+                responded = true;
+                latencyTracker.record(server, System.nanoTime() - startTime,
+                        TimeUnit.NANOSECONDS);
+                return claim(this);
+            }
+
+            @Override
+            public void onNext(Resp value) {
+                if (cancelled) {
+                    // cancelled before the call was started
+                    cancel();
+                    return;
+                }
+                if (!responded && !onFirstResponse()) {
+                    cancel();
+                    return;
+                }
+                responseObserver.onNext(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                finished = true;
+                if (!cancelled && !responded) {
+                    // penalize the failed replica
+                    latencyTracker.record(server, hedgingPolicy.getMaxHedgeDelay(),
+                            TimeUnit.NANOSECONDS);
+                }
+                onAttemptFailed(this, t == null ? Status.UNKNOWN.asRuntimeException() : t);
+            }
+
+            @Override
+            public void onCompleted() {
+                finished = true;
+                if (cancelled) {
+                    return;
+                }
+                if (!responded && !onFirstResponse()) {
+                    return;
+                }
+                complete();
+                responseObserver.onCompleted();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy of hedged reads, see {@link HedgedReadClient}.
+ *
+ * @author RollW
+ */
+public class HedgingPolicy {
+    public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+    public static final long DEFAULT_MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(5);
+    public static final long DEFAULT_MAX_HEDGE_DELAY = TimeUnit.SECONDS.toNanos(1);
+    public static final int DEFAULT_MAX_ATTEMPTS = 2;
+
+    /**
+     * Latency percentile of the current replica after which
+     * a hedged request is sent.
+     */
+    private final double hedgePercentile;
+
+    /**
+     * Bounds of the hedge delay in nanoseconds. The maximum is also
+     * used when the replica has no latency samples yet.
+     */
+    private final long minHedgeDelay;
+    private final long maxHedgeDelay;
+
+    /**
+     * Maximum number of replicas a read is sent to, including
+     * the first one.
+     */
+    private final int maxAttempts;
+
+    private HedgingPolicy(Builder builder) {
+        if (builder.hedgePercentile <= 0 || builder.hedgePercentile > 1) {
+            throw new IllegalArgumentException("hedgePercentile must be in range (0, 1].");
+        }
+        if (builder.maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive.");
+        }
+        this.hedgePercentile = builder.hedgePercentile;
+        this.minHedgeDelay = builder.minHedgeDelay;
+        this.maxHedgeDelay = Math.max(builder.minHedgeDelay, builder.maxHedgeDelay);
+        this.maxAttempts = builder.maxAttempts;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public long getMinHedgeDelay() {
+        return minHedgeDelay;
+    }
+
+    public long getMaxHedgeDelay() {
+        return maxHedgeDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public static HedgingPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        private long minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+        private long maxHedgeDelay = DEFAULT_MAX_HEDGE_DELAY;
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+        public Builder setHedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder setHedgeDelay(long min, long max, TimeUnit unit) {
+            this.minHedgeDelay = unit.toNanos(min);
+            this.maxHedgeDelay = unit.toNanos(max);
+            return this;
+        }
+
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.ToIntFunction;
+
+/**
+ * Receives an inbound stream with manual flow control, requesting
+ * messages only as fast as an {@link InboundSink} acknowledges them.
+ * <p>
+ * The controller stops requesting once the bytes not yet acknowledged
+ * by the sink reach the high watermark, or the shared {@link MemoryBudget}
+ * is used up, and resumes when they fall below the low watermark and
+ * the budget has memory available again. A stream then holds at most
+ * the high watermark plus its prefetched messages in memory, whose
+ * size is bounded by the max inbound message size of the transport.
+ * <p>
+ * Usage in a client-streaming server method:
+ * <pre>{@code
+ * InboundFlowController<DataChunk> controller = InboundFlowController.attach(
+ *         StreamObserverWrapper.wrap(responseObserver), diskWriter, policy, uploadBudget);
+ * controller.whenDone().whenComplete((ignored, error) -> ...);
+ * return controller;
+ * }</pre>
+ *
+ * @author RollW
+ */
+public class InboundFlowController<V> implements StreamObserver<V> {
+    private static final Logger logger = LoggerFactory.getLogger(InboundFlowController.class);
+
+    private final CancelableStreamObserver<?> flowControl;
+    private final InboundSink<V> sink;
+    private final ToIntFunction<? super V> messageSizer;
+    private final InboundFlowPolicy policy;
+    private final MemoryBudget budget;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile StreamMetrics metrics;
+
+    // guarded by this
+    private long unacknowledgedBytes = 0;
+    private long receivedBytes = 0;
+    private int outstandingRequests = 0;
+    private int pendingWrites = 0;
+    private boolean paused = false;
+    private boolean waitingForBudget = false;
+    private boolean peerCompleted = false;
+    private boolean terminated = false;
+
+    private InboundFlowController(CancelableStreamObserver<?> flowControl,
+                                  InboundSink<V> sink,
+                                  ToIntFunction<? super V> messageSizer,
+                                  InboundFlowPolicy policy,
+                                  MemoryBudget budget) {
+        this.flowControl = flowControl;
+        this.sink = sink;
+        this.messageSizer = messageSizer;
+        this.policy = policy;
+        this.budget = budget;
+    }
+
+    /**
+     * Take over the inbound flow control of the call and start
+     * requesting messages. Must be called before the call is started,
+     * e.g. in the server method, before it returns.
+     *
+     * @param flowControl the observer controlling the inbound flow of
+     *                    the call, e.g. the wrapped response observer
+     *                    on the server side
+     */
+    public static <V> InboundFlowController<V> attach(
+            CancelableStreamObserver<?> flowControl,
+            InboundSink<V> sink,
+            ToIntFunction<? super V> messageSizer,
+            InboundFlowPolicy policy,
+            MemoryBudget budget) {
+        InboundFlowController<V> controller = new InboundFlowController<>(
+                flowControl, sink, messageSizer, policy, budget);
+        flowControl.disableAutoInboundFlowControl();
+        controller.requestMore();
+        return controller;
+    }
+
+    public static <V> InboundFlowController<V> attach(
+            CancelableStreamObserver<?> flowControl,
+            InboundSink<V> sink,
+            InboundFlowPolicy policy,
+            MemoryBudget budget) {
+        return attach(flowControl, sink, StreamObserverWrapper::estimateSize,
+                policy, budget);
+    }
+
+    /**
+     * Completes when the sink has completed, or exceptionally
+     * when the stream or the sink failed.
+     */
+    public CompletableFuture<Void> whenDone() {
+        return done;
+    }
+
+    /**
+     * Record received messages and the time the sink takes
+     * to acknowledge them into the metrics.
+     */
+    public void bindMetrics(StreamMetrics metrics) {
+        long start = System.nanoTime();
+        this.metrics = metrics;
+        metrics.recordStarted();
+        done.whenComplete((ignored, error) -> {
+            long bytes;
+            synchronized (this) {
+                bytes = receivedBytes;
+            }
+            metrics.recordClosed(error == null
+                            ? StreamMetrics.Outcome.COMPLETED
+                            : StreamMetrics.Outcome.FAILED,
+                    bytes, System.nanoTime() - start);
+        });
+    }
+
+    public synchronized long getUnacknowledgedBytes() {
+        return unacknowledgedBytes;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused || waitingForBudget;
+    }
+
+    @Override
+    public void onNext(V value) {
+        int size = Math.max(0, messageSizer.applyAsInt(value));
+        synchronized (this) {
+            if (outstandingRequests > 0) {
+                outstandingRequests--;
+            }
+            if (terminated) {
+                discard(value);
+                return;
+            }
+            unacknowledgedBytes += size;
+            receivedBytes += size;
+            pendingWrites++;
+        }
+        budget.acquire(size);
+        StreamMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordReceived(size);
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        CompletionStage<Void> stage;
+        try {
+            stage = sink.write(value);
+        } catch (RuntimeException e) {
+            onAcknowledged(size, e);
+            return;
+        }
+        stage.whenComplete((ignored, error) -> {
+            if (metrics != null) {
+                metrics.recordSinkLatency(System.nanoTime() - start);
+            }
+            onAcknowledged(size, error);
+        });
+        requestMore();
+    }
+
+    private void onAcknowledged(int size, Throwable error) {
+        boolean finish;
+        synchronized (this) {
+            unacknowledgedBytes -= size;
+            pendingWrites--;
+            finish = error == null && peerCompleted && pendingWrites == 0 && !terminated;
+            if (finish) {
+                terminated = true;
+            }
+        }
+        budget.release(size);
+        if (error != null) {
+            fail(error);
+            return;
+        }
+        if (finish) {
+            finish();
+            return;
+        }
+        requestMore();
+    }
+
+    private void requestMore() {
+        int count;
+        synchronized (this) {
+            if (terminated || peerCompleted) {
+                return;
+            }
+            if (unacknowledgedBytes >= policy.getHighWatermark()) {
+                paused = true;
+                return;
+            }
+            if (paused && unacknowledgedBytes > policy.getLowWatermark()) {
+                return;
+            }
+            paused = false;
+            if (!budget.isAvailable()) {
+                if (waitingForBudget) {
+                    return;
+                }
+                waitingForBudget = true;
+                count = 0;
+            } else {
+                count = policy.getPrefetch() - outstandingRequests;
+                if (count <= 0) {
+                    return;
+                }
+                outstandingRequests += count;
+            }
+        }
+        if (count == 0) {
+            // Outside the lock, the budget may run the waiters of
+            // other controllers right away, which take their locks.
+            budget.whenAvailable(this::onBudgetAvailable);
+            return;
+        }
+        flowControl.request(count);
+    }
+
+    private void onBudgetAvailable() {
+        synchronized (this) {
+            waitingForBudget = false;
+        }
+        requestMore();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            peerCompleted = true;
+            if (pendingWrites > 0) {
+                return;
+            }
+            terminated = true;
+        }
+        finish();
+    }
+
+    private void finish() {
+        CompletionStage<Void> stage;
+        try {
+            stage = sink.complete();
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+            return;
+        }
+        stage.whenComplete((ignored, error) -> {
+            if (error != null) {
+                done.completeExceptionally(error);
+            } else {
+                done.complete(null);
+            }
+        });
+    }
+
+    private void fail(Throwable cause) {
+        synchronized (this) {
+            if (terminated && done.isDone()) {
+                return;
+            }
+            terminated = true;
+        }
+        try {
+            sink.abort(cause);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to abort inbound sink.", e);
+        }
+        done.completeExceptionally(cause);
+    }
+
+    private static void discard(Object value) {
+        if (!(value instanceof AutoCloseable)) {
+            return;
+        }
+        try {
+            ((AutoCloseable) value).close();
+        } catch (Exception e) {
+            logger.debug("Failed to release discarded message.", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+/**
+ * Watermarks of an {@link InboundFlowController}.
+ *
+ * @author RollW
+ */
+public class InboundFlowPolicy {
+    public static final long DEFAULT_HIGH_WATERMARK = 4 * 1024 * 1024;
+    public static final long DEFAULT_LOW_WATERMARK = 1024 * 1024;
+    public static final int DEFAULT_PREFETCH = 1;
+
+    /**
+     * Bytes not yet acknowledged by the sink above which the stream
+     * stops requesting messages.
+     */
+    private final long highWatermark;
+
+    /**
+     * Bytes not yet acknowledged by the sink below which a paused
+     * stream requests messages again.
+     */
+    private final long lowWatermark;
+
+    /**
+     * Messages requested from the peer ahead of their arrival.
+     * A stream holds at most {@code highWatermark} plus
+     * {@code prefetch} messages in memory.
+     */
+    private final int prefetch;
+
+    private InboundFlowPolicy(Builder builder) {
+        if (builder.highWatermark <= 0) {
+            throw new IllegalArgumentException("highWatermark must be positive.");
+        }
+        if (builder.lowWatermark < 0 || builder.lowWatermark > builder.highWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be in range [0, highWatermark].");
+        }
+        if (builder.prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch must be positive.");
+        }
+        this.highWatermark = builder.highWatermark;
+        this.lowWatermark = builder.lowWatermark;
+        this.prefetch = builder.prefetch;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public static InboundFlowPolicy defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long highWatermark = DEFAULT_HIGH_WATERMARK;
+        private long lowWatermark = DEFAULT_LOW_WATERMARK;
+        private int prefetch = DEFAULT_PREFETCH;
+
+        private Builder() {
+        }
+
+        public Builder setHighWatermark(long highWatermark) {
+            this.highWatermark = highWatermark;
+            return this;
+        }
+
+        public Builder setLowWatermark(long lowWatermark) {
+            this.lowWatermark = lowWatermark;
+            return this;
+        }
+
+        public Builder setPrefetch(int prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        public InboundFlowPolicy build() {
+            return new InboundFlowPolicy(this);
+        }
+    }
+}
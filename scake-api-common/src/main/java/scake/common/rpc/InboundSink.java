@@ -0,0 +1,51 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Asynchronous consumer of inbound messages, see {@link InboundFlowController}.
+ *
+ * @author RollW
+ */
+public interface InboundSink<V> {
+    /**
+     * Accept a message. The returned stage completes when the message
+     * is consumed and its memory may be reused, e.g. when it has been
+     * written to disk.
+     * <p>
+     * Messages are passed in the order received, and it is up to the
+     * sink to keep that order when consuming them.
+     */
+    CompletionStage<Void> write(V value);
+
+    /**
+     * Called once all messages are acknowledged and the stream
+     * is completed by the peer.
+     */
+    CompletionStage<Void> complete();
+
+    /**
+     * Called when the stream fails or a write fails, no more
+     * messages are passed after it.
+     */
+    void abort(Throwable cause);
+}
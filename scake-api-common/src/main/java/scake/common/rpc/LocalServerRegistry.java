@@ -0,0 +1,63 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import scake.server.Server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the servers running in the current JVM. Channels
+ * to a registered server use the in-process transport instead
+ * of a loopback TCP connection.
+ *
+ * @author RollW
+ */
+public final class LocalServerRegistry {
+    private static final Set<Server> LOCAL_SERVERS = ConcurrentHashMap.newKeySet();
+
+    private LocalServerRegistry() {
+    }
+
+    /**
+     * Register a server started in this JVM. The server must also
+     * listen on the in-process transport under
+     * {@link #getInProcessName(Server)}.
+     */
+    public static void register(Server server) {
+        LOCAL_SERVERS.add(server);
+    }
+
+    public static void unregister(Server server) {
+        LOCAL_SERVERS.remove(server);
+    }
+
+    public static boolean isLocal(Server server) {
+        return LOCAL_SERVERS.contains(server);
+    }
+
+    /**
+     * Get the name of the in-process transport of the server.
+     */
+    public static String getInProcessName(Server server) {
+        return server.getQualifiedName();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget of memory in Bytes shared by inbound streams, e.g. all
+ * uploads of a server.
+ * <p>
+ * Memory is accounted after messages have arrived, so the budget may
+ * be exceeded by the messages already requested from the peers.
+ * Streams stop requesting once the budget is used up, and wait for
+ * {@link #whenAvailable(Runnable)}.
+ *
+ * @author RollW
+ */
+public class MemoryBudget {
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    public MemoryBudget(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive.");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * A budget without a limit.
+     */
+    public static MemoryBudget unlimited() {
+        return new MemoryBudget(Long.MAX_VALUE);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public boolean isAvailable() {
+        return used.get() < limit;
+    }
+
+    /**
+     * Account memory already in use.
+     */
+    public void acquire(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        if (used.addAndGet(-bytes) < limit) {
+            notifyWaiters();
+        }
+    }
+
+    /**
+     * Run the callback once when the budget has memory available,
+     * immediately if it has now.
+     */
+    public void whenAvailable(Runnable callback) {
+        waiters.offer(callback);
+        if (isAvailable()) {
+            notifyWaiters();
+        }
+    }
+
+    private void notifyWaiters() {
+        Runnable waiter;
+        while (isAvailable() && (waiter = waiters.poll()) != null) {
+            waiter.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBudget[used=" + used.get() + ", limit=" + limit + "]";
+    }
+}
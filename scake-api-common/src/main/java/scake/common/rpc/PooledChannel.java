@@ -0,0 +1,183 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A channel owned by the {@link GrpcChannelPool}, counting the
+ * calls in flight on the underlying channel.
+ *
+ * @author RollW
+ */
+final class PooledChannel extends ManagedChannel {
+    private final ManagedChannel delegate;
+    private final AtomicInteger outstandingCalls = new AtomicInteger();
+    private final AtomicInteger connectFailures = new AtomicInteger();
+    private volatile ConnectivityState lastState = ConnectivityState.IDLE;
+
+    PooledChannel(ManagedChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    int getOutstandingCalls() {
+        return outstandingCalls.get();
+    }
+
+    ConnectivityState getLastState() {
+        return lastState;
+    }
+
+    void setLastState(ConnectivityState lastState) {
+        this.lastState = lastState;
+    }
+
+    int getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    int incrementConnectFailures() {
+        return connectFailures.incrementAndGet();
+    }
+
+    void resetConnectFailures() {
+        connectFailures.set(0);
+    }
+
+    /**
+     * Returns true if the channel is usable and is not known
+     * to be failing to connect.
+     */
+    boolean isHealthy() {
+        return lastState != ConnectivityState.TRANSIENT_FAILURE &&
+                !delegate.isShutdown();
+    }
+
+    ManagedChannel getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+            MethodDescriptor<ReqT, RespT> methodDescriptor,
+            CallOptions callOptions) {
+        return new CountingClientCall<>(delegate.newCall(methodDescriptor, callOptions));
+    }
+
+    @Override
+    public String authority() {
+        return delegate.authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        delegate.shutdown();
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        delegate.shutdownNow();
+        return this;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        return delegate.getState(requestConnection);
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        delegate.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        delegate.resetConnectBackoff();
+    }
+
+    @Override
+    public void enterIdle() {
+        delegate.enterIdle();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledChannel[" + delegate + ", state=" + lastState +
+                ", outstanding=" + outstandingCalls.get() + "]";
+    }
+
+    private final class CountingClientCall<ReqT, RespT>
+            extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        CountingClientCall(ClientCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            outstandingCalls.incrementAndGet();
+            try {
+                super.start(new CountingListener<>(responseListener), headers);
+            } catch (RuntimeException e) {
+                outstandingCalls.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private final class CountingListener<RespT>
+            extends ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT> {
+        CountingListener(ClientCall.Listener<RespT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            outstandingCalls.decrementAndGet();
+            super.onClose(status, trailers);
+        }
+    }
+}
@@ -20,26 +20,249 @@
 package scake.common.rpc;
 
 import scake.common.Size;
+import scake.common.SizeUnit;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author RollW
  */
 public class RpcConfig {
+    public static final long DEFAULT_MAX_REQUEST_SIZE = SizeUnit.MEGABYTES.toBytes(16);
+    public static final int DEFAULT_CHANNELS_PER_SERVER = 1;
+    public static final int DEFAULT_MAX_POOLED_SERVERS = 1024;
+    public static final long DEFAULT_CHANNEL_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_CHANNEL_DRAIN_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_RECONNECT_BACKOFF_INITIAL = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_RECONNECT_BACKOFF_MAX = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_KEEP_ALIVE_TIME = TimeUnit.MINUTES.toMillis(2);
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
+    public static final int DEFAULT_FLOW_CONTROL_WINDOW = (int) SizeUnit.MEGABYTES.toBytes(1);
+    public static final String COMPRESSION_NONE = "identity";
+
     /**
      * Maximum size of a request in Bytes
      */
     private final long maxRequestSize;
 
+    /**
+     * Number of channels (connections) kept for each server.
+     */
+    private final int channelsPerServer;
+
+    /**
+     * Strategy to pick a channel when there are more than one
+     * channel for a server.
+     */
+    private final ChannelSelectStrategy channelSelectStrategy;
+
+    /**
+     * Maximum number of servers the channel pool keeps channels for,
+     * 0 means unbounded.
+     */
+    private final int maxPooledServers;
+
+    /**
+     * Time in milliseconds after which the channels of a server that
+     * has not been requested will be closed, 0 means never.
+     */
+    private final long channelIdleTimeout;
+
+    /**
+     * Time in milliseconds to wait for the calls on a closing channel
+     * to finish before it is closed forcibly.
+     */
+    private final long channelDrainTimeout;
+
+    /**
+     * Initial and maximum delay in milliseconds between proactive
+     * reconnections of a failed channel.
+     */
+    private final long reconnectBackoffInitial;
+    private final long reconnectBackoffMax;
+
+    /**
+     * Transport of the channels and servers.
+     */
+    private final TransportMode transportMode;
+
+    /**
+     * Number of threads of the shared event loop group,
+     * 0 means the Netty default.
+     */
+    private final int eventLoopThreads;
+
+    /**
+     * Number of threads of the shared executor running call
+     * callbacks, 0 means an unbounded cached pool.
+     */
+    private final int executorThreads;
+
+    /**
+     * Time in milliseconds between keepalive pings, and to wait for
+     * the ack of a ping before the connection is closed.
+     */
+    private final long keepAliveTime;
+    private final long keepAliveTimeout;
+
+    /**
+     * Whether to send keepalive pings on connections without calls.
+     */
+    private final boolean keepAliveWithoutCalls;
+
+    /**
+     * HTTP/2 flow control window in Bytes. With auto flow control it
+     * is the initial window, tuned later by the bandwidth-delay
+     * product (BDP) of the connection, otherwise it is fixed.
+     */
+    private final int flowControlWindow;
+    private final boolean autoFlowControl;
+
+    /**
+     * Maximum number of concurrent calls per incoming connection of
+     * a server, 0 means unlimited.
+     */
+    private final int maxConcurrentCallsPerConnection;
+
+    /**
+     * Compression of the messages, e.g. "gzip", or
+     * {@link #COMPRESSION_NONE}.
+     */
+    private final String compression;
+
     public RpcConfig(long maxRequestSize) {
-        this.maxRequestSize = maxRequestSize;
+        this(new Builder().setMaxRequestSize(maxRequestSize));
+    }
+
+    private RpcConfig(Builder builder) {
+        this.maxRequestSize = builder.maxRequestSize;
+        this.channelsPerServer = builder.channelsPerServer;
+        this.channelSelectStrategy = builder.channelSelectStrategy;
+        this.maxPooledServers = builder.maxPooledServers;
+        this.channelIdleTimeout = builder.channelIdleTimeout;
+        this.channelDrainTimeout = builder.channelDrainTimeout;
+        this.reconnectBackoffInitial = builder.reconnectBackoffInitial;
+        this.reconnectBackoffMax = builder.reconnectBackoffMax;
+        this.transportMode = builder.transportMode;
+        this.eventLoopThreads = builder.eventLoopThreads;
+        this.executorThreads = builder.executorThreads;
+        this.keepAliveTime = builder.keepAliveTime;
+        this.keepAliveTimeout = builder.keepAliveTimeout;
+        this.keepAliveWithoutCalls = builder.keepAliveWithoutCalls;
+        this.flowControlWindow = builder.flowControlWindow;
+        this.autoFlowControl = builder.autoFlowControl;
+        this.maxConcurrentCallsPerConnection = builder.maxConcurrentCallsPerConnection;
+        this.compression = builder.compression;
     }
 
     public long getMaxRequestSize() {
         return maxRequestSize;
     }
 
+    /**
+     * Get the maximum size of an inbound message in Bytes, leaving
+     * room for the message envelope of a request.
+     */
+    public int getMaxInboundMessageSize() {
+        return (int) Math.min(Integer.MAX_VALUE, maxRequestSize * 2);
+    }
+
+    public int getChannelsPerServer() {
+        return channelsPerServer;
+    }
+
+    public ChannelSelectStrategy getChannelSelectStrategy() {
+        return channelSelectStrategy;
+    }
+
+    public int getMaxPooledServers() {
+        return maxPooledServers;
+    }
+
+    public long getChannelIdleTimeout() {
+        return channelIdleTimeout;
+    }
+
+    public long getChannelDrainTimeout() {
+        return channelDrainTimeout;
+    }
+
+    public long getReconnectBackoffInitial() {
+        return reconnectBackoffInitial;
+    }
+
+    public long getReconnectBackoffMax() {
+        return reconnectBackoffMax;
+    }
+
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public long getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public boolean isKeepAliveWithoutCalls() {
+        return keepAliveWithoutCalls;
+    }
+
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public boolean isAutoFlowControl() {
+        return autoFlowControl;
+    }
+
+    public int getMaxConcurrentCallsPerConnection() {
+        return maxConcurrentCallsPerConnection;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compression != null && !COMPRESSION_NONE.equals(compression);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
     public static final class Builder {
-        private long maxRequestSize;
+        private long maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+        private int channelsPerServer = DEFAULT_CHANNELS_PER_SERVER;
+        private ChannelSelectStrategy channelSelectStrategy =
+                ChannelSelectStrategy.ROUND_ROBIN;
+        private int maxPooledServers = DEFAULT_MAX_POOLED_SERVERS;
+        private long channelIdleTimeout = DEFAULT_CHANNEL_IDLE_TIMEOUT;
+        private long channelDrainTimeout = DEFAULT_CHANNEL_DRAIN_TIMEOUT;
+        private long reconnectBackoffInitial = DEFAULT_RECONNECT_BACKOFF_INITIAL;
+        private long reconnectBackoffMax = DEFAULT_RECONNECT_BACKOFF_MAX;
+        private TransportMode transportMode = TransportMode.AUTO;
+        private int eventLoopThreads = 0;
+        private int executorThreads = 0;
+        private long keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
+        private long keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+        private boolean keepAliveWithoutCalls = false;
+        private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+        private boolean autoFlowControl = true;
+        private int maxConcurrentCallsPerConnection = 0;
+        private String compression = COMPRESSION_NONE;
 
         public Builder setMaxRequestSize(long maxRequestSize) {
             this.maxRequestSize = maxRequestSize;
@@ -51,8 +274,94 @@ public class RpcConfig {
             return this;
         }
 
+        public Builder setChannelsPerServer(int channelsPerServer) {
+            this.channelsPerServer = channelsPerServer;
+            return this;
+        }
+
+        public Builder setChannelSelectStrategy(ChannelSelectStrategy channelSelectStrategy) {
+            this.channelSelectStrategy = channelSelectStrategy;
+            return this;
+        }
+
+        public Builder setMaxPooledServers(int maxPooledServers) {
+            this.maxPooledServers = maxPooledServers;
+            return this;
+        }
+
+        public Builder setChannelIdleTimeout(long time, TimeUnit unit) {
+            this.channelIdleTimeout = unit.toMillis(time);
+            return this;
+        }
+
+        public Builder setChannelDrainTimeout(long time, TimeUnit unit) {
+            this.channelDrainTimeout = unit.toMillis(time);
+            return this;
+        }
+
+        public Builder setReconnectBackoff(long initial, long max, TimeUnit unit) {
+            this.reconnectBackoffInitial = unit.toMillis(initial);
+            this.reconnectBackoffMax = unit.toMillis(max);
+            return this;
+        }
+
+        public Builder setTransportMode(TransportMode transportMode) {
+            this.transportMode = transportMode;
+            return this;
+        }
+
+        public Builder setEventLoopThreads(int eventLoopThreads) {
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder setExecutorThreads(int executorThreads) {
+            this.executorThreads = executorThreads;
+            return this;
+        }
+
+        public Builder setKeepAliveTime(long time, TimeUnit unit) {
+            this.keepAliveTime = unit.toMillis(time);
+            return this;
+        }
+
+        public Builder setKeepAliveTimeout(long time, TimeUnit unit) {
+            this.keepAliveTimeout = unit.toMillis(time);
+            return this;
+        }
+
+        public Builder setKeepAliveWithoutCalls(boolean keepAliveWithoutCalls) {
+            this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+            return this;
+        }
+
+        public Builder setFlowControlWindow(int flowControlWindow) {
+            this.flowControlWindow = flowControlWindow;
+            return this;
+        }
+
+        public Builder setFlowControlWindow(Size size) {
+            this.flowControlWindow = (int) Math.min(Integer.MAX_VALUE, size.toBytes());
+            return this;
+        }
+
+        public Builder setAutoFlowControl(boolean autoFlowControl) {
+            this.autoFlowControl = autoFlowControl;
+            return this;
+        }
+
+        public Builder setMaxConcurrentCallsPerConnection(int maxConcurrentCallsPerConnection) {
+            this.maxConcurrentCallsPerConnection = maxConcurrentCallsPerConnection;
+            return this;
+        }
+
+        public Builder setCompression(String compression) {
+            this.compression = compression;
+            return this;
+        }
+
         public RpcConfig build() {
-            return new RpcConfig(maxRequestSize);
+            return new RpcConfig(this);
         }
     }
 }
@@ -21,47 +21,129 @@ package scake.common.rpc;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import scake.server.Server;
+import scake.server.membership.MembershipDelta;
+import scake.server.membership.MembershipListener;
+import scake.server.membership.MembershipSnapshot;
 
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Channel pool of {@link Server}s.
+ * <p>
+ * Channels to servers in the same JVM (see {@link LocalServerRegistry})
+ * use the in-process transport, others use the Netty transport
+ * selected by {@link RpcConfig#getTransportMode()}, sharing one event
+ * loop group and one executor.
+ *
  * @author RollW
  */
-public class ServerGrpcChannelPool extends GrpcChannelPool<Server> {
+public class ServerGrpcChannelPool extends GrpcChannelPool<Server>
+        implements MembershipListener {
     private final RpcConfig rpcConfig;
     private final ChannelConfigure channelConfigure;
+    private final TransportResources transportResources;
+    private final boolean ownResources;
 
     public ServerGrpcChannelPool(RpcConfig rpcConfig) {
-        this.rpcConfig = rpcConfig;
-        this.channelConfigure = null;
+        this(rpcConfig, null);
     }
 
     public ServerGrpcChannelPool(RpcConfig rpcConfig,
                                  ChannelConfigure channelConfigure) {
+        this(rpcConfig, channelConfigure, new TransportResources(rpcConfig), true);
+    }
+
+    /**
+     * Create a pool with the given transport resources. The resources
+     * are not closed with the pool.
+     */
+    public ServerGrpcChannelPool(RpcConfig rpcConfig,
+                                 ChannelConfigure channelConfigure,
+                                 TransportResources transportResources) {
+        this(rpcConfig, channelConfigure, transportResources, false);
+    }
+
+    private ServerGrpcChannelPool(RpcConfig rpcConfig,
+                                  ChannelConfigure channelConfigure,
+                                  TransportResources transportResources,
+                                  boolean ownResources) {
+        super(rpcConfig);
         this.rpcConfig = rpcConfig;
         this.channelConfigure = channelConfigure;
+        this.transportResources = transportResources;
+        this.ownResources = ownResources;
     }
 
     @Override
     @NonNull
     protected ManagedChannel buildChannel(Server server) {
-        ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forAddress(
+        ManagedChannelBuilder<?> builder = LocalServerRegistry.isLocal(server)
+                ? inProcessBuilder(server)
+                : nettyBuilder(server);
+        builder.executor(transportResources.getExecutor())
+                .maxInboundMessageSize(rpcConfig.getMaxInboundMessageSize());
+        if (rpcConfig.isCompressionEnabled()) {
+            builder.intercept(CompressionInterceptors.client(rpcConfig.getCompression()));
+        }
+        if (channelConfigure != null) {
+            channelConfigure.configure(builder);
+        }
+        return builder.build();
+    }
+
+    private ManagedChannelBuilder<?> inProcessBuilder(Server server) {
+        return InProcessChannelBuilder.forName(
+                LocalServerRegistry.getInProcessName(server)
+        );
+    }
+
+    private ManagedChannelBuilder<?> nettyBuilder(Server server) {
+        NettyChannelBuilder builder = NettyChannelBuilder.forAddress(
                         server.getHost(),
                         server.getPort()
                 )
+                .eventLoopGroup(transportResources.getEventLoopGroup())
+                .channelType(transportResources.getChannelType())
                 .usePlaintext()
-                .keepAliveTime(300, TimeUnit.DAYS)
-                .keepAliveTimeout(30, TimeUnit.MINUTES)
-                .maxInboundMessageSize((int) rpcConfig.getMaxRequestSize() * 2);
-        if (channelConfigure != null) {
-            channelConfigure.configure(builder);
+                .keepAliveTime(rpcConfig.getKeepAliveTime(), TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(rpcConfig.getKeepAliveTimeout(), TimeUnit.MILLISECONDS)
+                .keepAliveWithoutCalls(rpcConfig.isKeepAliveWithoutCalls());
+        if (rpcConfig.isAutoFlowControl()) {
+            // keeps BDP based window tuning enabled
+            builder.initialFlowControlWindow(rpcConfig.getFlowControlWindow());
+        } else {
+            builder.flowControlWindow(rpcConfig.getFlowControlWindow());
         }
-        return builder.build();
+        return builder;
     }
 
     public ManagedChannel forServer(Server target) {
         return getChannel(target);
     }
+
+    /**
+     * Drain the channels of the servers that left the cluster.
+     */
+    @Override
+    public void onMembershipChanged(MembershipDelta delta, MembershipSnapshot snapshot) {
+        for (Server server : delta.getRemoved()) {
+            disconnect(server);
+        }
+    }
+
+    public TransportResources getTransportResources() {
+        return transportResources;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (ownResources) {
+            transportResources.close();
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import scake.server.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the latency of calls to each {@link Server}, as an
+ * exponentially weighted moving average and a window of recent
+ * samples for percentiles. A percentile is computed again only
+ * once as many new samples came in as the window held, so reading
+ * it on every call does not sort the window every time.
+ *
+ * @author RollW
+ */
+public class ServerLatencyTracker {
+    private static final int DEFAULT_WINDOW_SIZE = 256;
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final ConcurrentMap<Server, LatencyStats> stats = new ConcurrentHashMap<>();
+    private final int windowSize;
+
+    public ServerLatencyTracker() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public ServerLatencyTracker(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive.");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Record a latency sample of the server.
+     */
+    public void record(Server server, long latency, TimeUnit unit) {
+        statsOf(server).record(unit.toNanos(latency));
+    }
+
+    /**
+     * Get the moving average latency of the server in nanoseconds,
+     * or 0 if the server has no samples yet.
+     */
+    public long getAverage(Server server) {
+        LatencyStats latencyStats = stats.get(server);
+        if (latencyStats == null) {
+            return 0;
+        }
+        return latencyStats.getAverage();
+    }
+
+    /**
+     * Get the latency percentile of the server in nanoseconds.
+     *
+     * @param percentile in range (0, 1]
+     * @return the percentile, or -1 if the server has no samples yet
+     */
+    public long getPercentile(Server server, double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in range (0, 1].");
+        }
+        LatencyStats latencyStats = stats.get(server);
+        if (latencyStats == null) {
+            return -1;
+        }
+        return latencyStats.getPercentile(percentile);
+    }
+
+    /**
+     * Sort the servers from the fastest to the slowest. Servers
+     * without samples come first, so they get measured.
+     */
+    public List<Server> rank(Collection<Server> servers) {
+        List<Server> ranked = new ArrayList<>(servers);
+        ranked.sort(Comparator.comparingLong(this::getAverage));
+        return ranked;
+    }
+
+    public void remove(Server server) {
+        stats.remove(server);
+    }
+
+    private LatencyStats statsOf(Server server) {
+        LatencyStats latencyStats = stats.get(server);
+        if (latencyStats != null) {
+            return latencyStats;
+        }
+        return stats.computeIfAbsent(server, key -> new LatencyStats(windowSize));
+    }
+
+    private static final class LatencyStats {
+        private final AtomicLongArray window;
+        private final AtomicInteger index = new AtomicInteger();
+        private final AtomicLong average = new AtomicLong(-1);
+        private volatile Percentile cached;
+
+        LatencyStats(int windowSize) {
+            this.window = new AtomicLongArray(windowSize);
+        }
+
+        void record(long nanos) {
+            int i = index.getAndIncrement() & Integer.MAX_VALUE;
+            window.set(i % window.length(), nanos);
+            while (true) {
+                long current = average.get();
+                long next = current < 0
+                        ? nanos
+                        : (long) (current + EWMA_ALPHA * (nanos - current));
+                if (average.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        long getAverage() {
+            return Math.max(0, average.get());
+        }
+
+        long getPercentile(double percentile) {
+            int recorded = index.get() & Integer.MAX_VALUE;
+            int count = Math.min(recorded, window.length());
+            if (count == 0) {
+                return -1;
+            }
+            Percentile current = cached;
+            if (current != null && current.percentile == percentile &&
+                    recorded - current.recorded >= 0 && recorded - current.recorded < current.count) {
+                return current.value;
+            }
+            long value = computePercentile(percentile, count);
+            cached = new Percentile(percentile, recorded, count, value);
+            return value;
+        }
+
+        private long computePercentile(double percentile, int count) {
+            long[] samples = new long[count];
+            for (int i = 0; i < count; i++) {
+                samples[i] = window.get(i);
+            }
+            Arrays.sort(samples);
+            int rank = (int) Math.ceil(percentile * count) - 1;
+            return samples[Math.max(0, Math.min(rank, count - 1))];
+        }
+    }
+
+    /**
+     * A percentile computed from the window when the given number
+     * of samples were recorded.
+     */
+    private static final class Percentile {
+        private final double percentile;
+        private final int recorded;
+        private final int count;
+        private final long value;
+
+        Percentile(double percentile, int recorded, int count, long value) {
+            this.percentile = percentile;
+            this.recorded = recorded;
+            this.count = count;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfer counters and histograms of streaming calls, aggregated
+ * for a method, a peer, or both, see {@link StreamMetricsRegistry}.
+ * <p>
+ * Recording is lock-free. Times are in nanoseconds.
+ *
+ * @author RollW
+ */
+public class StreamMetrics {
+    private final String name;
+    private final StreamMetrics[] parents;
+
+    private final LongAdder streamsStarted = new LongAdder();
+    private final LongAdder streamsCompleted = new LongAdder();
+    private final LongAdder streamsFailed = new LongAdder();
+    private final LongAdder streamsCancelled = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder notReadyNanos = new LongAdder();
+    private final LongAdder waitForReadyTimeouts = new LongAdder();
+
+    /**
+     * Time a message spent queued before the transport took it,
+     * high values mean the peer or the network is slow to drain.
+     */
+    private final LogHistogram queueLatency = new LogHistogram();
+
+    /**
+     * Length of the periods the stream was not ready.
+     */
+    private final LogHistogram notReadyPeriods = new LogHistogram();
+
+    /**
+     * Time a received message took to be consumed by the sink,
+     * e.g. written to disk.
+     */
+    private final LogHistogram sinkLatency = new LogHistogram();
+
+    /**
+     * Throughput of the completed streams in Bytes per second.
+     */
+    private final LogHistogram throughput = new LogHistogram();
+
+    StreamMetrics(String name, StreamMetrics... parents) {
+        this.name = name;
+        this.parents = parents;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void recordStarted() {
+        streamsStarted.increment();
+        for (StreamMetrics parent : parents) {
+            parent.recordStarted();
+        }
+    }
+
+    void recordSent(int bytes, long queuedNanos) {
+        messagesSent.increment();
+        bytesSent.add(bytes);
+        queueLatency.record(queuedNanos);
+        for (StreamMetrics parent : parents) {
+            parent.recordSent(bytes, queuedNanos);
+        }
+    }
+
+    void recordReceived(int bytes) {
+        messagesReceived.increment();
+        bytesReceived.add(bytes);
+        for (StreamMetrics parent : parents) {
+            parent.recordReceived(bytes);
+        }
+    }
+
+    void recordSinkLatency(long nanos) {
+        sinkLatency.record(nanos);
+        for (StreamMetrics parent : parents) {
+            parent.recordSinkLatency(nanos);
+        }
+    }
+
+    void recordNotReady(long nanos) {
+        notReadyNanos.add(nanos);
+        notReadyPeriods.record(nanos);
+        for (StreamMetrics parent : parents) {
+            parent.recordNotReady(nanos);
+        }
+    }
+
+    void recordWaitForReadyTimeout() {
+        waitForReadyTimeouts.increment();
+        for (StreamMetrics parent : parents) {
+            parent.recordWaitForReadyTimeout();
+        }
+    }
+
+    void recordClosed(Outcome outcome, long bytes, long durationNanos) {
+        switch (outcome) {
+            case COMPLETED:
+                streamsCompleted.increment();
+                if (durationNanos > 0) {
+                    throughput.record((long) (bytes * 1e9 / durationNanos));
+                }
+                break;
+            case FAILED:
+                streamsFailed.increment();
+                break;
+            case CANCELLED:
+                streamsCancelled.increment();
+                break;
+        }
+        for (StreamMetrics parent : parents) {
+            parent.recordClosed(outcome, bytes, durationNanos);
+        }
+    }
+
+    public long getStreamsStarted() {
+        return streamsStarted.sum();
+    }
+
+    public long getStreamsCompleted() {
+        return streamsCompleted.sum();
+    }
+
+    public long getStreamsFailed() {
+        return streamsFailed.sum();
+    }
+
+    public long getStreamsCancelled() {
+        return streamsCancelled.sum();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getNotReadyNanos() {
+        return notReadyNanos.sum();
+    }
+
+    /**
+     * Times {@link StreamObserverWrapper#waitForReady()} gave up
+     * waiting and let the caller send anyway.
+     */
+    public long getWaitForReadyTimeouts() {
+        return waitForReadyTimeouts.sum();
+    }
+
+    public LogHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    public LogHistogram getNotReadyPeriods() {
+        return notReadyPeriods;
+    }
+
+    public LogHistogram getSinkLatency() {
+        return sinkLatency;
+    }
+
+    public LogHistogram getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamMetrics{" +
+                "name='" + name + '\'' +
+                ", streamsStarted=" + getStreamsStarted() +
+                ", streamsCompleted=" + getStreamsCompleted() +
+                ", streamsFailed=" + getStreamsFailed() +
+                ", streamsCancelled=" + getStreamsCancelled() +
+                ", messagesSent=" + getMessagesSent() +
+                ", bytesSent=" + getBytesSent() +
+                ", messagesReceived=" + getMessagesReceived() +
+                ", bytesReceived=" + getBytesReceived() +
+                ", notReadyNanos=" + getNotReadyNanos() +
+                ", waitForReadyTimeouts=" + getWaitForReadyTimeouts() +
+                ", queueLatency=" + queueLatency +
+                ", sinkLatency=" + sinkLatency +
+                ", throughput=" + throughput +
+                '}';
+    }
+
+    enum Outcome {
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+}
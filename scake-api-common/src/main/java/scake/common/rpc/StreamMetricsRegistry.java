@@ -0,0 +1,102 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import scake.server.Server;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link StreamMetrics}. Metrics of a method and a peer
+ * are also aggregated for the method and for the peer alone.
+ *
+ * @author RollW
+ */
+public class StreamMetricsRegistry {
+    private static final String UNKNOWN_PEER = "unknown";
+    private static final StreamMetricsRegistry SHARED = new StreamMetricsRegistry();
+
+    private final Map<String, StreamMetrics> methods = new ConcurrentHashMap<>();
+    private final Map<String, StreamMetrics> peers = new ConcurrentHashMap<>();
+    private final Map<Key, StreamMetrics> streams = new ConcurrentHashMap<>();
+
+    public static StreamMetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the metrics of streams of the method with the peer.
+     *
+     * @param method full name of the method
+     * @param peer   the peer server, or null if unknown, e.g. a client
+     */
+    public StreamMetrics get(String method, Server peer) {
+        String peerName = peer == null ? UNKNOWN_PEER : peer.getQualifiedName();
+        return streams.computeIfAbsent(new Key(method, peerName), key ->
+                new StreamMetrics(method + "@" + peerName,
+                        getMethod(method), getPeer(peerName)));
+    }
+
+    public StreamMetrics getMethod(String method) {
+        return methods.computeIfAbsent(method, StreamMetrics::new);
+    }
+
+    public StreamMetrics getPeer(Server peer) {
+        return getPeer(peer.getQualifiedName());
+    }
+
+    private StreamMetrics getPeer(String peerName) {
+        return peers.computeIfAbsent(peerName, StreamMetrics::new);
+    }
+
+    public Map<String, StreamMetrics> getMethods() {
+        return Collections.unmodifiableMap(methods);
+    }
+
+    public Map<String, StreamMetrics> getPeers() {
+        return Collections.unmodifiableMap(peers);
+    }
+
+    private static final class Key {
+        private final String method;
+        private final String peer;
+
+        Key(String method, String peer) {
+            this.method = method;
+            this.peer = peer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return method.equals(key.method) && peer.equals(key.peer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, peer);
+        }
+    }
+}
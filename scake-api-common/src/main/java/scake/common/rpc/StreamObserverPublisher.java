@@ -0,0 +1,200 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.stub.StreamObserver;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A {@link Publisher} of an inbound stream, e.g. the request stream
+ * of a client-streaming server method. It is the {@code StreamObserver}
+ * receiving the messages and accepts one subscriber.
+ * <p>
+ * Inbound flow control of the call is taken over: messages are
+ * requested from the peer only on demand of the subscriber, so nothing
+ * is buffered in between. Cancelling the subscription cancels the call,
+ * and a failed or cancelled call is signalled with {@code onError}.
+ * <p>
+ * It must be created while the inbound flow control can still be
+ * disabled, e.g. in the server method, or in {@code beforeStart} on
+ * the client side.
+ *
+ * @author RollW
+ */
+public class StreamObserverPublisher<V> implements Publisher<V>, StreamObserver<V> {
+    private final CancelableStreamObserver<?> flowControl;
+
+    // guarded by this
+    private Subscriber<? super V> subscriber;
+    private long demand = 0;
+    private int granted = 0;
+    private boolean cancelled = false;
+    private boolean terminated = false;
+    private Throwable error;
+
+    /**
+     * @param flowControl the observer controlling the inbound flow of
+     *                    the call, e.g. the wrapped response observer
+     *                    on the server side
+     */
+    public StreamObserverPublisher(CancelableStreamObserver<?> flowControl) {
+        this.flowControl = flowControl;
+        flowControl.disableAutoInboundFlowControl();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super V> s) {
+        if (s == null) {
+            throw new NullPointerException("Subscriber cannot be null.");
+        }
+        boolean terminatedBefore;
+        Throwable terminalError;
+        synchronized (this) {
+            if (subscriber != null) {
+                s.onSubscribe(EmptySubscription.INSTANCE);
+                s.onError(new IllegalStateException(
+                        "Only one subscriber is allowed."));
+                return;
+            }
+            subscriber = s;
+            terminatedBefore = terminated;
+            terminalError = error;
+        }
+        s.onSubscribe(new InboundSubscription());
+        if (terminatedBefore) {
+            signalTerminal(s, terminalError);
+        }
+    }
+
+    @Override
+    public void onNext(V value) {
+        Subscriber<? super V> s;
+        synchronized (this) {
+            if (granted > 0) {
+                granted--;
+            }
+            if (cancelled || terminated) {
+                return;
+            }
+            s = subscriber;
+        }
+        s.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        terminate(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        terminate(null);
+    }
+
+    private void terminate(Throwable t) {
+        Subscriber<? super V> s;
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            error = t;
+            if (cancelled) {
+                return;
+            }
+            s = subscriber;
+        }
+        if (s != null) {
+            signalTerminal(s, t);
+        }
+    }
+
+    private static void signalTerminal(Subscriber<?> s, Throwable t) {
+        if (t == null) {
+            s.onComplete();
+        } else {
+            s.onError(t);
+        }
+    }
+
+    private void forward() {
+        int count;
+        synchronized (this) {
+            if (cancelled || terminated) {
+                return;
+            }
+            count = (int) Math.min(demand, Integer.MAX_VALUE - granted);
+            if (count <= 0) {
+                return;
+            }
+            demand -= count;
+            granted += count;
+        }
+        flowControl.request(count);
+    }
+
+    private final class InboundSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                Subscriber<? super V> s;
+                synchronized (StreamObserverPublisher.this) {
+                    s = subscriber;
+                }
+                cancel();
+                s.onError(new IllegalArgumentException(
+                        "Requested items must be positive, got " + n + "."));
+                return;
+            }
+            synchronized (StreamObserverPublisher.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            forward();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (StreamObserverPublisher.this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (terminated) {
+                    return;
+                }
+            }
+            flowControl.cancel();
+        }
+    }
+
+    private enum EmptySubscription implements Subscription {
+        INSTANCE;
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
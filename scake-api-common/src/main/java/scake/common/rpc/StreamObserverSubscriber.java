@@ -0,0 +1,143 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.stub.StreamObserver;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Subscriber} writing to an outbound stream, e.g. the response
+ * observer of a server-streaming call.
+ * <p>
+ * Demand follows the readiness of the stream: at most {@code prefetch}
+ * items are requested from the publisher while the stream is ready,
+ * and no more until the stream becomes ready again. Cancellation of
+ * the call cancels the subscription, and {@link #cancel()} cancels both.
+ * <p>
+ * It must be created while the handlers of the stream can still be set,
+ * e.g. in the server method, or in {@code beforeStart} on the client side.
+ *
+ * @author RollW
+ */
+public class StreamObserverSubscriber<V> implements Subscriber<V> {
+    public static final int DEFAULT_PREFETCH = 16;
+
+    private final CancelableStreamObserver<V> target;
+    private final int prefetch;
+    private final AtomicReference<Subscription> subscription = new AtomicReference<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean done = false;
+
+    public StreamObserverSubscriber(CancelableStreamObserver<V> target, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch must be positive.");
+        }
+        this.target = target;
+        this.prefetch = prefetch;
+        target.setOnReadyHandler(this::requestIfReady);
+        target.setOnCancelHandler(this::onTargetCancelled);
+    }
+
+    public static <V> StreamObserverSubscriber<V> of(StreamObserver<V> target) {
+        return new StreamObserverSubscriber<>(
+                StreamObserverWrapper.wrap(target), DEFAULT_PREFETCH);
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (!subscription.compareAndSet(null, s)) {
+            s.cancel();
+            return;
+        }
+        if (done || target.isCancelled()) {
+            s.cancel();
+            return;
+        }
+        requestIfReady();
+    }
+
+    private void requestIfReady() {
+        while (true) {
+            Subscription s = subscription.get();
+            if (s == null || done || !target.isReady()) {
+                return;
+            }
+            int current = outstanding.get();
+            if (current >= prefetch) {
+                return;
+            }
+            if (outstanding.compareAndSet(current, prefetch)) {
+                s.request(prefetch - current);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onNext(V value) {
+        outstanding.decrementAndGet();
+        if (done) {
+            return;
+        }
+        target.onNext(value);
+        requestIfReady();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            return;
+        }
+        done = true;
+        target.onError(t);
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        target.onCompleted();
+    }
+
+    private void onTargetCancelled() {
+        done = true;
+        Subscription s = subscription.get();
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    /**
+     * Cancel the subscription and the call.
+     */
+    public void cancel() {
+        if (done) {
+            return;
+        }
+        onTargetCancelled();
+        target.cancel();
+    }
+}
@@ -19,40 +19,218 @@
 
 package scake.common.rpc;
 
+import com.google.protobuf.MessageLite;
 import io.grpc.Status;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import scake.common.rpc.data.DataChunk;
+import scake.server.Server;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
+ * Wraps a {@link StreamObserver}, either the response observer of
+ * a server call or the request observer of a client call.
+ * <p>
+ * Outgoing messages are sent with the flow control of the call. The
+ * wrapper registers a single on-ready handler on the call, messages
+ * are queued while the call is not ready and sent from the handler
+ * once it becomes ready. {@link #send(Object)} hands the caller a
+ * future completing when the queued messages fall below the byte
+ * budget, so senders never park or spin a thread.
+ * <p>
+ * The on-ready and on-cancel handlers of a call can only be set when
+ * the call is initialized (in the service method on the server side,
+ * in {@code ClientResponseObserver.beforeStart} on the client side),
+ * the wrapper should be created there. Otherwise the messages are
+ * handed to the call directly, without waiting for readiness.
+ *
  * @author RollW
  */
 public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
+    /**
+     * Default budget of the queued messages in Bytes.
+     */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    private static final CompletableFuture<Void> COMPLETED =
+            CompletableFuture.completedFuture(null);
+
     private volatile boolean close = false;
+    private volatile boolean cancelled = false;
     private final StreamObserver<V> streamObserver;
-    private final ServerCallStreamObserver<V> callStreamObserver;
+    private final CallStreamObserver<V> callStreamObserver;
+    private final ServerCallStreamObserver<V> serverCallStreamObserver;
+    private final ClientCallStreamObserver<V> clientCallStreamObserver;
+
+    private final Queue<Outbound<V>> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private volatile ToIntFunction<? super V> messageSizer =
+            StreamObserverWrapper::estimateSize;
+
+    private volatile AdaptiveCompressionPolicy.StreamDecision compressionDecision;
+    private boolean messageCompression = true;
+
+    private volatile StreamMetrics metrics;
+    // below accessed by the draining thread only
+    private long streamStartNanos;
+    private long streamBytesSent;
+    private long notReadySince = 0;
+    private boolean metricsClosed = false;
+
+    private volatile boolean readyHandlerInstalled = false;
+    private volatile Runnable onReadyHandler;
+    private volatile Runnable onCancelHandler;
+    private volatile boolean completePending = false;
+    private volatile Throwable errorPending;
+    private volatile boolean terminated = false;
+
+    private final Object writableLock = new Object();
+    private CompletableFuture<Void> writableFuture;
+    private CompletableFuture<Void> readyFuture;
 
     public StreamObserverWrapper(StreamObserver<V> streamObserver) {
         this.streamObserver = streamObserver;
-        if (streamObserver instanceof ServerCallStreamObserver) {
-            this.callStreamObserver = (ServerCallStreamObserver<V>) streamObserver;
+        if (streamObserver instanceof CallStreamObserver) {
+            this.callStreamObserver = (CallStreamObserver<V>) streamObserver;
         } else {
             this.callStreamObserver = null;
         }
+        if (streamObserver instanceof ServerCallStreamObserver) {
+            this.serverCallStreamObserver = (ServerCallStreamObserver<V>) streamObserver;
+        } else {
+            this.serverCallStreamObserver = null;
+        }
+        if (streamObserver instanceof ClientCallStreamObserver) {
+            this.clientCallStreamObserver = (ClientCallStreamObserver<V>) streamObserver;
+        } else {
+            this.clientCallStreamObserver = null;
+        }
+        installHandlers();
+    }
+
+    private void installHandlers() {
+        if (callStreamObserver == null) {
+            return;
+        }
+        try {
+            callStreamObserver.setOnReadyHandler(this::handleReady);
+            readyHandlerInstalled = true;
+        } catch (IllegalStateException ignored) {
+            // the call has been initialized, it no longer
+            // allows setting the handler
+        }
+        if (serverCallStreamObserver == null) {
+            return;
+        }
+        try {
+            serverCallStreamObserver.setOnCancelHandler(this::handleCancel);
+        } catch (IllegalStateException ignored) {
+        }
     }
 
     private void close() {
         close = true;
     }
 
+    /**
+     * Set the budget of the queued messages. Once the queued messages
+     * exceed it, futures returned by {@link #send(Object)} complete
+     * only after the queue is drained below it.
+     */
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        if (maxBufferedBytes <= 0) {
+            throw new IllegalArgumentException("maxBufferedBytes must be positive.");
+        }
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Set the function estimating the size of a message in Bytes.
+     * By default the serialized size of protobuf messages is used.
+     */
+    public void setMessageSizer(ToIntFunction<? super V> messageSizer) {
+        this.messageSizer = messageSizer;
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
     @Override
     public void onNext(V value) {
+        send(value);
+    }
+
+    /**
+     * Send the message without blocking. It is sent immediately when
+     * the call is ready, or queued until it becomes ready.
+     * <p>
+     * Dependent actions of the returned future may run on the
+     * transport thread, use the async variants for heavy work.
+     *
+     * @return a future completing when the caller can send more,
+     * which is immediately if the queue is within the budget
+     */
+    public CompletableFuture<Void> send(V value) {
         if (close) {
-            return;
+            return COMPLETED;
+        }
+        int size = Math.max(0, messageSizer.applyAsInt(value));
+        long enqueuedAt = metrics == null ? 0 : System.nanoTime();
+        outbound.offer(new Outbound<>(value, size, enqueuedAt));
+        long buffered = bufferedBytes.addAndGet(size);
+        drain();
+        if (buffered < maxBufferedBytes || bufferedBytes.get() < maxBufferedBytes) {
+            return COMPLETED;
+        }
+        return whenWritable();
+    }
+
+    /**
+     * Get a future completing when the queued messages are within
+     * the budget.
+     */
+    public CompletableFuture<Void> whenWritable() {
+        synchronized (writableLock) {
+            if (terminated || bufferedBytes.get() < maxBufferedBytes) {
+                return COMPLETED;
+            }
+            if (writableFuture == null) {
+                writableFuture = new CompletableFuture<>();
+            }
+            return writableFuture;
+        }
+    }
+
+    /**
+     * Get a future completing when the call is ready and no messages
+     * are queued.
+     */
+    public CompletableFuture<Void> whenReady() {
+        synchronized (writableLock) {
+            if (terminated || (isWritableNow() && outbound.isEmpty())) {
+                return COMPLETED;
+            }
+            if (readyFuture == null) {
+                readyFuture = new CompletableFuture<>();
+            }
+            return readyFuture;
         }
-        streamObserver.onNext(value);
     }
 
     @Override
@@ -61,7 +239,8 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
             return;
         }
         close();
-        streamObserver.onError(t);
+        errorPending = t;
+        drain();
     }
 
     @Override
@@ -70,16 +249,32 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
             return;
         }
         close();
-        streamObserver.onCompleted();
+        completePending = true;
+        drain();
     }
 
     public void setClose() {
         close = true;
     }
 
+    /**
+     * Cancel the call. On the client side the call is cancelled
+     * and the server is notified, on the server side the call is
+     * closed with {@link Status#CANCELLED}.
+     */
     @Override
     public void cancel() {
-        onError(Status.CANCELLED.asRuntimeException());
+        if (clientCallStreamObserver == null) {
+            onError(Status.CANCELLED.asRuntimeException());
+            return;
+        }
+        if (close) {
+            return;
+        }
+        close();
+        cancelled = true;
+        clientCallStreamObserver.cancel("Cancelled by client.", null);
+        terminate();
     }
 
     @Override
@@ -90,56 +285,246 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
         return callStreamObserver.isReady();
     }
 
+    private boolean isWritableNow() {
+        // without the handler there is nothing to resume
+        // the queue, so never hold messages back
+        return !readyHandlerInstalled || isReady();
+    }
+
     @Override
     public void setOnReadyHandler(Runnable runnable) {
         if (callStreamObserver == null) {
             return;
         }
-        callStreamObserver.setOnReadyHandler(runnable);
+        this.onReadyHandler = runnable;
+        if (readyHandlerInstalled) {
+            return;
+        }
+        try {
+            callStreamObserver.setOnReadyHandler(this::handleReady);
+            readyHandlerInstalled = true;
+        } catch (IllegalStateException ignored) {
+            // the call has been initialized, the handler is
+            // kept but never run by the call
+        }
+    }
+
+    private void handleReady() {
+        drain();
+        Runnable handler = onReadyHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    private void handleCancel() {
+        close();
+        terminate();
+        Runnable handler = onCancelHandler;
+        if (handler != null) {
+            handler.run();
+        }
     }
 
-    public static final int WAIT_FOR_READY_TIMEOUT = 10000;
+    /**
+     * Time in milliseconds {@link #waitForReady()} waits at most.
+     */
+    public static final long WAIT_FOR_READY_TIMEOUT = 500;
 
+    /**
+     * Block until the call is ready, for at most
+     * {@link #WAIT_FOR_READY_TIMEOUT} milliseconds.
+     *
+     * @deprecated blocks the calling thread, use {@link #send(Object)}
+     * or {@link #whenReady()} instead.
+     */
+    @Deprecated
     public void waitForReady() throws InterruptedException {
-        if (isClosed()) {
+        if (isClosed() || callStreamObserver == null || isReady()) {
             return;
         }
-        if (callStreamObserver == null) {
+        try {
+            whenReady().get(WAIT_FOR_READY_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            StreamMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.recordWaitForReadyTimeout();
+            }
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    public void setOnCancelHandler(Runnable runnable) {
+        if (serverCallStreamObserver == null) {
             return;
         }
-        if (callStreamObserver.isReady()) {
+        this.onCancelHandler = runnable;
+    }
+
+    /**
+     * Send the queued messages while the call is ready. Only one
+     * thread drains at a time, the underlying observer is never
+     * called concurrently.
+     * <p>
+     * If the underlying observer throws, e.g. because the call was
+     * cancelled, the wrapper is terminated and the writers waiting
+     * on it are released before the exception is rethrown.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
             return;
         }
-        try {
-            CountDownLatch countDownLatch = new CountDownLatch(1);
-            callStreamObserver.setOnReadyHandler(countDownLatch::countDown);
-            boolean state = countDownLatch.await(500, TimeUnit.MILLISECONDS);
-            if (state) {
-                return;
+        int missed = 1;
+        RuntimeException failure = null;
+        do {
+            if (terminated) {
+                discardQueued();
+            } else {
+                try {
+                    drainQueued();
+                } catch (RuntimeException e) {
+                    failure = fail(failure, e);
+                }
             }
-        } catch (InterruptedException e) {
-            throw e;
-        } catch (Exception ignored) {
-            // it may not allow setting the handler
-        }
-
-        // fallback to busy waiting
-        int i = 0;
-        while (!callStreamObserver.isReady()) {
-            // wait for ready
-            // TODO: is there a better way to do this?
-            if (i++ > WAIT_FOR_READY_TIMEOUT) {
-                // wait for max 10000 times
-                return;
+            if (terminated) {
+                closeMetrics();
             }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+        signalWriters();
+        if (failure != null) {
+            throw failure;
         }
     }
 
-    public void setOnCancelHandler(Runnable runnable) {
-        if (callStreamObserver == null) {
+    private RuntimeException fail(RuntimeException failure, RuntimeException e) {
+        close();
+        if (errorPending == null) {
+            errorPending = e;
+        }
+        terminated = true;
+        discardQueued();
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    private void drainQueued() {
+        Throwable error = errorPending;
+        if (error != null) {
+            discardQueued();
+            terminated = true;
+            streamObserver.onError(error);
+            return;
+        }
+        StreamMetrics metrics = this.metrics;
+        boolean writable = isWritableNow();
+        while (writable) {
+            Outbound<V> next = outbound.poll();
+            if (next == null) {
+                break;
+            }
+            bufferedBytes.addAndGet(-next.size);
+            applyCompression(next);
+            streamObserver.onNext(next.value);
+            if (metrics != null) {
+                recordSent(metrics, next);
+            }
+            writable = isWritableNow();
+        }
+        if (metrics != null) {
+            recordReadiness(metrics, writable);
+        }
+        if (completePending && outbound.isEmpty()) {
+            terminated = true;
+            streamObserver.onCompleted();
+        }
+    }
+
+    private void recordSent(StreamMetrics metrics, Outbound<V> next) {
+        streamBytesSent += next.size;
+        long queued = next.enqueuedAt == 0 ? 0 : System.nanoTime() - next.enqueuedAt;
+        metrics.recordSent(next.size, queued);
+    }
+
+    private void recordReadiness(StreamMetrics metrics, boolean writable) {
+        if (writable) {
+            if (notReadySince != 0) {
+                metrics.recordNotReady(System.nanoTime() - notReadySince);
+                notReadySince = 0;
+            }
+            return;
+        }
+        if (notReadySince == 0) {
+            notReadySince = System.nanoTime();
+        }
+    }
+
+    private void closeMetrics() {
+        StreamMetrics metrics = this.metrics;
+        if (metrics == null || metricsClosed) {
             return;
         }
-        callStreamObserver.setOnCancelHandler(runnable);
+        metricsClosed = true;
+        StreamMetrics.Outcome outcome;
+        if (isCancelled()) {
+            outcome = StreamMetrics.Outcome.CANCELLED;
+        } else if (errorPending != null) {
+            outcome = StreamMetrics.Outcome.FAILED;
+        } else {
+            outcome = StreamMetrics.Outcome.COMPLETED;
+        }
+        metrics.recordClosed(outcome, streamBytesSent,
+                System.nanoTime() - streamStartNanos);
+    }
+
+    private void applyCompression(Outbound<V> next) {
+        AdaptiveCompressionPolicy.StreamDecision decision = compressionDecision;
+        if (decision == null) {
+            return;
+        }
+        boolean compress = decision.onMessage(next.value, next.size);
+        if (compress != messageCompression) {
+            messageCompression = compress;
+            callStreamObserver.setMessageCompression(compress);
+        }
+    }
+
+    private void discardQueued() {
+        Outbound<V> next;
+        while ((next = outbound.poll()) != null) {
+            bufferedBytes.addAndGet(-next.size);
+        }
+    }
+
+    private void terminate() {
+        terminated = true;
+        drain();
+    }
+
+    private void signalWriters() {
+        CompletableFuture<Void> writable = null;
+        CompletableFuture<Void> ready = null;
+        synchronized (writableLock) {
+            if (writableFuture != null &&
+                    (terminated || bufferedBytes.get() < maxBufferedBytes)) {
+                writable = writableFuture;
+                writableFuture = null;
+            }
+            if (readyFuture != null &&
+                    (terminated || (outbound.isEmpty() && isWritableNow()))) {
+                ready = readyFuture;
+                readyFuture = null;
+            }
+        }
+        if (writable != null) {
+            writable.complete(null);
+        }
+        if (ready != null) {
+            ready.complete(null);
+        }
     }
 
     @Override
@@ -162,15 +547,63 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
         if (callStreamObserver == null) {
             return;
         }
+        compressionDecision = null;
         callStreamObserver.setMessageCompression(enable);
     }
 
+    /**
+     * Record the transfer of this stream into the metrics. Must be
+     * called before the first message is sent.
+     */
+    public void bindMetrics(StreamMetrics metrics) {
+        this.streamStartNanos = System.nanoTime();
+        this.metrics = metrics;
+        metrics.recordStarted();
+    }
+
+    /**
+     * Record the transfer of this stream into the shared metrics
+     * of the method and the peer.
+     *
+     * @param peer the peer server, or null if unknown
+     * @see StreamMetricsRegistry
+     */
+    public void bindMetrics(String method, Server peer) {
+        bindMetrics(StreamMetricsRegistry.shared().get(method, peer));
+    }
+
+    /**
+     * Let the policy turn message compression on or off from the
+     * sampled compressibility of the messages. Must be called before
+     * the first message is sent.
+     * <p>
+     * On the server side the codec of the policy is set on the call.
+     * On the client side the codec is set when the call is created,
+     * see {@link CompressionInterceptors#client(AdaptiveCompressionPolicy)}.
+     */
+    public void setAdaptiveCompression(AdaptiveCompressionPolicy policy) {
+        if (callStreamObserver == null) {
+            return;
+        }
+        if (serverCallStreamObserver != null) {
+            String codec = policy.selectCodec();
+            if (codec == null) {
+                return;
+            }
+            serverCallStreamObserver.setCompression(codec);
+        }
+        // compression is on by default once the call has a codec,
+        // the decision is applied with the first message
+        messageCompression = true;
+        compressionDecision = policy.newStream();
+    }
+
     @Override
     public boolean isCancelled() {
-        if (callStreamObserver == null) {
-            return false;
+        if (serverCallStreamObserver == null) {
+            return cancelled;
         }
-        return callStreamObserver.isCancelled();
+        return serverCallStreamObserver.isCancelled();
     }
 
 
@@ -194,6 +627,18 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
         return streamObserver;
     }
 
+    /**
+     * Send items of type {@code T} gathered into batch messages
+     * of this stream.
+     *
+     * @param batcher builds a batch message from the items
+     * @see CoalescingStreamObserver
+     */
+    public <T> CoalescingStreamObserver<T, V> coalescing(
+            Function<List<T>, V> batcher, CoalescingPolicy policy) {
+        return new CoalescingStreamObserver<>(this, batcher, policy);
+    }
+
     public static <V> StreamObserverWrapper<V> wrap(
             StreamObserver<V> streamObserver) {
         if (streamObserver instanceof StreamObserverWrapper) {
@@ -202,4 +647,25 @@ public class StreamObserverWrapper<V> implements CancelableStreamObserver<V> {
         return new StreamObserverWrapper<>(streamObserver);
     }
 
+    static int estimateSize(Object value) {
+        if (value instanceof MessageLite) {
+            return ((MessageLite) value).getSerializedSize();
+        }
+        if (value instanceof DataChunk) {
+            return ((DataChunk) value).getSerializedSize();
+        }
+        return 0;
+    }
+
+    private static final class Outbound<V> {
+        private final V value;
+        private final int size;
+        private final long enqueuedAt;
+
+        Outbound(V value, int size, long enqueuedAt) {
+            this.value = value;
+            this.size = size;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transport resources shared by all channels (and servers) built
+ * with them: one event loop group and one application executor.
+ * <p>
+ * Resources are created lazily on first use.
+ *
+ * @author RollW
+ */
+public class TransportResources implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransportResources.class);
+
+    private final TransportMode transportMode;
+    private final int eventLoopThreads;
+    private final int executorThreads;
+
+    private volatile EventLoopGroup eventLoopGroup;
+    private volatile ExecutorService executor;
+    private volatile boolean closed = false;
+
+    public TransportResources(RpcConfig rpcConfig) {
+        this.transportMode = resolve(rpcConfig.getTransportMode());
+        this.eventLoopThreads = Math.max(0, rpcConfig.getEventLoopThreads());
+        this.executorThreads = rpcConfig.getExecutorThreads();
+    }
+
+    private static TransportMode resolve(TransportMode mode) {
+        if (mode == TransportMode.NIO) {
+            return TransportMode.NIO;
+        }
+        if (Epoll.isAvailable()) {
+            return TransportMode.EPOLL;
+        }
+        if (mode == TransportMode.EPOLL) {
+            logger.warn("Epoll transport is not available, fallback to NIO. Cause: {}",
+                    String.valueOf(Epoll.unavailabilityCause()));
+        }
+        return TransportMode.NIO;
+    }
+
+    /**
+     * Get the resolved transport mode, never {@link TransportMode#AUTO}.
+     */
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null) {
+            return group;
+        }
+        synchronized (this) {
+            checkOpen();
+            if (eventLoopGroup == null) {
+                DefaultThreadFactory threadFactory =
+                        new DefaultThreadFactory("scake-grpc-event-loop", true);
+                eventLoopGroup = transportMode == TransportMode.EPOLL
+                        ? new EpollEventLoopGroup(eventLoopThreads, threadFactory)
+                        : new NioEventLoopGroup(eventLoopThreads, threadFactory);
+            }
+            return eventLoopGroup;
+        }
+    }
+
+    public Class<? extends Channel> getChannelType() {
+        return transportMode == TransportMode.EPOLL
+                ? EpollSocketChannel.class
+                : NioSocketChannel.class;
+    }
+
+    public Class<? extends ServerChannel> getServerChannelType() {
+        return transportMode == TransportMode.EPOLL
+                ? EpollServerSocketChannel.class
+                : NioServerSocketChannel.class;
+    }
+
+    /**
+     * Get the executor running the application callbacks of
+     * the calls.
+     */
+    public ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            checkOpen();
+            if (executor == null) {
+                ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder()
+                        .setNameFormat("scake-grpc-executor-%d")
+                        .setDaemon(true);
+                executor = executorThreads > 0
+                        ? Executors.newFixedThreadPool(executorThreads, threadFactory.build())
+                        : Executors.newCachedThreadPool(threadFactory.build());
+            }
+            return executor;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Transport resources are closed.");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
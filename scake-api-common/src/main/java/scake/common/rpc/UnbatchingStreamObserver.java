@@ -0,0 +1,58 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc;
+
+import io.grpc.stub.StreamObserver;
+
+import java.util.function.Function;
+
+/**
+ * Splits batch messages sent by a {@link CoalescingStreamObserver}
+ * back into single items.
+ *
+ * @author RollW
+ */
+public class UnbatchingStreamObserver<B, T> implements StreamObserver<B> {
+    private final StreamObserver<T> delegate;
+    private final Function<? super B, ? extends Iterable<? extends T>> unbatcher;
+
+    public UnbatchingStreamObserver(StreamObserver<T> delegate,
+                                    Function<? super B, ? extends Iterable<? extends T>> unbatcher) {
+        this.delegate = delegate;
+        this.unbatcher = unbatcher;
+    }
+
+    @Override
+    public void onNext(B batch) {
+        for (T item : unbatcher.apply(batch)) {
+            delegate.onNext(item);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        delegate.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        delegate.onCompleted();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc.data;
+
+import scake.common.buffer.DirectBufferPool;
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+import space.lingu.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A chunk of file data carried by streaming calls, marshalled by
+ * {@link DataChunkMarshaller} without copying into protobuf messages.
+ * <p>
+ * The data of a chunk to send comes from a {@link ByteBuffer}
+ * (heap, direct or memory-mapped) or a region of a {@link FileChannel}.
+ * The data of a received chunk is held in a pooled direct buffer,
+ * which is returned to the pool on {@link #close()}. A chunk to send
+ * may hold a pooled buffer too, which is returned to the pool once
+ * it has been sent.
+ * <p>
+ * A chunk may carry the {@link BlockChecksums} of its data, which
+ * are sent with it and verified when it is received.
+ *
+ * @author RollW
+ */
+public final class DataChunk implements Closeable {
+    private final long offset;
+    private final int length;
+    private final ByteBuffer buffer;
+    private final FileChannel fileChannel;
+    private final long filePosition;
+    private final DirectBufferPool pool;
+    @Nullable
+    private final BlockChecksums checksums;
+    private final boolean releasedWhenSent;
+    private volatile boolean released = false;
+
+    private DataChunk(long offset, int length, ByteBuffer buffer,
+                      FileChannel fileChannel, long filePosition,
+                      DirectBufferPool pool, @Nullable BlockChecksums checksums,
+                      boolean releasedWhenSent) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative.");
+        }
+        if (checksums != null && checksums.getLength() != length) {
+            throw new IllegalArgumentException("Checksums cover " + checksums.getLength() +
+                    " Bytes, but the chunk has " + length);
+        }
+        this.offset = offset;
+        this.length = length;
+        this.buffer = buffer;
+        this.fileChannel = fileChannel;
+        this.filePosition = filePosition;
+        this.pool = pool;
+        this.checksums = checksums;
+        this.releasedWhenSent = releasedWhenSent;
+    }
+
+    /**
+     * Create a chunk of the remaining bytes of the buffer. The buffer
+     * is not copied and must not be modified until the chunk is sent.
+     *
+     * @param offset offset of the data in the file
+     */
+    public static DataChunk of(long offset, ByteBuffer buffer) {
+        return of(offset, buffer, null);
+    }
+
+    /**
+     * Create a chunk of the remaining bytes of the buffer, sent with
+     * the given checksums of them.
+     */
+    public static DataChunk of(long offset, ByteBuffer buffer,
+                               @Nullable BlockChecksums checksums) {
+        return new DataChunk(offset, buffer.remaining(), buffer.slice(),
+                null, 0, null, checksums, false);
+    }
+
+    /**
+     * Create a chunk of the remaining bytes of the buffer, computing
+     * their checksums with the default block size.
+     */
+    public static DataChunk checksummed(long offset, ByteBuffer buffer) {
+        return of(offset, buffer, BlockChecksums.compute(buffer,
+                BlockChecksums.DEFAULT_BLOCK_SIZE));
+    }
+
+    /**
+     * Create a chunk of a region of the file channel, read only
+     * when the chunk is sent.
+     *
+     * @param offset   offset of the data in the file
+     * @param position position of the region in the channel
+     * @param length   length of the region
+     */
+    public static DataChunk ofFile(long offset, FileChannel fileChannel,
+                                   long position, int length) {
+        return ofFile(offset, fileChannel, position, length, null);
+    }
+
+    /**
+     * Create a chunk of a region of the file channel, sent with the
+     * given checksums of the region, e.g. those stored with it.
+     */
+    public static DataChunk ofFile(long offset, FileChannel fileChannel,
+                                   long position, int length,
+                                   @Nullable BlockChecksums checksums) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length must not be negative.");
+        }
+        return new DataChunk(offset, length, null, fileChannel, position, null,
+                checksums, false);
+    }
+
+    /**
+     * Create a chunk of the remaining bytes of a buffer acquired from
+     * the pool, to be sent once. The buffer is released when the
+     * serialized chunk has been read to the end or closed by the
+     * transport, which may be after the send call returned, or when
+     * the chunk is closed.
+     */
+    public static DataChunk sendPooled(long offset, ByteBuffer buffer, DirectBufferPool pool) {
+        return new DataChunk(offset, buffer.remaining(), buffer, null, 0, pool,
+                null, true);
+    }
+
+    static DataChunk pooled(long offset, ByteBuffer buffer, DirectBufferPool pool,
+                            @Nullable BlockChecksums checksums) {
+        return new DataChunk(offset, buffer.remaining(), buffer, null, 0, pool,
+                checksums, false);
+    }
+
+    /**
+     * Offset of the data in the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Length of the data in Bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Size of the chunk on the wire in Bytes.
+     */
+    public int getSerializedSize() {
+        return getHeaderSize() + length;
+    }
+
+    int getHeaderSize() {
+        return DataChunkMarshaller.HEADER_SIZE +
+                (checksums == null ? 0 : checksums.getSerializedSize());
+    }
+
+    /**
+     * Get the checksums of the data, or null if the chunk has none.
+     */
+    @Nullable
+    public BlockChecksums getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Verify the data against its checksums, if the chunk has any.
+     */
+    public void verify() throws ChecksumException {
+        if (checksums == null) {
+            return;
+        }
+        checkNotReleased();
+        if (buffer != null) {
+            checksums.verify(buffer);
+            return;
+        }
+        checksums.verify(getData());
+    }
+
+    /**
+     * Whether the chunk is closed once it has been sent.
+     */
+    boolean isReleasedWhenSent() {
+        return releasedWhenSent;
+    }
+
+    boolean isFileRegion() {
+        return fileChannel != null;
+    }
+
+    FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    long getFilePosition() {
+        return filePosition;
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Get a read-only view of the data. A file region is mapped
+     * into memory.
+     */
+    public ByteBuffer getData() {
+        checkNotReleased();
+        if (buffer != null) {
+            return buffer.asReadOnlyBuffer();
+        }
+        try {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, filePosition, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copy the data from its start into the remaining space of the
+     * buffer, up to the end of the data. A file region is read from
+     * the channel, not mapped.
+     *
+     * @return number of bytes copied
+     */
+    public int copyTo(ByteBuffer dst) throws IOException {
+        checkNotReleased();
+        int count = Math.min(length, dst.remaining());
+        if (buffer != null) {
+            ByteBuffer data = buffer.duplicate();
+            data.limit(data.position() + count);
+            dst.put(data);
+            return count;
+        }
+        ByteBuffer target = dst.duplicate();
+        target.limit(target.position() + count);
+        while (target.hasRemaining()) {
+            int read = fileChannel.read(target,
+                    filePosition + target.position() - dst.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file region.");
+            }
+        }
+        dst.position(dst.position() + count);
+        return count;
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Data chunk has been released.");
+        }
+    }
+
+    /**
+     * Release the pooled buffer of a chunk. The data must not
+     * be used after it. It does not close the file channel of a file
+     * region.
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DataChunk[offset=" + offset + ", length=" + length +
+                (fileChannel != null ? ", file region" : "") +
+                (checksums != null ? ", checksummed" : "") + "]";
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc.data;
+
+import io.grpc.Drainable;
+import io.grpc.HasByteBuffer;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import scake.common.buffer.DirectBufferPool;
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+import scake.common.rpc.RpcConfig;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Marshaller of {@link DataChunk}s.
+ * <p>
+ * On send, the chunk is drained straight from its buffer or file
+ * region into the transport, no protobuf {@code ByteString} is built.
+ * On receive, the data is copied from the transport buffers into a
+ * pooled direct buffer, skipping the heap.
+ * <p>
+ * Wire format (big-endian):
+ * <pre>
+ * | version (1) | flags (1) | offset (8) | length (4) | [checksums] | data (length) |
+ * </pre>
+ * With {@link #FLAG_CHECKSUMS} set, the {@link BlockChecksums} of the
+ * data follow the header, and the data is verified against them
+ * when it is received. A mismatch fails the call with
+ * {@link Status#DATA_LOSS}.
+ *
+ * @author RollW
+ */
+public class DataChunkMarshaller implements MethodDescriptor.Marshaller<DataChunk> {
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 1 + 1 + 8 + 4;
+    public static final byte FLAG_CHECKSUMS = 0x01;
+    /**
+     * Default of the largest data length accepted on receive, the
+     * largest inbound message of the default {@link RpcConfig}.
+     */
+    public static final int DEFAULT_MAX_LENGTH = (int) Math.min(Integer.MAX_VALUE,
+            RpcConfig.DEFAULT_MAX_REQUEST_SIZE * 2);
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> TRANSFER_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[TRANSFER_BUFFER_SIZE]);
+
+    private static final DataChunkMarshaller INSTANCE =
+            new DataChunkMarshaller(DirectBufferPool.shared());
+
+    private final DirectBufferPool pool;
+    private final int maxLength;
+
+    public DataChunkMarshaller(DirectBufferPool pool) {
+        this(pool, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxLength largest data length accepted on receive, e.g.
+     *                  {@link RpcConfig#getMaxInboundMessageSize()}
+     */
+    public DataChunkMarshaller(DirectBufferPool pool, int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("maxLength must not be negative.");
+        }
+        this.pool = pool;
+        this.maxLength = maxLength;
+    }
+
+    public static DataChunkMarshaller getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public InputStream stream(DataChunk value) {
+        return new DataChunkInputStream(value);
+    }
+
+    @Override
+    public DataChunk parse(InputStream stream) {
+        try {
+            return parseChunk(stream);
+        } catch (ChecksumException e) {
+            throw Status.DATA_LOSS
+                    .withDescription("Data chunk does not match its checksums.")
+                    .withCause(e)
+                    .asRuntimeException();
+        } catch (IOException e) {
+            throw Status.INTERNAL
+                    .withDescription("Invalid data chunk.")
+                    .withCause(e)
+                    .asRuntimeException();
+        }
+    }
+
+    private DataChunk parseChunk(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported data chunk version: " + version);
+        }
+        byte flags = input.readByte();
+        long offset = input.readLong();
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid data chunk length: " + length);
+        }
+        // The length is untrusted, check it before buffers are
+        // allocated for it.
+        if (length > maxLength) {
+            throw new IOException("Data chunk length " + length +
+                    " exceeds the limit " + maxLength);
+        }
+        if (stream instanceof KnownLength && length > stream.available()) {
+            throw new IOException("Data chunk length " + length + " exceeds the " +
+                    stream.available() + " Bytes left in the message.");
+        }
+        BlockChecksums checksums = null;
+        if ((flags & FLAG_CHECKSUMS) != 0) {
+            checksums = readChecksums(stream, input, length);
+        }
+        ByteBuffer buffer = pool.acquire(length);
+        try {
+            readFully(stream, buffer);
+            buffer.flip();
+            if (checksums != null) {
+                checksums.verify(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        return DataChunk.pooled(offset, buffer, pool, checksums);
+    }
+
+    private static BlockChecksums readChecksums(InputStream stream, DataInputStream input,
+                                                int length) throws IOException {
+        int blockSize = input.readInt();
+        long checksumsLength = input.readLong();
+        if (!BlockChecksums.isValidBlockSize(blockSize) || checksumsLength != length) {
+            throw new IOException("Invalid data chunk checksums.");
+        }
+        int blockCount = BlockChecksums.blockCount(length, blockSize);
+        if (stream instanceof KnownLength && blockCount > stream.available() / 4) {
+            throw new IOException("Data chunk checksums of " + blockCount + " blocks exceed the " +
+                    stream.available() + " Bytes left in the message.");
+        }
+        int[] checksums = new int[blockCount];
+        for (int i = 0; i < checksums.length; i++) {
+            checksums[i] = input.readInt();
+        }
+        return new BlockChecksums(blockSize, length, checksums);
+    }
+
+    private static void readFully(InputStream stream, ByteBuffer target) throws IOException {
+        if (stream instanceof HasByteBuffer &&
+                ((HasByteBuffer) stream).byteBufferSupported()) {
+            readFromBuffers(stream, target);
+        }
+        if (!target.hasRemaining()) {
+            return;
+        }
+        byte[] transfer = TRANSFER_BUFFER.get();
+        while (target.hasRemaining()) {
+            int read = stream.read(transfer, 0,
+                    Math.min(transfer.length, target.remaining()));
+            if (read < 0) {
+                throw new IOException("Unexpected end of data chunk.");
+            }
+            target.put(transfer, 0, read);
+        }
+    }
+
+    /**
+     * Copy from the transport buffers directly, without
+     * an intermediate heap array.
+     */
+    private static void readFromBuffers(InputStream stream, ByteBuffer target) throws IOException {
+        HasByteBuffer source = (HasByteBuffer) stream;
+        while (target.hasRemaining()) {
+            ByteBuffer next = source.getByteBuffer();
+            if (next == null) {
+                return;
+            }
+            int count = Math.min(next.remaining(), target.remaining());
+            if (count == 0) {
+                return;
+            }
+            ByteBuffer slice = next.duplicate();
+            slice.limit(slice.position() + count);
+            target.put(slice);
+            long skipped = stream.skip(count);
+            if (skipped != count) {
+                throw new IOException("Failed to skip consumed bytes.");
+            }
+        }
+    }
+
+    private static final class DataChunkInputStream extends InputStream
+            implements Drainable, KnownLength {
+        private final DataChunk chunk;
+        private final ByteBuffer header;
+        private long position = 0;
+
+        DataChunkInputStream(DataChunk chunk) {
+            this.chunk = chunk;
+            this.header = ByteBuffer.allocate(chunk.getHeaderSize());
+            BlockChecksums checksums = chunk.getChecksums();
+            header.put(VERSION)
+                    .put(checksums == null ? 0 : FLAG_CHECKSUMS)
+                    .putLong(chunk.getOffset())
+                    .putInt(chunk.getLength());
+            if (checksums != null) {
+                checksums.writeTo(header);
+            }
+            header.flip();
+        }
+
+        private long total() {
+            return header.limit() + (long) chunk.getLength();
+        }
+
+        @Override
+        public int available() {
+            return (int) (total() - position);
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            int remaining = available();
+            if (header.hasRemaining()) {
+                target.write(header.array(), header.position(), header.remaining());
+                header.position(header.limit());
+            }
+            long dataPosition = Math.max(0, position - header.limit());
+            int dataLength = (int) (chunk.getLength() - dataPosition);
+            if (chunk.isFileRegion()) {
+                transferFile(target, chunk.getFilePosition() + dataPosition, dataLength);
+            } else {
+                writeBuffer(target, (int) dataPosition, dataLength);
+            }
+            position = total();
+            releaseIfSent();
+            return remaining;
+        }
+
+        /**
+         * Release a chunk sent from a pooled buffer once it is fully
+         * read, the transport may read it after the send returned.
+         */
+        private void releaseIfSent() {
+            if (chunk.isReleasedWhenSent()) {
+                chunk.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            releaseIfSent();
+        }
+
+        /**
+         * Transfer a file region. The target is the output stream of
+         * the gRPC framer, which copies into its own buffers, so there
+         * is no channel to {@link FileChannel#transferTo} into. The
+         * region is read into the transfer buffer of the thread and
+         * copied from there, not into a new buffer for every chunk.
+         */
+        private void transferFile(OutputStream target, long filePosition,
+                                  int length) throws IOException {
+            FileChannel fileChannel = chunk.getFileChannel();
+            byte[] transfer = TRANSFER_BUFFER.get();
+            int transferred = 0;
+            while (transferred < length) {
+                ByteBuffer buffer = ByteBuffer.wrap(transfer, 0,
+                        Math.min(transfer.length, length - transferred));
+                int read = fileChannel.read(buffer, filePosition + transferred);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file region.");
+                }
+                target.write(transfer, 0, read);
+                transferred += read;
+            }
+        }
+
+        private void writeBuffer(OutputStream target, int from, int length) throws IOException {
+            ByteBuffer data = chunk.getBuffer().duplicate();
+            data.position(data.position() + from);
+            if (data.hasArray()) {
+                target.write(data.array(), data.arrayOffset() + data.position(), length);
+                return;
+            }
+            byte[] transfer = TRANSFER_BUFFER.get();
+            int left = length;
+            while (left > 0) {
+                int count = Math.min(left, transfer.length);
+                data.get(transfer, 0, count);
+                target.write(transfer, 0, count);
+                left -= count;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= total()) {
+                return -1;
+            }
+            if (header.hasRemaining()) {
+                int count = Math.min(len, header.remaining());
+                header.get(b, off, count);
+                position += count;
+                return count;
+            }
+            int dataPosition = (int) (position - header.limit());
+            int count = Math.min(len, chunk.getLength() - dataPosition);
+            if (chunk.isFileRegion()) {
+                ByteBuffer target = ByteBuffer.wrap(b, off, count);
+                int read = chunk.getFileChannel().read(target,
+                        chunk.getFilePosition() + dataPosition);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file region.");
+                }
+                count = read;
+            } else {
+                ByteBuffer data = chunk.getBuffer().duplicate();
+                data.position(data.position() + dataPosition);
+                data.get(b, off, count);
+            }
+            position += count;
+            if (position == total()) {
+                releaseIfSent();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc.data;
+
+import io.grpc.MethodDescriptor;
+
+/**
+ * Methods of the file data service of file servers, marshalled
+ * without protobuf.
+ *
+ * @author RollW
+ */
+public final class FileDataService {
+    public static final String SERVICE_NAME = "scake.file.FileData";
+
+    /**
+     * Read ranges of a file. The chunks of the response carry the
+     * file offsets of their data and arrive in the order the data
+     * is stored, not in the order of the ranges.
+     */
+    public static final MethodDescriptor<RangeReadRequest, DataChunk> READ_RANGES =
+            MethodDescriptor.newBuilder(RangeReadRequestMarshaller.getInstance(),
+                            DataChunkMarshaller.getInstance())
+                    .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(
+                            SERVICE_NAME, "ReadRanges"))
+                    .build();
+
+    private FileDataService() {
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Request to read ranges of a file, answered by a stream of
+ * {@link DataChunk}s.
+ *
+ * @author RollW
+ */
+public final class RangeReadRequest {
+    private final String fileId;
+    private final List<Range> ranges;
+    private final boolean checksums;
+
+    /**
+     * @param checksums whether to send the data with its checksums.
+     *                  The data sent is then widened to the checksum
+     *                  blocks holding the ranges.
+     */
+    public RangeReadRequest(String fileId, List<Range> ranges, boolean checksums) {
+        Objects.requireNonNull(fileId, "fileId must not be null.");
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("ranges must not be empty.");
+        }
+        this.fileId = fileId;
+        this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        this.checksums = checksums;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    public boolean isChecksums() {
+        return checksums;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeReadRequest[" + fileId + ", ranges=" + ranges +
+                (checksums ? ", checksums" : "") + "]";
+    }
+
+    /**
+     * A range of bytes of a file.
+     */
+    public static final class Range {
+        private final long offset;
+        private final int length;
+
+        public Range(long offset, int length) {
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException("offset and length must not be negative.");
+            }
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return offset + length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Range)) return false;
+            Range range = (Range) o;
+            return offset == range.offset && length == range.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(offset) + length;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + offset + ", " + getEnd() + ")";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.rpc.data;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marshaller of {@link RangeReadRequest}s.
+ * <p>
+ * Wire format (big-endian):
+ * <pre>
+ * | version (1) | flags (1) | file id length (2) | file id (UTF-8) |
+ * | range count (4) | ranges: offset (8) length (4) ... |
+ * </pre>
+ *
+ * @author RollW
+ */
+public class RangeReadRequestMarshaller implements MethodDescriptor.Marshaller<RangeReadRequest> {
+    public static final byte VERSION = 1;
+    public static final byte FLAG_CHECKSUMS = 0x01;
+    public static final int MAX_RANGES = 4096;
+
+    private static final int RANGE_SIZE = 8 + 4;
+
+    private static final RangeReadRequestMarshaller INSTANCE =
+            new RangeReadRequestMarshaller();
+
+    public static RangeReadRequestMarshaller getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public InputStream stream(RangeReadRequest value) {
+        byte[] fileId = value.getFileId().getBytes(StandardCharsets.UTF_8);
+        if (fileId.length > 0xFFFF) {
+            throw new IllegalArgumentException("File id too long.");
+        }
+        List<RangeReadRequest.Range> ranges = value.getRanges();
+        if (ranges.size() > MAX_RANGES) {
+            throw new IllegalArgumentException("More than " + MAX_RANGES + " ranges.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 1 + 2 + fileId.length + 4 +
+                ranges.size() * RANGE_SIZE);
+        buffer.put(VERSION)
+                .put(value.isChecksums() ? FLAG_CHECKSUMS : 0)
+                .putShort((short) fileId.length)
+                .put(fileId)
+                .putInt(ranges.size());
+        for (RangeReadRequest.Range range : ranges) {
+            buffer.putLong(range.getOffset())
+                    .putInt(range.getLength());
+        }
+        return new ByteArrayInputStream(buffer.array());
+    }
+
+    @Override
+    public RangeReadRequest parse(InputStream stream) {
+        try {
+            return parseRequest(new DataInputStream(stream));
+        } catch (IOException | IllegalArgumentException e) {
+            throw Status.INTERNAL
+                    .withDescription("Invalid range read request.")
+                    .withCause(e)
+                    .asRuntimeException();
+        }
+    }
+
+    private static RangeReadRequest parseRequest(DataInputStream input) throws IOException {
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported range read request version: " + version);
+        }
+        byte flags = input.readByte();
+        byte[] fileId = new byte[input.readUnsignedShort()];
+        input.readFully(fileId);
+        int count = input.readInt();
+        if (count <= 0 || count > MAX_RANGES) {
+            throw new IOException("Invalid range count: " + count);
+        }
+        List<RangeReadRequest.Range> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ranges.add(new RangeReadRequest.Range(input.readLong(), input.readInt()));
+        }
+        return new RangeReadRequest(new String(fileId, StandardCharsets.UTF_8),
+                ranges, (flags & FLAG_CHECKSUMS) != 0);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.benchmark.erasure;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scake.common.erasure.ErasureCodingScheme;
+import scake.common.erasure.ReedSolomonCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link ReedSolomonCodec} in data Bytes per second,
+ * reported by the {@code dataBytes} counter, on one thread and on
+ * all cores. Compare the all-core numbers to the bandwidth of the
+ * disks of a server, which the codec has to keep up with when
+ * encoding writes or rebuilding lost shards.
+ *
+ * @author RollW
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReedSolomonCodecBenchmark {
+
+    @State(Scope.Thread)
+    public static class Stripe {
+        @Param({"rs-3-2", "rs-6-3", "rs-10-4"})
+        public String scheme;
+
+        @Param({"65536", "1048576"})
+        public int shardSize;
+
+        @Param({"true", "false"})
+        public boolean direct;
+
+        ReedSolomonCodec codec;
+        ByteBuffer[] shards;
+        boolean[] present;
+        long dataBytes;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            ErasureCodingScheme codingScheme = ErasureCodingScheme.parse(scheme);
+            codec = new ReedSolomonCodec(codingScheme);
+            shards = new ByteBuffer[codingScheme.getTotalShards()];
+            Random random = new Random(shardSize);
+            byte[] bytes = new byte[shardSize];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = direct
+                        ? ByteBuffer.allocateDirect(shardSize)
+                        : ByteBuffer.allocate(shardSize);
+                random.nextBytes(bytes);
+                shards[i].put(bytes).flip();
+            }
+            codec.encode(shards, shardSize);
+            // The worst degraded read: as many data shards lost
+            // as there are parity shards.
+            present = new boolean[shards.length];
+            for (int i = 0; i < present.length; i++) {
+                present[i] = i >= codingScheme.getParityShards();
+            }
+            dataBytes = (long) codingScheme.getDataShards() * shardSize;
+        }
+    }
+
+    /**
+     * Bytes of data shards processed.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long dataBytes;
+    }
+
+    @Benchmark
+    public ByteBuffer[] encode(Stripe stripe, Counters counters) {
+        stripe.codec.encode(stripe.shards, stripe.shardSize);
+        counters.dataBytes += stripe.dataBytes;
+        return stripe.shards;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ByteBuffer[] encodeAllCores(Stripe stripe, Counters counters) {
+        return encode(stripe, counters);
+    }
+
+    @Benchmark
+    public ByteBuffer[] reconstructData(Stripe stripe, Counters counters) {
+        stripe.codec.reconstructData(stripe.shards, stripe.present, stripe.shardSize);
+        counters.dataBytes += stripe.dataBytes;
+        return stripe.shards;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ByteBuffer[] reconstructDataAllCores(Stripe stripe, Counters counters) {
+        return reconstructData(stripe, counters);
+    }
+}
@@ -78,6 +78,40 @@ public class Size implements Comparable<Size>, Serializable {
                 '}';
     }
 
+    /**
+     * Parse a size like "512", "64KB", "16 MB" or "1g". A value
+     * without unit is in bytes.
+     *
+     * @throws IllegalArgumentException if the value is not a valid size
+     */
+    @NonNull
+    public static Size parse(@NonNull String value) {
+        Objects.requireNonNull(value, "value must not be null.");
+        String trimmed = value.trim();
+        int index = 0;
+        while (index < trimmed.length() && Character.isDigit(trimmed.charAt(index))) {
+            index++;
+        }
+        if (index == 0) {
+            throw new IllegalArgumentException("Invalid size: '" + value + "'.");
+        }
+        long size;
+        try {
+            size = Long.parseLong(trimmed.substring(0, index));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: '" + value + "'.", e);
+        }
+        String unitValue = trimmed.substring(index).trim();
+        if (unitValue.isEmpty()) {
+            return ofBytes(size);
+        }
+        SizeUnit unit = SizeUnit.fromAbbreviation(unitValue);
+        if (unit == null) {
+            throw new IllegalArgumentException("Invalid size unit: '" + value + "'.");
+        }
+        return new Size(size, unit);
+    }
+
     @NonNull
     public static Size ofBytes(long size) {
         return new Size(size, SizeUnit.BYTES);
@@ -55,4 +55,23 @@ public enum SizeUnit {
     public String getAbbreviation() {
         return abbreviation;
     }
+
+    /**
+     * Get the unit by its abbreviation, case-insensitive. The
+     * abbreviation may omit the trailing "B", e.g. "K" for "KB".
+     *
+     * @return the unit, or null if not found
+     */
+    public static SizeUnit fromAbbreviation(String abbreviation) {
+        for (SizeUnit unit : values()) {
+            if (unit.abbreviation.equalsIgnoreCase(abbreviation)) {
+                return unit;
+            }
+            if (unit != BYTES && unit.abbreviation.substring(0, 1)
+                    .equalsIgnoreCase(abbreviation)) {
+                return unit;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s, grouped by power-of-two
+ * size classes.
+ * <p>
+ * Buffers larger than the maximum pooled size are allocated on
+ * demand and left to the GC on release. Released buffers are
+ * pooled only while the pool holds less than its retained bytes
+ * limit.
+ *
+ * @author RollW
+ */
+public class DirectBufferPool {
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+    private static final DirectBufferPool SHARED = new DirectBufferPool();
+
+    private final int minShift;
+    private final int maxBufferSize;
+    private final long maxRetainedBytes;
+    private final Queue<ByteBuffer>[] classes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    public DirectBufferPool() {
+        this(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE,
+                DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectBufferPool(int minBufferSize, int maxBufferSize,
+                            long maxRetainedBytes) {
+        if (Integer.bitCount(minBufferSize) != 1 || Integer.bitCount(maxBufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer sizes must be powers of two.");
+        }
+        if (minBufferSize > maxBufferSize) {
+            throw new IllegalArgumentException("minBufferSize must not exceed maxBufferSize.");
+        }
+        this.minShift = Integer.numberOfTrailingZeros(minBufferSize);
+        this.maxBufferSize = maxBufferSize;
+        this.maxRetainedBytes = maxRetainedBytes;
+        int count = Integer.numberOfTrailingZeros(maxBufferSize) - minShift + 1;
+        this.classes = new Queue[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Get the pool shared by the whole process.
+     */
+    public static DirectBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Acquire a buffer with at least the given capacity, its limit
+     * is set to the size.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative.");
+        }
+        if (size > maxBufferSize) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        int index = classIndex(size);
+        ByteBuffer buffer = classes[index].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << (index + minShift));
+        } else {
+            retainedBytes.addAndGet(-buffer.capacity());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Release a buffer acquired from this pool. The buffer must not
+     * be used after it is released.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (capacity > maxBufferSize || Integer.bitCount(capacity) != 1 ||
+                capacity < (1 << minShift)) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        classes[classIndex(capacity)].offer(buffer);
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private int classIndex(int size) {
+        if (size <= (1 << minShift)) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - minShift;
+    }
+}
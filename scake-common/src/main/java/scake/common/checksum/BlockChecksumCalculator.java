@@ -0,0 +1,104 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * Computes {@link BlockChecksums} of data passed in pieces of any
+ * size, holding only the checksums, never the data.
+ *
+ * @author RollW
+ */
+public class BlockChecksumCalculator {
+    private final int blockSize;
+    private final Checksum checksum = Crc32c.newChecksum();
+    private int[] checksums = new int[16];
+    private int count = 0;
+    private int inBlock = 0;
+    private long length = 0;
+
+    public BlockChecksumCalculator(int blockSize) {
+        BlockChecksums.checkBlockSize(blockSize);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Update with the remaining bytes of the buffer, moving its
+     * position to the limit.
+     */
+    public void update(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            int size = Math.min(blockSize - inBlock, data.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + size);
+            Crc32c.update(checksum, slice);
+            data.position(data.position() + size);
+            advance(size);
+        }
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int size = Math.min(blockSize - inBlock, length);
+            checksum.update(data, offset, size);
+            offset += size;
+            length -= size;
+            advance(size);
+        }
+    }
+
+    private void advance(int size) {
+        inBlock += size;
+        length += size;
+        if (inBlock == blockSize) {
+            completeBlock();
+        }
+    }
+
+    private void completeBlock() {
+        if (count == checksums.length) {
+            checksums = Arrays.copyOf(checksums, count * 2);
+        }
+        checksums[count++] = (int) checksum.getValue();
+        checksum.reset();
+        inBlock = 0;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Get the checksums of the data passed so far, and start over.
+     */
+    public BlockChecksums finish() {
+        if (inBlock > 0) {
+            completeBlock();
+        }
+        BlockChecksums result = new BlockChecksums(blockSize, length,
+                Arrays.copyOf(checksums, count));
+        count = 0;
+        length = 0;
+        return result;
+    }
+}
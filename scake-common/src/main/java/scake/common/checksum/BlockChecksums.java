@@ -0,0 +1,235 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CRC32C checksums of the fixed-size blocks of a chunk of data, the
+ * last block may be shorter. A range of the data is verified by the
+ * blocks it touches only.
+ *
+ * @author RollW
+ */
+public final class BlockChecksums {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    /**
+     * Smallest block size accepted, it bounds the size of the
+     * checksums of a chunk to 1/128 of its data.
+     */
+    public static final int MIN_BLOCK_SIZE = 512;
+
+    private final int blockSize;
+    private final long length;
+    private final int[] checksums;
+
+    public BlockChecksums(int blockSize, long length, int[] checksums) {
+        checkBlockSize(blockSize);
+        if (checksums.length != blockCount(length, blockSize)) {
+            throw new IllegalArgumentException("Expected " + blockCount(length, blockSize) +
+                    " checksums for " + length + " Bytes, got " + checksums.length);
+        }
+        this.blockSize = blockSize;
+        this.length = length;
+        this.checksums = checksums;
+    }
+
+    /**
+     * Compute the checksums of the remaining bytes of the buffer,
+     * without changing its position.
+     */
+    public static BlockChecksums compute(ByteBuffer data, int blockSize) {
+        BlockChecksumCalculator calculator = new BlockChecksumCalculator(blockSize);
+        calculator.update(data.duplicate());
+        return calculator.finish();
+    }
+
+    /**
+     * Whether the block size is a power of two of at least
+     * {@link #MIN_BLOCK_SIZE}.
+     */
+    public static boolean isValidBlockSize(int blockSize) {
+        return blockSize >= MIN_BLOCK_SIZE && (blockSize & (blockSize - 1)) == 0;
+    }
+
+    public static void checkBlockSize(int blockSize) {
+        if (!isValidBlockSize(blockSize)) {
+            throw new IllegalArgumentException("blockSize must be a power of two of at least " +
+                    MIN_BLOCK_SIZE + ", got " + blockSize);
+        }
+    }
+
+    public static int blockCount(long length, int blockSize) {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Length of the data in Bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public int getBlockCount() {
+        return checksums.length;
+    }
+
+    public int getBlockChecksum(int block) {
+        return checksums[block];
+    }
+
+    /**
+     * Checksum of the whole chunk, the CRC32C of the block checksums.
+     */
+    public int getChecksum() {
+        ByteBuffer buffer = ByteBuffer.allocate(checksums.length * 4);
+        buffer.asIntBuffer().put(checksums);
+        return Crc32c.compute(buffer);
+    }
+
+    /**
+     * Verify the remaining bytes of the buffer as the whole data,
+     * without changing its position.
+     */
+    public void verify(ByteBuffer data) throws ChecksumException {
+        if (data.remaining() != length) {
+            throw new ChecksumException("Expected " + length + " Bytes, got " +
+                    data.remaining(), -1);
+        }
+        verify(data, 0);
+    }
+
+    /**
+     * Verify the remaining bytes of the buffer as whole blocks of the
+     * data starting at the block, the last one may end with the data.
+     * The position of the buffer is not changed.
+     */
+    public void verify(ByteBuffer blocks, int firstBlock) throws ChecksumException {
+        ByteBuffer data = blocks.duplicate();
+        int block = firstBlock;
+        while (data.hasRemaining()) {
+            if (block >= checksums.length) {
+                throw new ChecksumException("Data exceeds " + length + " Bytes.", -1);
+            }
+            long start = (long) block * blockSize;
+            int size = (int) Math.min(blockSize, length - start);
+            if (data.remaining() < size) {
+                throw new ChecksumException("Block " + block + " is incomplete.", start);
+            }
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + size);
+            if (Crc32c.compute(slice) != checksums[block]) {
+                throw new ChecksumException("Checksum mismatch in block " + block +
+                        " at " + start, start);
+            }
+            data.position(data.position() + size);
+            block++;
+        }
+    }
+
+    /**
+     * Index of the block holding the byte at the position.
+     */
+    public int blockOf(long position) {
+        return (int) (position / blockSize);
+    }
+
+    /**
+     * Get the checksums of the data from the block on, as another
+     * chunk would have them.
+     */
+    public BlockChecksums from(int firstBlock) {
+        return range(firstBlock, checksums.length);
+    }
+
+    /**
+     * Get the checksums of the data of the blocks from the first
+     * block up to the end block (exclusive), as another chunk would
+     * have them.
+     */
+    public BlockChecksums range(int firstBlock, int endBlock) {
+        if (firstBlock < 0 || endBlock < firstBlock || endBlock > checksums.length) {
+            throw new IndexOutOfBoundsException("Blocks " + firstBlock + " to " +
+                    endBlock + " of " + checksums.length);
+        }
+        long start = Math.min(length, (long) firstBlock * blockSize);
+        long end = Math.min(length, (long) endBlock * blockSize);
+        return new BlockChecksums(blockSize, end - start,
+                Arrays.copyOfRange(checksums, firstBlock, endBlock));
+    }
+
+    /**
+     * Size in Bytes taken by {@link #writeTo(ByteBuffer)}.
+     */
+    public int getSerializedSize() {
+        return 4 + 8 + checksums.length * 4;
+    }
+
+    /**
+     * Write as [block size 4][length 8][checksum 4 per block].
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(blockSize).putLong(length);
+        for (int checksum : checksums) {
+            buffer.putInt(checksum);
+        }
+    }
+
+    public static BlockChecksums read(ByteBuffer buffer) {
+        int blockSize = buffer.getInt();
+        long length = buffer.getLong();
+        // Both are untrusted, check them before the checksums are
+        // allocated.
+        if (!isValidBlockSize(blockSize) || length < 0 ||
+                length > (long) (buffer.remaining() / 4) * blockSize) {
+            throw new IllegalArgumentException("Invalid block checksums.");
+        }
+        int[] checksums = new int[blockCount(length, blockSize)];
+        for (int i = 0; i < checksums.length; i++) {
+            checksums[i] = buffer.getInt();
+        }
+        return new BlockChecksums(blockSize, length, checksums);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BlockChecksums)) return false;
+        BlockChecksums that = (BlockChecksums) o;
+        return blockSize == that.blockSize && length == that.length &&
+                Arrays.equals(checksums, that.checksums);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * blockSize + Long.hashCode(length)) + Arrays.hashCode(checksums);
+    }
+
+    @Override
+    public String toString() {
+        return "BlockChecksums[blockSize=" + blockSize + ", length=" + length +
+                ", blocks=" + checksums.length + "]";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.checksum;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C checksums.
+ * <p>
+ * On Java 9 and later {@code java.util.zip.CRC32C} is used, which
+ * the JIT replaces with the CRC32 instructions of the CPU. It is
+ * looked up reflectively as the code targets Java 8, where a table
+ * driven implementation is used instead.
+ *
+ * @author RollW
+ */
+public final class Crc32c {
+    private static final MethodHandle NEW_INTRINSIC;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static {
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> type = Class.forName("java.util.zip.CRC32C");
+            constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            constructor = null;
+            update = null;
+        }
+        NEW_INTRINSIC = constructor;
+        UPDATE_BUFFER = update;
+    }
+
+    /**
+     * Whether the JDK implementation is used.
+     */
+    public static boolean isIntrinsic() {
+        return NEW_INTRINSIC != null;
+    }
+
+    public static Checksum newChecksum() {
+        if (NEW_INTRINSIC == null) {
+            return new PureJavaCrc32c();
+        }
+        try {
+            return (Checksum) NEW_INTRINSIC.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Create CRC32C failed.", e);
+        }
+    }
+
+    /**
+     * Update the checksum with the remaining bytes of the buffer,
+     * moving its position to the limit.
+     */
+    public static void update(Checksum checksum, ByteBuffer buffer) {
+        if (checksum instanceof PureJavaCrc32c) {
+            ((PureJavaCrc32c) checksum).update(buffer);
+            return;
+        }
+        if (UPDATE_BUFFER != null) {
+            try {
+                UPDATE_BUFFER.invokeExact(checksum, buffer);
+                return;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] transfer = new byte[Math.min(buffer.remaining(), 8192)];
+        while (buffer.hasRemaining()) {
+            int count = Math.min(transfer.length, buffer.remaining());
+            buffer.get(transfer, 0, count);
+            checksum.update(transfer, 0, count);
+        }
+    }
+
+    /**
+     * Compute the checksum of the remaining bytes of the buffer,
+     * without changing its position.
+     */
+    public static int compute(ByteBuffer buffer) {
+        Checksum checksum = newChecksum();
+        update(checksum, buffer.duplicate());
+        return (int) checksum.getValue();
+    }
+
+    public static int compute(byte[] data, int offset, int length) {
+        Checksum checksum = newChecksum();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    private Crc32c() {
+    }
+}
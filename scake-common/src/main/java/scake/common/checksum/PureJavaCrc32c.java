@@ -0,0 +1,107 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) in plain Java, slicing by 8 bytes, used where
+ * {@code java.util.zip.CRC32C} is not available.
+ *
+ * @author RollW
+ */
+final class PureJavaCrc32c implements Checksum {
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc >>> 1) ^ ((crc & 1) != 0 ? POLYNOMIAL : 0);
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                int previous = TABLES[t - 1][i];
+                TABLES[t][i] = (previous >>> 8) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int value = crc;
+        int end = off + len;
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3],
+                t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        while (end - off >= 8) {
+            int low = value ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 |
+                    (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+            value = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^
+                    t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24] ^
+                    t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF] ^
+                    t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            value = (value >>> 8) ^ t0[(value ^ b[off++]) & 0xFF];
+        }
+        crc = value;
+    }
+
+    /**
+     * Update with the remaining bytes of the buffer, moving its
+     * position to the limit.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] transfer = new byte[Math.min(buffer.remaining(), 4096)];
+        while (buffer.hasRemaining()) {
+            int count = Math.min(transfer.length, buffer.remaining());
+            buffer.get(transfer, 0, count);
+            update(transfer, 0, count);
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
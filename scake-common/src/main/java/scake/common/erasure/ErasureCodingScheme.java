@@ -0,0 +1,105 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.erasure;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Number of data and parity shards of an erasure-coded stripe.
+ * Any {@link #getDataShards()} shards of a stripe rebuild it.
+ *
+ * @author RollW
+ */
+public final class ErasureCodingScheme {
+    public static final ErasureCodingScheme RS_3_2 = new ErasureCodingScheme(3, 2);
+    public static final ErasureCodingScheme RS_6_3 = new ErasureCodingScheme(6, 3);
+    public static final ErasureCodingScheme RS_10_4 = new ErasureCodingScheme(10, 4);
+
+    private final int dataShards;
+    private final int parityShards;
+
+    public ErasureCodingScheme(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards <= 0) {
+            throw new IllegalArgumentException("Shard counts must be positive.");
+        }
+        if (dataShards + parityShards > GaloisField.SIZE) {
+            throw new IllegalArgumentException("At most " + GaloisField.SIZE +
+                    " shards are supported.");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Raw bytes stored per byte of data.
+     */
+    public double getOverhead() {
+        return (double) getTotalShards() / dataShards;
+    }
+
+    /**
+     * Parse a scheme like "rs-6-3".
+     *
+     * @throws IllegalArgumentException if the value is not a valid scheme
+     */
+    public static ErasureCodingScheme parse(String value) {
+        String[] parts = value.trim().toLowerCase(Locale.ROOT).split("-");
+        if (parts.length != 3 || !parts[0].equals("rs")) {
+            throw new IllegalArgumentException("Invalid erasure coding scheme: '" + value + "'.");
+        }
+        try {
+            return new ErasureCodingScheme(Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid erasure coding scheme: '" + value + "'.", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ErasureCodingScheme)) return false;
+        ErasureCodingScheme that = (ErasureCodingScheme) o;
+        return dataShards == that.dataShards && parityShards == that.parityShards;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataShards, parityShards);
+    }
+
+    @Override
+    public String toString() {
+        return "rs-" + dataShards + "-" + parityShards;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.erasure;
+
+/**
+ * Arithmetic in GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1,
+ * backed by log, exp and full multiplication tables.
+ *
+ * @author RollW
+ */
+final class GaloisField {
+    static final int SIZE = 256;
+    private static final int POLYNOMIAL = 0x11D;
+
+    private static final int[] LOG = new int[SIZE];
+    private static final int[] EXP = new int[SIZE * 2];
+
+    /**
+     * MUL[a][b] is the product of a and b, a row is the table used
+     * to multiply a whole shard by a.
+     */
+    static final byte[][] MUL = new byte[SIZE][SIZE];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < SIZE - 1; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= SIZE) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (SIZE - 1)];
+        }
+        for (int a = 0; a < SIZE; a++) {
+            for (int b = 0; b < SIZE; b++) {
+                MUL[a][b] = (byte) multiply(a, b);
+            }
+        }
+    }
+
+    static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    static int inverse(int a) {
+        if (a == 0) {
+            throw new ArithmeticException("Zero has no inverse.");
+        }
+        return EXP[SIZE - 1 - LOG[a]];
+    }
+
+    /**
+     * Invert the square matrix in place.
+     *
+     * @throws IllegalArgumentException if the matrix is singular
+     */
+    static void invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] inverse = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            inverse[i][i] = 1;
+        }
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            while (pivot < n && matrix[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrix is singular.");
+            }
+            swap(matrix, column, pivot);
+            swap(inverse, column, pivot);
+            int scale = inverse(matrix[column][column]);
+            for (int j = 0; j < n; j++) {
+                matrix[column][j] = multiply(matrix[column][j], scale);
+                inverse[column][j] = multiply(inverse[column][j], scale);
+            }
+            for (int row = 0; row < n; row++) {
+                int factor = matrix[row][column];
+                if (row == column || factor == 0) {
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    matrix[row][j] ^= multiply(factor, matrix[column][j]);
+                    inverse[row][j] ^= multiply(factor, inverse[column][j]);
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(inverse[i], 0, matrix[i], 0, n);
+        }
+    }
+
+    private static void swap(int[][] matrix, int a, int b) {
+        int[] row = matrix[a];
+        matrix[a] = matrix[b];
+        matrix[b] = row;
+    }
+
+    private GaloisField() {
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.erasure;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Systematic Reed-Solomon codec over GF(2^8).
+ * <p>
+ * Data shards are stored as they are, parity shards are computed
+ * with a Cauchy matrix, so any data shard count of shards rebuild
+ * the stripe. Shards are processed a {@code long} word at a time,
+ * each byte of a word multiplied by a lookup in the row of the
+ * multiplication table for its coefficient, and the products of all
+ * inputs are accumulated in a register before one store per word.
+ * <p>
+ * Shards are {@link ByteBuffer}s of the same length, starting at
+ * their positions, heap or direct. Positions and limits are not
+ * changed. Instances are immutable and may be shared by threads.
+ *
+ * @author RollW
+ */
+public final class ReedSolomonCodec {
+    private final ErasureCodingScheme scheme;
+    private final int dataShards;
+    private final int totalShards;
+    /**
+     * Rows of the generator matrix, identity rows for the data
+     * shards followed by the parity rows.
+     */
+    private final int[][] generator;
+    private final byte[][][] parityRows;
+
+    public ReedSolomonCodec(ErasureCodingScheme scheme) {
+        this.scheme = scheme;
+        this.dataShards = scheme.getDataShards();
+        this.totalShards = scheme.getTotalShards();
+        this.generator = new int[totalShards][dataShards];
+        for (int i = 0; i < dataShards; i++) {
+            generator[i][i] = 1;
+        }
+        // Cauchy matrix 1 / (x_i + y_j), x_i and y_j all distinct,
+        // so every square submatrix of the generator is invertible.
+        for (int i = dataShards; i < totalShards; i++) {
+            for (int j = 0; j < dataShards; j++) {
+                generator[i][j] = GaloisField.inverse(i ^ j);
+            }
+        }
+        this.parityRows = new byte[scheme.getParityShards()][][];
+        for (int i = 0; i < parityRows.length; i++) {
+            parityRows[i] = tableRows(generator[dataShards + i]);
+        }
+    }
+
+    public ErasureCodingScheme getScheme() {
+        return scheme;
+    }
+
+    /**
+     * Compute the parity shards from the data shards.
+     *
+     * @param shards data shards followed by the parity shards
+     *               to write into
+     * @param length length of each shard
+     */
+    public void encode(ByteBuffer[] shards, int length) {
+        checkShards(shards, length);
+        ByteBuffer[] data = new ByteBuffer[dataShards];
+        System.arraycopy(shards, 0, data, 0, dataShards);
+        ByteBuffer[] parity = new ByteBuffer[parityRows.length];
+        System.arraycopy(shards, dataShards, parity, 0, parity.length);
+        combine(parityRows, data, parity, length);
+    }
+
+    /**
+     * Encode stripes in parallel, one task for each stripe.
+     *
+     * @return a future completed when all stripes are encoded
+     */
+    public CompletableFuture<Void> encode(List<ByteBuffer[]> stripes, int length,
+                                          Executor executor) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(stripes.size());
+        for (ByteBuffer[] stripe : stripes) {
+            futures.add(CompletableFuture.runAsync(() -> encode(stripe, length), executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Rebuild the missing shards of a stripe.
+     *
+     * @param shards  all shards of the stripe, missing shards are
+     *                written into
+     * @param present whether each shard holds valid data
+     * @throws IllegalArgumentException if fewer shards than the data
+     *                                  shard count are present
+     */
+    public void reconstruct(ByteBuffer[] shards, boolean[] present, int length) {
+        checkShards(shards, length);
+        reconstruct(shards, present, length, true);
+    }
+
+    /**
+     * Rebuild the missing data shards of a stripe only, leaving the
+     * missing parity shards alone. They may be null.
+     *
+     * @see #reconstruct(ByteBuffer[], boolean[], int)
+     */
+    public void reconstructData(ByteBuffer[] shards, boolean[] present, int length) {
+        if (shards.length != totalShards) {
+            throw new IllegalArgumentException("Expected " + totalShards +
+                    " shards but got " + shards.length);
+        }
+        for (int i = 0; i < totalShards; i++) {
+            if ((present[i] || i < dataShards) && shards[i].remaining() < length) {
+                throw new IllegalArgumentException("Shard shorter than " + length + " Bytes.");
+            }
+        }
+        reconstruct(shards, present, length, false);
+    }
+
+    private void reconstruct(ByteBuffer[] shards, boolean[] present, int length,
+                             boolean parity) {
+        int[] sources = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < totalShards && found < dataShards; i++) {
+            if (present[i]) {
+                sources[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Need " + dataShards +
+                    " shards to reconstruct, but only " + found + " are present.");
+        }
+        boolean dataMissing = false;
+        for (int i = 0; i < dataShards; i++) {
+            dataMissing |= !present[i];
+        }
+        if (dataMissing) {
+            int[][] decode = new int[dataShards][];
+            for (int i = 0; i < dataShards; i++) {
+                decode[i] = generator[sources[i]].clone();
+            }
+            GaloisField.invert(decode);
+            ByteBuffer[] inputs = new ByteBuffer[dataShards];
+            for (int i = 0; i < dataShards; i++) {
+                inputs[i] = shards[sources[i]];
+            }
+            List<byte[][]> rows = new ArrayList<>();
+            List<ByteBuffer> outputs = new ArrayList<>();
+            for (int i = 0; i < dataShards; i++) {
+                if (!present[i]) {
+                    rows.add(tableRows(decode[i]));
+                    outputs.add(shards[i]);
+                }
+            }
+            combine(rows.toArray(new byte[0][][]), inputs,
+                    outputs.toArray(new ByteBuffer[0]), length);
+        }
+        if (!parity) {
+            return;
+        }
+        List<byte[][]> rows = new ArrayList<>();
+        List<ByteBuffer> outputs = new ArrayList<>();
+        for (int i = dataShards; i < totalShards; i++) {
+            if (!present[i]) {
+                rows.add(parityRows[i - dataShards]);
+                outputs.add(shards[i]);
+            }
+        }
+        if (outputs.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] data = new ByteBuffer[dataShards];
+        System.arraycopy(shards, 0, data, 0, dataShards);
+        combine(rows.toArray(new byte[0][][]), data,
+                outputs.toArray(new ByteBuffer[0]), length);
+    }
+
+    private void checkShards(ByteBuffer[] shards, int length) {
+        if (shards.length != totalShards) {
+            throw new IllegalArgumentException("Expected " + totalShards +
+                    " shards but got " + shards.length);
+        }
+        for (ByteBuffer shard : shards) {
+            if (shard.remaining() < length) {
+                throw new IllegalArgumentException("Shard shorter than " + length + " Bytes.");
+            }
+        }
+    }
+
+    private static byte[][] tableRows(int[] coefficients) {
+        byte[][] rows = new byte[coefficients.length][];
+        for (int i = 0; i < coefficients.length; i++) {
+            rows[i] = GaloisField.MUL[coefficients[i]];
+        }
+        return rows;
+    }
+
+    /**
+     * Write the sum of the inputs multiplied by each row of
+     * coefficients into the output of the row. Every input word is
+     * loaded once for all outputs.
+     */
+    private static void combine(byte[][][] rows, ByteBuffer[] inputs,
+                                ByteBuffer[] outputs, int length) {
+        int inputCount = inputs.length;
+        int outputCount = outputs.length;
+        int[] inputPositions = new int[inputCount];
+        for (int j = 0; j < inputCount; j++) {
+            inputPositions[j] = inputs[j].position();
+        }
+        int[] outputPositions = new int[outputCount];
+        for (int o = 0; o < outputCount; o++) {
+            outputPositions[o] = outputs[o].position();
+        }
+        long[] sums = new long[outputCount];
+        int words = length & ~7;
+        for (int i = 0; i < words; i += 8) {
+            for (int j = 0; j < inputCount; j++) {
+                long word = inputs[j].getLong(inputPositions[j] + i);
+                for (int o = 0; o < outputCount; o++) {
+                    sums[o] ^= multiply(rows[o][j], word);
+                }
+            }
+            for (int o = 0; o < outputCount; o++) {
+                outputs[o].putLong(outputPositions[o] + i, sums[o]);
+                sums[o] = 0;
+            }
+        }
+        for (int i = words; i < length; i++) {
+            for (int o = 0; o < outputCount; o++) {
+                int sum = 0;
+                for (int j = 0; j < inputCount; j++) {
+                    sum ^= rows[o][j][inputs[j].get(inputPositions[j] + i) & 0xFF];
+                }
+                outputs[o].put(outputPositions[o] + i, (byte) sum);
+            }
+        }
+    }
+
+    private static long multiply(byte[] row, long word) {
+        return (row[(int) (word >>> 56)] & 0xFFL) << 56 |
+                (row[(int) (word >>> 48) & 0xFF] & 0xFFL) << 48 |
+                (row[(int) (word >>> 40) & 0xFF] & 0xFFL) << 40 |
+                (row[(int) (word >>> 32) & 0xFF] & 0xFFL) << 32 |
+                (row[(int) (word >>> 24) & 0xFF] & 0xFFL) << 24 |
+                (row[(int) (word >>> 16) & 0xFF] & 0xFFL) << 16 |
+                (row[(int) (word >>> 8) & 0xFF] & 0xFFL) << 8 |
+                (row[(int) word & 0xFF] & 0xFFL);
+    }
+}
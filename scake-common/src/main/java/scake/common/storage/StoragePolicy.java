@@ -0,0 +1,129 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.storage;
+
+import scake.common.erasure.ErasureCodingScheme;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * How the data of a file is made redundant, by full replicas or by
+ * erasure coding.
+ *
+ * @author RollW
+ */
+public final class StoragePolicy {
+    public static final int DEFAULT_REPLICAS = 3;
+
+    public static final StoragePolicy DEFAULT = replicated(DEFAULT_REPLICAS);
+
+    private final Mode mode;
+    private final int replicas;
+    private final ErasureCodingScheme scheme;
+
+    private StoragePolicy(Mode mode, int replicas, ErasureCodingScheme scheme) {
+        this.mode = mode;
+        this.replicas = replicas;
+        this.scheme = scheme;
+    }
+
+    public static StoragePolicy replicated(int replicas) {
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("replicas must be positive.");
+        }
+        return new StoragePolicy(Mode.REPLICATED, replicas, null);
+    }
+
+    public static StoragePolicy erasureCoded(ErasureCodingScheme scheme) {
+        Objects.requireNonNull(scheme, "scheme must not be null.");
+        return new StoragePolicy(Mode.ERASURE_CODED, 0, scheme);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Number of replicas, zero for an erasure-coded policy.
+     */
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * The scheme of an erasure-coded policy, or null.
+     */
+    public ErasureCodingScheme getScheme() {
+        return scheme;
+    }
+
+    public boolean isErasureCoded() {
+        return mode == Mode.ERASURE_CODED;
+    }
+
+    /**
+     * Number of file servers holding a piece of each block.
+     */
+    public int getWidth() {
+        return isErasureCoded() ? scheme.getTotalShards() : replicas;
+    }
+
+    /**
+     * Parse a policy like "replicated-3" or "rs-6-3".
+     *
+     * @throws IllegalArgumentException if the value is not a valid policy
+     */
+    public static StoragePolicy parse(String value) {
+        String trimmed = value.trim().toLowerCase(Locale.ROOT);
+        if (!trimmed.startsWith("replicated-")) {
+            return erasureCoded(ErasureCodingScheme.parse(trimmed));
+        }
+        try {
+            return replicated(Integer.parseInt(trimmed.substring("replicated-".length())));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid storage policy: '" + value + "'.", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StoragePolicy)) return false;
+        StoragePolicy that = (StoragePolicy) o;
+        return mode == that.mode && replicas == that.replicas &&
+                Objects.equals(scheme, that.scheme);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mode, replicas, scheme);
+    }
+
+    @Override
+    public String toString() {
+        return isErasureCoded() ? scheme.toString() : "replicated-" + replicas;
+    }
+
+    public enum Mode {
+        REPLICATED,
+        ERASURE_CODED
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.storage;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the {@link StoragePolicy} of a file from policies set on
+ * the file itself or on one of its parent directories, the nearest
+ * one wins. Paths are absolute and separated by '/'.
+ *
+ * @author RollW
+ */
+public class StoragePolicyResolver {
+    private final StoragePolicy defaultPolicy;
+    private final Map<String, StoragePolicy> policies = new ConcurrentHashMap<>();
+
+    public StoragePolicyResolver() {
+        this(StoragePolicy.DEFAULT);
+    }
+
+    public StoragePolicyResolver(StoragePolicy defaultPolicy) {
+        this.defaultPolicy = Objects.requireNonNull(defaultPolicy,
+                "defaultPolicy must not be null.");
+    }
+
+    /**
+     * Set the policy of a file or directory, applying to everything
+     * below a directory without a nearer policy.
+     */
+    public void set(String path, StoragePolicy policy) {
+        policies.put(normalize(path), Objects.requireNonNull(policy, "policy must not be null."));
+    }
+
+    public void unset(String path) {
+        policies.remove(normalize(path));
+    }
+
+    public StoragePolicy resolve(String path) {
+        String current = normalize(path);
+        while (true) {
+            StoragePolicy policy = policies.get(current);
+            if (policy != null) {
+                return policy;
+            }
+            if (current.equals("/")) {
+                return defaultPolicy;
+            }
+            int index = current.lastIndexOf('/');
+            current = index == 0 ? "/" : current.substring(0, index);
+        }
+    }
+
+    public StoragePolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    private static String normalize(String path) {
+        if (!path.startsWith("/")) {
+            throw new IllegalArgumentException("Path must be absolute: '" + path + "'.");
+        }
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+}
@@ -23,20 +23,52 @@ import java.util.Objects;
 
 /**
  * Represents a server in the system.
+ * <p>
+ * Servers are immutable, their hash code, qualified name and address
+ * are computed once. Servers taken from the
+ * {@link scake.server.membership.MembershipRegistry} also carry
+ * a compact node id; it does not take part in equality.
  *
  * @author RollW
  */
 public class Server {
+    /**
+     * Node id of servers not taken from a membership registry.
+     */
+    public static final int NO_NODE_ID = -1;
+
     private final String host;
     private final int port;
     private final String id;
     private final Type type;
+    private final int nodeId;
+    private final String qualifiedName;
+    private final String address;
+    private final int hash;
 
     public Server(String host, int port, String id, Type type) {
+        this(host, port, id, type, NO_NODE_ID);
+    }
+
+    public Server(String host, int port, String id, Type type, int nodeId) {
         this.host = host;
         this.port = port;
         this.id = id;
         this.type = type;
+        this.nodeId = nodeId;
+        this.qualifiedName = type.getPrefix() + id;
+        this.address = host + ":" + port;
+        this.hash = Objects.hash(host, port, id, type);
+    }
+
+    /**
+     * Get a copy of this server with the given node id.
+     */
+    public Server withNodeId(int nodeId) {
+        if (this.nodeId == nodeId) {
+            return this;
+        }
+        return new Server(host, port, id, type, nodeId);
     }
 
     /**
@@ -69,11 +101,19 @@ public class Server {
      * @return the qualified name of the server
      */
     public String getQualifiedName() {
-        return type.getPrefix() + id;
+        return qualifiedName;
     }
 
     public String getAddress() {
-        return host + ":" + port;
+        return address;
+    }
+
+    /**
+     * Get the compact node id assigned by the membership registry,
+     * or {@link #NO_NODE_ID}.
+     */
+    public int getNodeId() {
+        return nodeId;
     }
 
     @Override
@@ -81,13 +121,13 @@ public class Server {
         if (this == o) return true;
         if (!(o instanceof Server)) return false;
         Server server = (Server) o;
-        return port == server.port && Objects.equals(host, server.host) &&
+        return hash == server.hash && port == server.port && Objects.equals(host, server.host) &&
                 Objects.equals(id, server.id) && type == server.type;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(host, port, id, type);
+        return hash;
     }
 
     @Override
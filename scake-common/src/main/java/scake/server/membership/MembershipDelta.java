@@ -0,0 +1,72 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.membership;
+
+import scake.server.Server;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes between two versions of the membership. A server whose
+ * address changed is removed in its old form and added in its new.
+ *
+ * @author RollW
+ */
+public final class MembershipDelta {
+    private final long fromVersion;
+    private final long toVersion;
+    private final List<Server> added;
+    private final List<Server> removed;
+
+    MembershipDelta(long fromVersion, long toVersion,
+                    List<Server> added, List<Server> removed) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    public long getToVersion() {
+        return toVersion;
+    }
+
+    public List<Server> getAdded() {
+        return added;
+    }
+
+    public List<Server> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipDelta[" + fromVersion + " -> " + toVersion +
+                ", added=" + added + ", removed=" + removed + "]";
+    }
+}
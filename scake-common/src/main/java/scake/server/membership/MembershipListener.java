@@ -0,0 +1,37 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.membership;
+
+/**
+ * Listener of membership changes.
+ *
+ * @author RollW
+ */
+@FunctionalInterface
+public interface MembershipListener {
+    /**
+     * Called with each change in version order. Called while the
+     * registry is being updated, must not block.
+     *
+     * @param delta    the change to apply
+     * @param snapshot the membership after the change
+     */
+    void onMembershipChanged(MembershipDelta delta, MembershipSnapshot snapshot);
+}
@@ -0,0 +1,167 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.membership;
+
+import scake.server.Server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the cluster members.
+ * <p>
+ * Members are interned: the registry holds one immutable {@link Server}
+ * per qualified name, with a compact node id that stays the same if
+ * the server leaves and joins again. Each change publishes a new
+ * versioned {@link MembershipSnapshot}, read without locks, and
+ * a {@link MembershipDelta} to the listeners.
+ *
+ * @author RollW
+ */
+public class MembershipRegistry {
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile MembershipSnapshot snapshot = MembershipSnapshot.EMPTY;
+
+    public MembershipSnapshot current() {
+        return snapshot;
+    }
+
+    /**
+     * Add the listener, and call it with the current members
+     * as a delta from version 0.
+     */
+    public synchronized void addListener(MembershipListener listener) {
+        listeners.add(listener);
+        MembershipSnapshot current = snapshot;
+        if (current.size() > 0) {
+            listener.onMembershipChanged(new MembershipDelta(0, current.getVersion(),
+                    new ArrayList<>(current.getServers()), Collections.emptyList()), current);
+        }
+    }
+
+    public void removeListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the interned member equal to the server, or the server
+     * itself if it is not a member.
+     */
+    public Server intern(Server server) {
+        Server member = snapshot.get(server.getQualifiedName());
+        return server.equals(member) ? member : server;
+    }
+
+    public Server join(Server server) {
+        update(Collections.singletonList(server), Collections.emptyList());
+        return snapshot.get(server.getQualifiedName());
+    }
+
+    public void leave(Server server) {
+        update(Collections.emptyList(), Collections.singletonList(server));
+    }
+
+    /**
+     * Apply joins and leaves as one change.
+     *
+     * @return the delta published, empty if nothing changed
+     */
+    public synchronized MembershipDelta update(Collection<Server> joined,
+                                               Collection<Server> left) {
+        MembershipSnapshot previous = snapshot;
+        Map<String, Server> members = new LinkedHashMap<>();
+        for (Server server : previous.getServers()) {
+            members.put(server.getQualifiedName(), server);
+        }
+        List<Server> added = new ArrayList<>();
+        List<Server> removed = new ArrayList<>();
+        for (Server server : left) {
+            Server member = members.get(server.getQualifiedName());
+            if (server.equals(member)) {
+                members.remove(server.getQualifiedName());
+                removed.add(member);
+            }
+        }
+        for (Server server : joined) {
+            Server member = members.get(server.getQualifiedName());
+            if (server.equals(member)) {
+                continue;
+            }
+            if (member != null) {
+                // moved to another address
+                removed.add(member);
+            }
+            Server interned = server.withNodeId(nodeIdOf(server));
+            members.put(server.getQualifiedName(), interned);
+            added.add(interned);
+        }
+        return publish(previous, members.values(), added, removed);
+    }
+
+    /**
+     * Replace the members with the given servers, e.g. a full list
+     * from the meta server. Listeners still receive only the delta.
+     */
+    public synchronized MembershipDelta replaceAll(Collection<Server> servers) {
+        MembershipSnapshot previous = snapshot;
+        Map<String, Server> next = new LinkedHashMap<>();
+        for (Server server : servers) {
+            next.put(server.getQualifiedName(), server);
+        }
+        List<Server> left = new ArrayList<>();
+        for (Server member : previous.getServers()) {
+            if (!member.equals(next.get(member.getQualifiedName()))) {
+                left.add(member);
+            }
+        }
+        return update(next.values(), left);
+    }
+
+    private int nodeIdOf(Server server) {
+        return nodeIds.computeIfAbsent(server.getQualifiedName(),
+                name -> nodeIds.size());
+    }
+
+    private MembershipDelta publish(MembershipSnapshot previous,
+                                    Collection<Server> members,
+                                    List<Server> added,
+                                    List<Server> removed) {
+        long version = previous.getVersion() + 1;
+        if (added.isEmpty() && removed.isEmpty()) {
+            return new MembershipDelta(previous.getVersion(), previous.getVersion(),
+                    added, removed);
+        }
+        MembershipSnapshot next = new MembershipSnapshot(version, members);
+        MembershipDelta delta = new MembershipDelta(previous.getVersion(), version,
+                added, removed);
+        snapshot = next;
+        for (MembershipListener listener : listeners) {
+            listener.onMembershipChanged(delta, next);
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.membership;
+
+import scake.server.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, versioned view of the cluster members.
+ *
+ * @author RollW
+ */
+public final class MembershipSnapshot {
+    private static final Server[] NO_SERVERS = new Server[0];
+    static final MembershipSnapshot EMPTY = new MembershipSnapshot(0, Collections.emptyList());
+
+    private final long version;
+    private final List<Server> servers;
+    private final Server[] byNodeId;
+    private final Map<String, Server> byQualifiedName;
+    private final Map<Server.Type, List<Server>> byType;
+
+    MembershipSnapshot(long version, Collection<Server> servers) {
+        this.version = version;
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        int maxNodeId = -1;
+        Map<String, Server> names = new HashMap<>();
+        Map<Server.Type, List<Server>> types = new EnumMap<>(Server.Type.class);
+        for (Server server : servers) {
+            maxNodeId = Math.max(maxNodeId, server.getNodeId());
+            names.put(server.getQualifiedName(), server);
+            types.computeIfAbsent(server.getType(), type -> new ArrayList<>())
+                    .add(server);
+        }
+        this.byNodeId = maxNodeId < 0 ? NO_SERVERS : new Server[maxNodeId + 1];
+        for (Server server : servers) {
+            byNodeId[server.getNodeId()] = server;
+        }
+        this.byQualifiedName = Collections.unmodifiableMap(names);
+        types.replaceAll((type, list) -> Collections.unmodifiableList(list));
+        this.byType = Collections.unmodifiableMap(types);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    public List<Server> getServers(Server.Type type) {
+        return byType.getOrDefault(type, Collections.emptyList());
+    }
+
+    public int size() {
+        return servers.size();
+    }
+
+    /**
+     * Get the member with the node id, or null.
+     */
+    public Server getByNodeId(int nodeId) {
+        if (nodeId < 0 || nodeId >= byNodeId.length) {
+            return null;
+        }
+        return byNodeId[nodeId];
+    }
+
+    /**
+     * Get the member with the qualified name, or null.
+     */
+    public Server get(String qualifiedName) {
+        return byQualifiedName.get(qualifiedName);
+    }
+
+    public boolean contains(Server server) {
+        return server.equals(byQualifiedName.get(server.getQualifiedName()));
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipSnapshot[version=" + version +
+                ", servers=" + Arrays.toString(servers.toArray()) + "]";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.placement;
+
+import scake.server.Server;
+import scake.server.membership.MembershipDelta;
+import scake.server.membership.MembershipListener;
+import scake.server.membership.MembershipSnapshot;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Holds the current {@link PlacementRing}. Readers take the current
+ * snapshot without locking, updates swap it atomically.
+ * <p>
+ * Registered as a {@link MembershipListener}, it follows the file
+ * servers joining and leaving the cluster; joining servers get the
+ * default weight unless already in the ring.
+ *
+ * @author RollW
+ */
+public class Placement implements MembershipListener {
+    private volatile PlacementRing ring;
+
+    public Placement() {
+        this(PlacementRing.empty());
+    }
+
+    public Placement(PlacementRing ring) {
+        this.ring = ring;
+    }
+
+    public PlacementRing current() {
+        return ring;
+    }
+
+    /**
+     * Fill the array with the replicas of the key in the
+     * current snapshot, see {@link PlacementRing#select(long, Server[])}.
+     */
+    public int select(long keyHash, Server[] replicas) {
+        return ring.select(keyHash, replicas);
+    }
+
+    public void set(PlacementRing ring) {
+        this.ring = ring;
+    }
+
+    @Override
+    public void onMembershipChanged(MembershipDelta delta, MembershipSnapshot snapshot) {
+        update(ring -> {
+            PlacementRing.Builder builder = ring.toBuilder();
+            for (Server server : delta.getRemoved()) {
+                builder.remove(server);
+            }
+            for (Server server : delta.getAdded()) {
+                if (server.getType() == Server.Type.FILE_SERVER) {
+                    double weight = ring.getWeight(server);
+                    builder.add(server, weight > 0 ? weight : PlacementRing.Builder.DEFAULT_WEIGHT);
+                }
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * Update the snapshot, e.g. {@code update(ring -> ring.with(server, weight))}.
+     */
+    public synchronized PlacementRing update(UnaryOperator<PlacementRing> updater) {
+        PlacementRing next = updater.apply(ring);
+        ring = next;
+        return next;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.placement;
+
+import scake.server.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot mapping keys to ordered replica lists of
+ * file servers, by weighted rendezvous (highest random weight)
+ * hashing.
+ * <p>
+ * Every server scores each key with {@code weight / -ln(u)}, where
+ * {@code u} is a uniform hash of the key and the server, and the
+ * replicas of a key are the servers with the highest scores. Adding
+ * or removing a server only moves the keys it wins or loses, about
+ * {@code weight / totalWeight} of them, and a key keeps the relative
+ * order of its other replicas.
+ * <p>
+ * Server hashes only depend on their qualified names, so all nodes
+ * agree on the placement given the same servers and weights.
+ * Lookups are lock-free and allocation-free.
+ *
+ * @author RollW
+ */
+public final class PlacementRing {
+    private static final PlacementRing EMPTY = new PlacementRing(new Server[0], new double[0]);
+    private static final ThreadLocal<double[]> SCORES =
+            ThreadLocal.withInitial(() -> new double[64]);
+
+    private final Server[] servers;
+    private final long[] seeds;
+    private final double[] weights;
+    private final double totalWeight;
+
+    private PlacementRing(Server[] servers, double[] weights) {
+        this.servers = servers;
+        this.weights = weights;
+        this.seeds = new long[servers.length];
+        double total = 0;
+        for (int i = 0; i < servers.length; i++) {
+            seeds[i] = KeyHashing.hash(servers[i].getQualifiedName());
+            total += weights[i];
+        }
+        this.totalWeight = total;
+    }
+
+    public static PlacementRing empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return servers.length;
+    }
+
+    public boolean isEmpty() {
+        return servers.length == 0;
+    }
+
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public List<Server> getServers() {
+        return Collections.unmodifiableList(Arrays.asList(servers));
+    }
+
+    /**
+     * Get the weight of the server, or 0 if it is not in the ring.
+     */
+    public double getWeight(Server server) {
+        int index = indexOf(server);
+        return index < 0 ? 0 : weights[index];
+    }
+
+    public boolean contains(Server server) {
+        return indexOf(server) >= 0;
+    }
+
+    private int indexOf(Server server) {
+        for (int i = 0; i < servers.length; i++) {
+            if (servers[i].equals(server)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the first replica of the key, or null if the ring is empty.
+     *
+     * @param keyHash hash of the key, see {@link KeyHashing}
+     */
+    public Server primary(long keyHash) {
+        Server best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < servers.length; i++) {
+            double score = score(keyHash, i);
+            if (score > bestScore) {
+                bestScore = score;
+                best = servers[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fill the array with the replicas of the key, best first.
+     *
+     * @param keyHash  hash of the key, see {@link KeyHashing}
+     * @param replicas the array to fill, its length is the number
+     *                 of replicas wanted
+     * @return the number of replicas filled, less than the length
+     * of the array if the ring has fewer servers
+     */
+    public int select(long keyHash, Server[] replicas) {
+        int count = Math.min(replicas.length, servers.length);
+        if (count == 0) {
+            return 0;
+        }
+        if (count == 1) {
+            replicas[0] = primary(keyHash);
+            return 1;
+        }
+        double[] scores = scores();
+        for (int i = 0; i < servers.length; i++) {
+            scores[i] = score(keyHash, i);
+        }
+        for (int r = 0; r < count; r++) {
+            int best = -1;
+            for (int i = 0; i < servers.length; i++) {
+                if (scores[i] != Double.NEGATIVE_INFINITY &&
+                        (best < 0 || scores[i] > scores[best])) {
+                    best = i;
+                }
+            }
+            replicas[r] = servers[best];
+            scores[best] = Double.NEGATIVE_INFINITY;
+        }
+        return count;
+    }
+
+    private double[] scores() {
+        double[] scores = SCORES.get();
+        if (scores.length < servers.length) {
+            scores = new double[Integer.highestOneBit(servers.length) << 1];
+            SCORES.set(scores);
+        }
+        return scores;
+    }
+
+    private double score(long keyHash, int index) {
+        long hash = KeyHashing.mix(keyHash ^ seeds[index]);
+        // uniform in (0, 1)
+        double unit = ((hash >>> 11) + 0.5) * 0x1.0p-53;
+        return weights[index] / -Math.log(unit);
+    }
+
+    /**
+     * Create a builder starting from the servers of this ring.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        for (int i = 0; i < servers.length; i++) {
+            builder.add(servers[i], weights[i]);
+        }
+        return builder;
+    }
+
+    /**
+     * Get a ring with the server added or its weight replaced.
+     */
+    public PlacementRing with(Server server, double weight) {
+        return toBuilder().add(server, weight).build();
+    }
+
+    /**
+     * Get a ring without the server.
+     */
+    public PlacementRing without(Server server) {
+        if (!contains(server)) {
+            return this;
+        }
+        return toBuilder().remove(server).build();
+    }
+
+    @Override
+    public String toString() {
+        return "PlacementRing[servers=" + servers.length +
+                ", totalWeight=" + totalWeight + "]";
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        public static final double DEFAULT_WEIGHT = 1.0;
+
+        private final Map<Server, Double> servers = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder add(Server server) {
+            return add(server, DEFAULT_WEIGHT);
+        }
+
+        /**
+         * Add a file server, or replace its weight.
+         *
+         * @param weight relative share of keys of the server,
+         *               e.g. its capacity
+         */
+        public Builder add(Server server, double weight) {
+            if (server.getType() != Server.Type.FILE_SERVER) {
+                throw new IllegalArgumentException("Only file servers hold data, got " + server + ".");
+            }
+            if (!(weight > 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Weight must be positive and finite.");
+            }
+            // replace the key too, it may be the interned member
+            servers.remove(server);
+            servers.put(server, weight);
+            return this;
+        }
+
+        public Builder remove(Server server) {
+            servers.remove(server);
+            return this;
+        }
+
+        public PlacementRing build() {
+            if (servers.isEmpty()) {
+                return EMPTY;
+            }
+            List<Map.Entry<Server, Double>> entries = new ArrayList<>(servers.entrySet());
+            // order does not change the placement, sort for stable snapshots
+            entries.sort(Map.Entry.comparingByKey(
+                    (a, b) -> a.getQualifiedName().compareTo(b.getQualifiedName())));
+            Server[] array = new Server[entries.size()];
+            double[] weights = new double[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                array[i] = entries.get(i).getKey();
+                weights[i] = entries.get(i).getValue();
+            }
+            return new PlacementRing(array, weights);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.chunking;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 digest identifying a chunk by its content.
+ * <p>
+ * SHA-256 is computed with CPU instructions on most current
+ * processors, fast enough to hash every chunk written while
+ * leaving collisions out of question.
+ *
+ * @author RollW
+ */
+public final class ChunkFingerprint {
+    public static final int SIZE = 32;
+
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(ChunkFingerprint::newDigest);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] digest;
+    private final int hash;
+
+    private ChunkFingerprint(byte[] digest) {
+        this.digest = digest;
+        // The digest is uniformly distributed already.
+        this.hash = ByteBuffer.wrap(digest).getInt();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    public static ChunkFingerprint of(byte[] data, int offset, int length) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(data, offset, length);
+        return new ChunkFingerprint(digest.digest());
+    }
+
+    /**
+     * Fingerprint the remaining bytes of the buffer, without
+     * changing its position.
+     */
+    public static ChunkFingerprint of(ByteBuffer data) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(data.duplicate());
+        return new ChunkFingerprint(digest.digest());
+    }
+
+    /**
+     * Read a fingerprint of {@link #SIZE} bytes from the buffer.
+     */
+    public static ChunkFingerprint read(ByteBuffer buffer) {
+        byte[] digest = new byte[SIZE];
+        buffer.get(digest);
+        return new ChunkFingerprint(digest);
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(digest);
+    }
+
+    public byte[] toByteArray() {
+        return digest.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChunkFingerprint)) return false;
+        ChunkFingerprint that = (ChunkFingerprint) o;
+        return hash == that.hash && Arrays.equals(digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[SIZE * 2];
+        for (int i = 0; i < SIZE; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[digest[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+}
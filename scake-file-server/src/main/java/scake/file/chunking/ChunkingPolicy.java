@@ -0,0 +1,107 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.chunking;
+
+/**
+ * Bounds of the chunks cut by a {@link GearChunker}.
+ *
+ * @author RollW
+ */
+public class ChunkingPolicy {
+    public static final int DEFAULT_MIN_SIZE = 2 * 1024;
+    public static final int DEFAULT_AVERAGE_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    /**
+     * No boundary is looked for before this size.
+     */
+    private final int minSize;
+
+    /**
+     * Expected size of the chunks, a power of two.
+     */
+    private final int averageSize;
+
+    /**
+     * A chunk is cut at this size if no boundary is found.
+     */
+    private final int maxSize;
+
+    private ChunkingPolicy(Builder builder) {
+        if (Integer.bitCount(builder.averageSize) != 1) {
+            throw new IllegalArgumentException("averageSize must be a power of two.");
+        }
+        if (builder.minSize <= 0 || builder.minSize > builder.averageSize ||
+                builder.averageSize > builder.maxSize) {
+            throw new IllegalArgumentException("Sizes must satisfy 0 < min <= average <= max.");
+        }
+        if (builder.averageSize < 64) {
+            throw new IllegalArgumentException("averageSize must be at least 64.");
+        }
+        this.minSize = builder.minSize;
+        this.averageSize = builder.averageSize;
+        this.maxSize = builder.maxSize;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAverageSize() {
+        return averageSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public static ChunkingPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int minSize = DEFAULT_MIN_SIZE;
+        private int averageSize = DEFAULT_AVERAGE_SIZE;
+        private int maxSize = DEFAULT_MAX_SIZE;
+
+        public Builder setMinSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Builder setAverageSize(int averageSize) {
+            this.averageSize = averageSize;
+            return this;
+        }
+
+        public Builder setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public ChunkingPolicy build() {
+            return new ChunkingPolicy(this);
+        }
+    }
+}
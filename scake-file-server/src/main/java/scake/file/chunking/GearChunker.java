@@ -0,0 +1,159 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.chunking;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits data into chunks at content-defined boundaries with the
+ * FastCDC algorithm, so an insertion or deletion only changes the
+ * chunks around it and the rest still deduplicate.
+ * <p>
+ * A Gear rolling hash is updated with one shift, one add and one
+ * table lookup per byte, with no allocation. The first bytes up to
+ * the min chunk size are skipped without hashing. Boundaries are looked for with
+ * a stricter mask before the average size and a looser one after
+ * it, which keeps chunk sizes close to the average. The Gear table is fixed,
+ * so the same data is always cut at the same boundaries.
+ * <p>
+ * Instances are stateless and may be shared by threads.
+ *
+ * @author RollW
+ */
+public final class GearChunker {
+    private static final long[] GEAR = gearTable();
+
+    private final ChunkingPolicy policy;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    public GearChunker(ChunkingPolicy policy) {
+        this.policy = policy;
+        this.minSize = policy.getMinSize();
+        this.averageSize = policy.getAverageSize();
+        this.maxSize = policy.getMaxSize();
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        // High bits of the hash depend on the most bytes, as the
+        // hash is shifted left.
+        this.strictMask = highBits(bits + 2);
+        this.looseMask = highBits(bits - 2);
+    }
+
+    private static long highBits(int count) {
+        return -1L << (64 - count);
+    }
+
+    public ChunkingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Find the length of the chunk starting at the offset.
+     *
+     * @param length bytes available from the offset, the end of
+     *               the data is taken as a boundary when it is less
+     *               than the max chunk size
+     */
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(end, averageSize);
+        long hash = 0;
+        int i = offset + minSize;
+        int normalEnd = offset + normal;
+        int last = offset + end;
+        for (; i < normalEnd; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if ((hash & strictMask) == 0) {
+                return i + 1 - offset;
+            }
+        }
+        for (; i < last; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if ((hash & looseMask) == 0) {
+                return i + 1 - offset;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Split the stream into chunks, passing each to the handler.
+     * A single buffer is used for the whole stream, the bytes passed
+     * to the handler are only valid until it returns.
+     */
+    public void split(InputStream inputStream, ChunkHandler handler) throws IOException {
+        byte[] buffer = new byte[maxSize * 4];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && end - start < maxSize) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buffer.length) {
+                    int read = inputStream.read(buffer, end, buffer.length - end);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += read;
+                }
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buffer, start, end - start);
+            handler.handle(buffer, start, length);
+            start += length;
+        }
+    }
+
+    /**
+     * Receives the chunks cut by {@link #split(InputStream, ChunkHandler)}.
+     */
+    @FunctionalInterface
+    public interface ChunkHandler {
+        void handle(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private static long[] gearTable() {
+        // SplitMix64 from a fixed seed. Changing the table moves
+        // every boundary and defeats deduplication against chunks
+        // already stored.
+        long[] table = new long[256];
+        long state = 0x5343414B45474541L;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.erasure;
+
+import scake.server.Server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetches a shard of an erasure-coded stripe from a file server.
+ *
+ * @author RollW
+ */
+@FunctionalInterface
+public interface ShardFetcher {
+    /**
+     * @return a future completed with the shard data, its remaining
+     * bytes being the whole shard
+     */
+    CompletableFuture<ByteBuffer> fetch(Server server, long stripeId, int shardIndex);
+}
@@ -0,0 +1,141 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.erasure;
+
+import scake.common.erasure.ErasureCodingScheme;
+import scake.server.Server;
+import scake.server.placement.KeyHashing;
+import scake.server.placement.Placement;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Where the shards of an erasure-coded stripe were written, as the
+ * node ids of the file servers indexed by shard.
+ * <p>
+ * The servers are chosen by the {@link Placement} once, when the
+ * stripe is written, and recorded with the file. A later change of
+ * the membership reorders the placement ring, so reads go to the
+ * recorded nodes and never to a placement computed again.
+ *
+ * @author RollW
+ */
+public final class StripeLayout {
+    private final long stripeId;
+    private final ErasureCodingScheme scheme;
+    private final int shardLength;
+    private final int[] nodeIds;
+
+    private StripeLayout(long stripeId, ErasureCodingScheme scheme,
+                         int shardLength, int[] nodeIds) {
+        this.stripeId = stripeId;
+        this.scheme = scheme;
+        this.shardLength = shardLength;
+        this.nodeIds = nodeIds;
+    }
+
+    /**
+     * Restore a recorded layout.
+     *
+     * @param nodeIds node ids of the servers, indexed by shard
+     */
+    public static StripeLayout of(long stripeId, ErasureCodingScheme scheme,
+                                  int shardLength, int[] nodeIds) {
+        Objects.requireNonNull(scheme, "scheme must not be null.");
+        if (shardLength < 0) {
+            throw new IllegalArgumentException("shardLength must not be negative.");
+        }
+        if (nodeIds.length != scheme.getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + scheme.getTotalShards() +
+                    " node ids, got " + nodeIds.length);
+        }
+        return new StripeLayout(stripeId, scheme, shardLength, nodeIds.clone());
+    }
+
+    /**
+     * Choose the file servers of a stripe about to be written, shard i
+     * on the i-th server selected by the placement for the stripe id.
+     *
+     * @throws IllegalStateException if there are fewer file servers
+     *                               than shards, or one has no node id
+     */
+    public static StripeLayout place(long stripeId, ErasureCodingScheme scheme,
+                                     int shardLength, Placement placement) {
+        Server[] servers = new Server[scheme.getTotalShards()];
+        int count = placement.select(KeyHashing.hash(stripeId), servers);
+        if (count < servers.length) {
+            throw new IllegalStateException("Stripe " + stripeId + " needs " +
+                    servers.length + " file servers, only " + count + " available.");
+        }
+        int[] nodeIds = new int[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            if (servers[i].getNodeId() == Server.NO_NODE_ID) {
+                throw new IllegalStateException("File server " + servers[i] +
+                        " has no node id.");
+            }
+            nodeIds[i] = servers[i].getNodeId();
+        }
+        return of(stripeId, scheme, shardLength, nodeIds);
+    }
+
+    public long getStripeId() {
+        return stripeId;
+    }
+
+    public ErasureCodingScheme getScheme() {
+        return scheme;
+    }
+
+    public int getShardLength() {
+        return shardLength;
+    }
+
+    /**
+     * Node id of the file server holding the shard.
+     */
+    public int getNodeId(int shard) {
+        return nodeIds[shard];
+    }
+
+    public int[] getNodeIds() {
+        return nodeIds.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StripeLayout)) return false;
+        StripeLayout that = (StripeLayout) o;
+        return stripeId == that.stripeId && shardLength == that.shardLength &&
+                scheme.equals(that.scheme) && Arrays.equals(nodeIds, that.nodeIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(stripeId, scheme, shardLength) + Arrays.hashCode(nodeIds);
+    }
+
+    @Override
+    public String toString() {
+        return "StripeLayout[stripe=" + stripeId + ", scheme=" + scheme +
+                ", shard length=" + shardLength + ", nodes=" + Arrays.toString(nodeIds) + "]";
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.erasure;
+
+import scake.common.erasure.ReedSolomonCodec;
+import scake.server.Server;
+import scake.server.membership.MembershipRegistry;
+import scake.server.membership.MembershipSnapshot;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads erasure-coded stripes from the file servers they were
+ * written to.
+ * <p>
+ * The servers of the shards are taken from the {@link StripeLayout}
+ * recorded when the stripe was written, and resolved by node id in
+ * the current membership. A shard whose server left is treated as a
+ * failed fetch. A read fetches the data shards in parallel, which needs no
+ * decoding. Each failed fetch is replaced by a fetch of a parity
+ * shard not tried yet, so no more than the data shard count of
+ * fetches run at a time, and the missing data is reconstructed once
+ * enough shards arrived.
+ * <p>
+ * Nothing writes stripes yet: no write path resolves a
+ * {@link scake.common.storage.StoragePolicy} to erasure coding, so
+ * erasure coding can not be selected for a file so far.
+ *
+ * @author RollW
+ */
+public class StripeReader {
+    private final ReedSolomonCodec codec;
+    private final MembershipRegistry membership;
+    private final ShardFetcher fetcher;
+
+    public StripeReader(ReedSolomonCodec codec, MembershipRegistry membership,
+                        ShardFetcher fetcher) {
+        this.codec = codec;
+        this.membership = membership;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Get the file servers holding the shards of the stripe, indexed
+     * by shard, null for a server no longer in the cluster.
+     */
+    public Server[] locate(StripeLayout layout) {
+        MembershipSnapshot snapshot = membership.current();
+        Server[] servers = new Server[layout.getScheme().getTotalShards()];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = snapshot.getByNodeId(layout.getNodeId(i));
+        }
+        return servers;
+    }
+
+    /**
+     * Read the data shards of a stripe.
+     *
+     * @return a future completed with the data shards in order
+     * @throws IllegalArgumentException if the stripe is coded with
+     *                                  another scheme than the codec
+     */
+    public CompletableFuture<ByteBuffer[]> read(StripeLayout layout) {
+        if (!layout.getScheme().equals(codec.getScheme())) {
+            throw new IllegalArgumentException("Stripe " + layout.getStripeId() +
+                    " is coded with " + layout.getScheme() + ", not " + codec.getScheme());
+        }
+        StripeRead read = new StripeRead(layout.getStripeId(), layout.getShardLength(),
+                locate(layout));
+        read.start();
+        return read.result;
+    }
+
+    private final class StripeRead {
+        private final long stripeId;
+        private final int shardLength;
+        private final Server[] servers;
+        private final int dataShards;
+        private final ByteBuffer[] shards;
+        private final boolean[] present;
+        private final CompletableFuture<ByteBuffer[]> result = new CompletableFuture<>();
+        private int nextShard;
+        private int received = 0;
+        private int inFlight = 0;
+        private Throwable lastFailure;
+
+        StripeRead(long stripeId, int shardLength, Server[] servers) {
+            this.stripeId = stripeId;
+            this.shardLength = shardLength;
+            this.servers = servers;
+            this.dataShards = codec.getScheme().getDataShards();
+            this.shards = new ByteBuffer[servers.length];
+            this.present = new boolean[servers.length];
+            this.nextShard = dataShards;
+        }
+
+        void start() {
+            synchronized (this) {
+                inFlight = dataShards;
+            }
+            for (int i = 0; i < dataShards; i++) {
+                fetch(i);
+            }
+        }
+
+        private void fetch(int shard) {
+            if (servers[shard] == null) {
+                onFailure(new IllegalStateException("Server of shard " + shard +
+                        " of stripe " + stripeId + " left the cluster."));
+                return;
+            }
+            CompletableFuture<ByteBuffer> future;
+            try {
+                future = fetcher.fetch(servers[shard], stripeId, shard);
+            } catch (RuntimeException e) {
+                onFailure(e);
+                return;
+            }
+            future.whenComplete((data, error) -> {
+                if (error != null) {
+                    onFailure(error);
+                } else if (data.remaining() != shardLength) {
+                    onFailure(new IllegalStateException("Shard " + shard + " of stripe " +
+                            stripeId + " has " + data.remaining() + " Bytes, expected " +
+                            shardLength));
+                } else {
+                    onShard(shard, data);
+                }
+            });
+        }
+
+        private void onShard(int shard, ByteBuffer data) {
+            synchronized (this) {
+                inFlight--;
+                if (result.isDone()) {
+                    return;
+                }
+                shards[shard] = data.slice();
+                present[shard] = true;
+                received++;
+                if (received < dataShards) {
+                    if (inFlight == 0) {
+                        // Fetches left failed and no shard is left to try.
+                        result.completeExceptionally(new IllegalStateException(
+                                "Not enough shards of stripe " + stripeId +
+                                        " available, got " + received, lastFailure));
+                    }
+                    return;
+                }
+            }
+            complete();
+        }
+
+        private void onFailure(Throwable error) {
+            int retry;
+            synchronized (this) {
+                inFlight--;
+                lastFailure = error;
+                if (result.isDone()) {
+                    return;
+                }
+                if (nextShard >= servers.length) {
+                    if (inFlight == 0) {
+                        result.completeExceptionally(new IllegalStateException(
+                                "Not enough shards of stripe " + stripeId +
+                                        " available, got " + received, lastFailure));
+                    }
+                    return;
+                }
+                retry = nextShard++;
+                inFlight++;
+            }
+            fetch(retry);
+        }
+
+        private void complete() {
+            try {
+                boolean dataMissing = false;
+                for (int i = 0; i < dataShards; i++) {
+                    if (!present[i]) {
+                        dataMissing = true;
+                        break;
+                    }
+                }
+                if (dataMissing) {
+                    for (int i = 0; i < dataShards; i++) {
+                        if (!present[i]) {
+                            shards[i] = ByteBuffer.allocate(shardLength);
+                        }
+                    }
+                    codec.reconstructData(shards, present, shardLength);
+                }
+                ByteBuffer[] data = new ByteBuffer[dataShards];
+                System.arraycopy(shards, 0, data, 0, dataShards);
+                result.complete(data);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.rpc;
+
+import io.grpc.BindableService;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scake.common.buffer.DirectBufferPool;
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+import scake.common.rpc.data.DataChunk;
+import scake.common.rpc.data.FileDataService;
+import scake.common.rpc.data.RangeReadRequest;
+import scake.file.storage.ChunkLocation;
+import scake.file.storage.FileLayout;
+import scake.file.storage.SegmentStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Serves {@link FileDataService#READ_RANGES} from a {@link SegmentStore}.
+ * <p>
+ * The ranges of a request are merged and resolved to slices of
+ * chunks, which are sent in the order they are stored, so the disk
+ * is read in one forward pass, and only as fast as the client takes
+ * them.
+ * <p>
+ * If the request asks for checksums, each slice is sent as a file
+ * region {@link DataChunk} with the checksums of the blocks it
+ * touches, and read from the segment file only as it is serialized.
+ * Otherwise the blocks are read and verified here into a pooled
+ * direct buffer first. Both are copied once more into the buffers
+ * of the transport, see {@link scake.common.rpc.data.DataChunkMarshaller}.
+ *
+ * @author RollW
+ */
+public class RangeReadService implements BindableService {
+    private static final Logger logger = LoggerFactory.getLogger(RangeReadService.class);
+
+    private static final Comparator<Read> DISK_ORDER =
+            Comparator.<Read>comparingInt(read -> read.location.getSegmentId())
+                    .thenComparingLong(Read::getPosition);
+
+    private final SegmentStore store;
+    private final FileLayoutResolver layoutResolver;
+    private final DirectBufferPool pool = DirectBufferPool.shared();
+
+    public RangeReadService(SegmentStore store, FileLayoutResolver layoutResolver) {
+        this.store = store;
+        this.layoutResolver = layoutResolver;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(FileDataService.SERVICE_NAME)
+                .addMethod(FileDataService.READ_RANGES, (call, headers) -> {
+                    call.request(1);
+                    return new RangeReadCall(call);
+                })
+                .build();
+    }
+
+    /**
+     * Resolve the ranges of the request to the chunk slices to send,
+     * in disk order.
+     */
+    List<Read> plan(RangeReadRequest request) throws StatusException {
+        FileLayout layout = layoutResolver.getLayout(request.getFileId());
+        if (layout == null) {
+            throw Status.NOT_FOUND
+                    .withDescription("File " + request.getFileId() + " is not stored here.")
+                    .asException();
+        }
+        List<Read> reads = new ArrayList<>();
+        for (RangeReadRequest.Range range : merge(request.getRanges())) {
+            if (range.getEnd() > layout.getLength()) {
+                throw Status.OUT_OF_RANGE
+                        .withDescription("Range " + range + " exceeds file length " +
+                                layout.getLength())
+                        .asException();
+            }
+            for (FileLayout.Slice slice : layout.resolve(range.getOffset(), range.getLength())) {
+                ChunkLocation location = store.locate(slice.getChunkId());
+                if (location == null) {
+                    throw Status.DATA_LOSS
+                            .withDescription("Chunk " + slice.getChunkId() + " of file " +
+                                    request.getFileId() + " is missing.")
+                            .asException();
+                }
+                reads.add(new Read(slice, location));
+            }
+        }
+        reads.sort(DISK_ORDER);
+        return reads;
+    }
+
+    /**
+     * Sort the ranges by offset and merge those that overlap or
+     * touch, so no byte is sent twice.
+     */
+    static List<RangeReadRequest.Range> merge(List<RangeReadRequest.Range> ranges) {
+        List<RangeReadRequest.Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(RangeReadRequest.Range::getOffset));
+        List<RangeReadRequest.Range> merged = new ArrayList<>(sorted.size());
+        RangeReadRequest.Range current = null;
+        for (RangeReadRequest.Range range : sorted) {
+            if (range.getLength() == 0) {
+                continue;
+            }
+            if (current != null && range.getOffset() <= current.getEnd() &&
+                    Math.max(current.getEnd(), range.getEnd()) - current.getOffset() <= Integer.MAX_VALUE) {
+                long end = Math.max(current.getEnd(), range.getEnd());
+                current = new RangeReadRequest.Range(current.getOffset(),
+                        (int) (end - current.getOffset()));
+                continue;
+            }
+            if (current != null) {
+                merged.add(current);
+            }
+            current = range;
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Send the slice as a file region with the checksums of the blocks
+     * it touches, for the client to verify. The region is read from
+     * the file while the message is serialized, which is timed as a
+     * read of the store.
+     */
+    private void sendRegion(ServerCall<RangeReadRequest, DataChunk> call,
+                            Read read) throws IOException {
+        FileLayout.Slice slice = read.slice;
+        ChunkLocation location = read.location;
+        BlockChecksums stored = store.getChecksums(location);
+        DataChunk chunk;
+        if (stored == null) {
+            chunk = DataChunk.ofFile(slice.getFileOffset(), store.getChannel(location),
+                    read.getPosition(), slice.getLength());
+        } else {
+            // Widen the slice to whole checksum blocks, so the client
+            // can verify it; the chunk offset tells where the slice
+            // begins.
+            int firstBlock = stored.blockOf(slice.getChunkOffset());
+            int endBlock = stored.blockOf(slice.getChunkOffset() + slice.getLength() - 1) + 1;
+            int start = firstBlock * stored.getBlockSize();
+            BlockChecksums blocks = stored.range(firstBlock, endBlock);
+            chunk = DataChunk.ofFile(slice.getFileOffset() - (slice.getChunkOffset() - start),
+                    store.getChannel(location), location.getPosition() + start,
+                    (int) blocks.getLength(), blocks);
+        }
+        long startTime = System.nanoTime();
+        call.sendMessage(chunk);
+        store.recordReadLatency(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Send the slice without checksums, read through the store so the
+     * blocks it touches are verified here.
+     */
+    private void sendVerified(ServerCall<RangeReadRequest, DataChunk> call,
+                              Read read) throws IOException {
+        FileLayout.Slice slice = read.slice;
+        ByteBuffer buffer = pool.acquire(slice.getLength());
+        DataChunk chunk;
+        try {
+            int length = store.read(read.location, slice.getChunkOffset(), buffer);
+            if (length != slice.getLength()) {
+                throw new IOException("Chunk " + slice.getChunkId() + " is shorter than its slice.");
+            }
+            buffer.flip();
+            chunk = DataChunk.sendPooled(slice.getFileOffset(), buffer, pool);
+        } catch (IOException | RuntimeException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        // The transport releases the buffer once it has read the
+        // chunk, an in-process one only after this returns.
+        try {
+            call.sendMessage(chunk);
+        } catch (RuntimeException e) {
+            chunk.close();
+            throw e;
+        }
+    }
+
+    static final class Read {
+        private final FileLayout.Slice slice;
+        private final ChunkLocation location;
+
+        Read(FileLayout.Slice slice, ChunkLocation location) {
+            this.slice = slice;
+            this.location = location;
+        }
+
+        long getPosition() {
+            return location.getPosition() + slice.getChunkOffset();
+        }
+    }
+
+    /**
+     * Sends the slices of a call while the transport is ready for
+     * more, and resumes when it becomes ready again. The callbacks of
+     * a call are not run concurrently.
+     */
+    private final class RangeReadCall extends ServerCall.Listener<RangeReadRequest> {
+        private final ServerCall<RangeReadRequest, DataChunk> call;
+        private RangeReadRequest request;
+        private List<Read> reads;
+        private int next = 0;
+        // Set once the headers are sent, the transport may be ready
+        // before the request is complete.
+        private boolean started = false;
+        private boolean closed = false;
+
+        RangeReadCall(ServerCall<RangeReadRequest, DataChunk> call) {
+            this.call = call;
+        }
+
+        @Override
+        public void onMessage(RangeReadRequest message) {
+            if (request != null) {
+                close(Status.INVALID_ARGUMENT.withDescription("Expected one request."));
+                return;
+            }
+            request = message;
+            try {
+                reads = plan(message);
+            } catch (StatusException e) {
+                close(e.getStatus());
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (closed) {
+                return;
+            }
+            if (reads == null) {
+                close(Status.INVALID_ARGUMENT.withDescription("Missing request."));
+                return;
+            }
+            call.sendHeaders(new Metadata());
+            started = true;
+            send();
+        }
+
+        @Override
+        public void onReady() {
+            if (started) {
+                send();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            closed = true;
+        }
+
+        private void send() {
+            try {
+                while (!closed && next < reads.size() && call.isReady()) {
+                    Read read = reads.get(next++);
+                    if (request.isChecksums()) {
+                        sendRegion(call, read);
+                    } else {
+                        sendVerified(call, read);
+                    }
+                }
+            } catch (ChecksumException e) {
+                logger.error("Corrupt chunk data in file {}.", request.getFileId(), e);
+                close(Status.DATA_LOSS.withDescription("File data is corrupt.")
+                        .withCause(e));
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to read ranges of file {}.", request.getFileId(), e);
+                close(Status.INTERNAL.withDescription("Failed to read the file.")
+                        .withCause(e));
+                return;
+            }
+            if (next == reads.size()) {
+                close(Status.OK);
+            }
+        }
+
+        private void close(Status status) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            call.close(status, new Metadata());
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read cache of chunk data held in off-heap slabs.
+ * <p>
+ * Entries are admitted and evicted by Caffeine's W-TinyLFU policy,
+ * which only keeps a new chunk if it is read more often than the
+ * chunk it would evict, so a one-off scan does not flush the working
+ * set. The data is copied into pages of large direct buffers and is
+ * not seen by the GC.
+ * <p>
+ * Entries are keyed by {@link ChunkLocation}. Records are never
+ * rewritten in place, so a cached entry can not be stale, and an
+ * entry of a replaced or deleted chunk is evicted in time.
+ *
+ * @author RollW
+ */
+public class ChunkCache {
+    private final ChunkCacheConfig config;
+    private final SlabAllocator allocator;
+    private final Cache<ChunkLocation, Entry> cache;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public ChunkCache(ChunkCacheConfig config) {
+        if (!config.isEnabled()) {
+            throw new IllegalArgumentException("Cache capacity is smaller than a page.");
+        }
+        this.config = config;
+        this.allocator = new SlabAllocator(config.getCapacity(),
+                config.getPageSize(), config.getSlabSize());
+        long pagesBytes = (long) allocator.getTotalPages() * config.getPageSize();
+        // Keep room for the chunk being added before the policy
+        // evicts to make room for it.
+        long headroom = Math.min(pagesBytes / 2, pageAligned(config.getMaxChunkSize()));
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(pagesBytes - headroom)
+                .weigher((ChunkLocation location, Entry entry) -> entry.getWeight())
+                .removalListener((ChunkLocation location, Entry entry, RemovalCause cause) -> {
+                    if (entry != null) {
+                        entry.release();
+                    }
+                })
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+    }
+
+    private long pageAligned(long length) {
+        int pageSize = config.getPageSize();
+        return (length + pageSize - 1) / pageSize * pageSize;
+    }
+
+    /**
+     * Copy the cached bytes of the chunk from the offset into the
+     * remaining space of the buffer, up to the end of the chunk.
+     *
+     * @return number of bytes copied, or -1 on a cache miss
+     */
+    public int read(ChunkLocation location, int offset, ByteBuffer dst) {
+        Entry entry = cache.getIfPresent(location);
+        if (entry == null || !entry.retain()) {
+            return -1;
+        }
+        try {
+            return entry.copyTo(offset, dst);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Copy a cached chunk into a new heap buffer.
+     *
+     * @return the data, or null on a cache miss
+     */
+    public ByteBuffer read(ChunkLocation location) {
+        Entry entry = cache.getIfPresent(location);
+        if (entry == null || !entry.retain()) {
+            return null;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.allocate(entry.length);
+            entry.copyTo(0, data);
+            data.flip();
+            return data;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Offer the data of a chunk to the cache. The policy may still
+     * decline to keep it.
+     *
+     * @param data the remaining bytes are the whole chunk, its
+     *             position is not changed
+     * @return false if the chunk is too large or there is no free
+     * memory to copy it into
+     */
+    public boolean put(ChunkLocation location, ByteBuffer data) {
+        int length = data.remaining();
+        if (length > config.getMaxChunkSize() || length != location.getLength()) {
+            return false;
+        }
+        int pageCount = Math.max(1, (int) (pageAligned(length) / config.getPageSize()));
+        int[] pages = allocator.allocate(pageCount);
+        if (pages == null) {
+            cache.cleanUp();
+            pages = allocator.allocate(pageCount);
+        }
+        if (pages == null) {
+            rejectedCount.increment();
+            return false;
+        }
+        Entry entry = new Entry(length, pages);
+        entry.copyFrom(data);
+        cache.put(location, entry);
+        return true;
+    }
+
+    public void invalidate(ChunkLocation location) {
+        cache.invalidate(location);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public ChunkCacheConfig getConfig() {
+        return config;
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * Number of entries evicted by the policy, including new
+     * chunks it declined to keep.
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * Bytes of memory released by evictions.
+     */
+    public long getEvictionBytes() {
+        return cache.stats().evictionWeight();
+    }
+
+    /**
+     * Number of chunks not cached for lack of free memory.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getEntryCount() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Off-heap memory in Bytes taken by cached chunks.
+     */
+    public long getUsedBytes() {
+        return (long) allocator.getUsedPages() * config.getPageSize();
+    }
+
+    public long getCapacity() {
+        return (long) allocator.getTotalPages() * config.getPageSize();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "ChunkCache[entries=" + cache.estimatedSize() +
+                ", used=" + getUsedBytes() + "/" + getCapacity() +
+                ", hits=" + stats.hitCount() + ", misses=" + stats.missCount() +
+                ", evictions=" + stats.evictionCount() + "]";
+    }
+
+    /**
+     * A cached chunk, holding its pages while the cache or
+     * a reader references it.
+     */
+    private final class Entry {
+        private final int length;
+        private final int[] pages;
+        // One reference is held by the cache.
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(int length, int[] pages) {
+            this.length = length;
+            this.pages = pages;
+        }
+
+        int getWeight() {
+            return pages.length * allocator.getPageSize();
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                allocator.free(pages);
+            }
+        }
+
+        void copyFrom(ByteBuffer data) {
+            ByteBuffer source = data.duplicate();
+            int pageSize = allocator.getPageSize();
+            for (int page : pages) {
+                int count = Math.min(pageSize, source.remaining());
+                ByteBuffer slice = source.duplicate();
+                slice.limit(slice.position() + count);
+                allocator.page(page).put(slice);
+                source.position(source.position() + count);
+            }
+        }
+
+        int copyTo(int offset, ByteBuffer dst) {
+            if (offset < 0 || offset > length) {
+                throw new IndexOutOfBoundsException("offset " + offset +
+                        " out of chunk of " + length + " Bytes.");
+            }
+            int pageSize = allocator.getPageSize();
+            int total = Math.min(dst.remaining(), length - offset);
+            int copied = 0;
+            while (copied < total) {
+                int position = offset + copied;
+                int inPage = position % pageSize;
+                int count = Math.min(total - copied, pageSize - inPage);
+                ByteBuffer page = allocator.page(pages[position / pageSize]);
+                page.position(page.position() + inPage);
+                page.limit(page.position() + count);
+                dst.put(page);
+                copied += count;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.Size;
+import scake.common.server.ConfigLoader;
+
+/**
+ * Options of a {@link ChunkCache}.
+ *
+ * @author RollW
+ */
+public class ChunkCacheConfig {
+    public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+    public static final int DEFAULT_PAGE_SIZE = 16 * 1024;
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Off-heap memory in Bytes the cache may hold. Zero disables
+     * the cache.
+     */
+    private final long capacity;
+
+    /**
+     * Unit of allocation in the slabs, a cached chunk takes
+     * whole pages.
+     */
+    private final int pageSize;
+
+    /**
+     * Size of the direct buffers allocated for pages, a multiple
+     * of the page size.
+     */
+    private final int slabSize;
+
+    /**
+     * Chunks larger than this are not cached.
+     */
+    private final int maxChunkSize;
+
+    private ChunkCacheConfig(Builder builder) {
+        if (builder.capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative.");
+        }
+        if (builder.pageSize <= 0 || builder.slabSize < builder.pageSize ||
+                builder.slabSize % builder.pageSize != 0) {
+            throw new IllegalArgumentException("slabSize must be a positive multiple of pageSize.");
+        }
+        if (builder.maxChunkSize <= 0) {
+            throw new IllegalArgumentException("maxChunkSize must be positive.");
+        }
+        if (builder.capacity / builder.pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many pages, increase pageSize.");
+        }
+        this.capacity = builder.capacity;
+        this.pageSize = builder.pageSize;
+        this.slabSize = builder.slabSize;
+        this.maxChunkSize = builder.maxChunkSize;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public boolean isEnabled() {
+        return capacity >= pageSize;
+    }
+
+    public static ChunkCacheConfig defaultPolicy() {
+        return builder().build();
+    }
+
+    /**
+     * Read the options from the configuration, options not given
+     * use the defaults.
+     */
+    public static ChunkCacheConfig from(ConfigLoader configLoader) {
+        return builder()
+                .setCapacity(configLoader.getSize(ConfigLoader.KEY_FILE_CACHE_SIZE,
+                        Size.ofBytes(DEFAULT_CAPACITY)))
+                .setPageSize(configLoader.getSize(ConfigLoader.KEY_FILE_CACHE_PAGE_SIZE,
+                        Size.ofBytes(DEFAULT_PAGE_SIZE)))
+                .setMaxChunkSize(configLoader.getSize(ConfigLoader.KEY_FILE_CACHE_MAX_CHUNK_SIZE,
+                        Size.ofBytes(DEFAULT_MAX_CHUNK_SIZE)))
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long capacity = DEFAULT_CAPACITY;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int slabSize = DEFAULT_SLAB_SIZE;
+        private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+
+        public Builder setCapacity(long capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder setCapacity(Size capacity) {
+            this.capacity = capacity.toBytes();
+            return this;
+        }
+
+        public Builder setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder setPageSize(Size pageSize) {
+            this.pageSize = (int) Math.min(Integer.MAX_VALUE, pageSize.toBytes());
+            return this;
+        }
+
+        public Builder setSlabSize(int slabSize) {
+            this.slabSize = slabSize;
+            return this;
+        }
+
+        public Builder setMaxChunkSize(int maxChunkSize) {
+            this.maxChunkSize = maxChunkSize;
+            return this;
+        }
+
+        public Builder setMaxChunkSize(Size maxChunkSize) {
+            this.maxChunkSize = (int) Math.min(Integer.MAX_VALUE, maxChunkSize.toBytes());
+            return this;
+        }
+
+        public ChunkCacheConfig build() {
+            return new ChunkCacheConfig(this);
+        }
+    }
+}
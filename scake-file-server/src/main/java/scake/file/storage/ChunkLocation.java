@@ -0,0 +1,76 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+/**
+ * Location of a chunk in the segment files.
+ *
+ * @author RollW
+ */
+public final class ChunkLocation {
+    private final int segmentId;
+    private final long position;
+    private final int length;
+
+    public ChunkLocation(int segmentId, long position, int length) {
+        this.segmentId = segmentId;
+        this.position = position;
+        this.length = length;
+    }
+
+    public int getSegmentId() {
+        return segmentId;
+    }
+
+    /**
+     * Position of the chunk data in the segment file.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Length of the chunk data in Bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChunkLocation)) return false;
+        ChunkLocation that = (ChunkLocation) o;
+        return segmentId == that.segmentId &&
+                position == that.position &&
+                length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * segmentId + Long.hashCode(position)) + length;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkLocation[segment=" + segmentId + ", position=" + position +
+                ", length=" + length + "]";
+    }
+}
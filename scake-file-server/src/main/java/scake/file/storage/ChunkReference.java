@@ -0,0 +1,74 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.file.chunking.ChunkFingerprint;
+
+/**
+ * Reference to a deduplicated chunk held by a file.
+ *
+ * @author RollW
+ */
+public final class ChunkReference {
+    private final ChunkFingerprint fingerprint;
+    private final long chunkId;
+    private final int length;
+
+    public ChunkReference(ChunkFingerprint fingerprint, long chunkId, int length) {
+        this.fingerprint = fingerprint;
+        this.chunkId = chunkId;
+        this.length = length;
+    }
+
+    public ChunkFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Id of the chunk in the {@link SegmentStore}.
+     */
+    public long getChunkId() {
+        return chunkId;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChunkReference)) return false;
+        ChunkReference that = (ChunkReference) o;
+        return chunkId == that.chunkId && length == that.length &&
+                fingerprint.equals(that.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * fingerprint.hashCode() + Long.hashCode(chunkId);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkReference[" + fingerprint + ", chunk=" + chunkId +
+                ", length=" + length + "]";
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scake.common.buffer.DirectBufferPool;
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies the chunks of a {@link SegmentStore} against their
+ * checksums in the background, so corruption of data at rest is
+ * found before a client reads it.
+ * <p>
+ * A pass walks the records of each segment in the order they
+ * are stored, reading one checksum block at a time. Reads are
+ * limited to the rate of the {@link ScrubPolicy}, and pause
+ * while foreground reads are slow or the disk queue is deep, so
+ * scrubbing only uses the disk time clients leave idle.
+ *
+ * @author RollW
+ */
+public class ChunkScrubber implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkScrubber.class);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    private static final long ACQUIRE_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final SegmentStore store;
+    private final ScrubPolicy policy;
+    private final ScrubListener listener;
+    private final RateLimiter rateLimiter;
+    private final DiskQueueProbe queueProbe;
+    private final Thread scrubber;
+    private final Object sleepLock = new Object();
+    private final LongAdder verifiedChunks = new LongAdder();
+    private final LongAdder verifiedBytes = new LongAdder();
+    private final LongAdder corruptChunks = new LongAdder();
+    private final LongAdder completedPasses = new LongAdder();
+    private final LongAdder backoffTime = new LongAdder();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Start scrubbing the store, unless the policy disables it.
+     */
+    public ChunkScrubber(SegmentStore store, ScrubPolicy policy,
+                         ScrubListener listener) {
+        this.store = store;
+        this.policy = policy;
+        this.listener = listener;
+        this.rateLimiter = RateLimiter.create(Math.max(policy.getRate(), 1));
+        this.queueProbe = DiskQueueProbe.of(store.getConfig().getDirectory());
+        this.scrubber = new Thread(this::runScrubber,
+                "scake-scrubber-" + THREAD_COUNTER.getAndIncrement());
+        this.scrubber.setDaemon(true);
+        if (policy.isEnabled()) {
+            this.scrubber.start();
+        }
+    }
+
+    private void runScrubber() {
+        long nextPass = System.nanoTime();
+        while (sleep(nextPass - System.nanoTime())) {
+            long start = System.nanoTime();
+            try {
+                scrubPass();
+            } catch (IOException | RuntimeException e) {
+                if (closed || store.isClosed()) {
+                    return;
+                }
+                logger.warn("Scrub pass failed, retrying in the next pass.", e);
+            }
+            nextPass = start + policy.getInterval();
+        }
+    }
+
+    private void scrubPass() throws IOException {
+        long start = System.nanoTime();
+        long chunks = 0;
+        long corrupt = 0;
+        DirectBufferPool pool = DirectBufferPool.shared();
+        for (Segment segment : store.getSegments()) {
+            int blockSize = segment.getChecksumBlockSize();
+            if (blockSize == 0) {
+                continue;
+            }
+            ByteBuffer buffer = pool.acquire(blockSize);
+            try {
+                for (Segment.Entry entry : store.copyEntries(segment)) {
+                    if (closed) {
+                        return;
+                    }
+                    if (entry.isTombstone() || !entry.hasChecksums()) {
+                        continue;
+                    }
+                    ChunkLocation location = new ChunkLocation(segment.getId(),
+                            entry.position, entry.length);
+                    if (!isCurrent(entry.chunkId, location)) {
+                        continue;
+                    }
+                    try {
+                        if (!verify(segment, entry, buffer)) {
+                            return;
+                        }
+                        chunks++;
+                        verifiedChunks.increment();
+                    } catch (ChecksumException e) {
+                        // The chunk may have been replaced since.
+                        if (isCurrent(entry.chunkId, location)) {
+                            corrupt++;
+                            reportCorrupt(entry.chunkId, location, e);
+                        }
+                    }
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+        completedPasses.increment();
+        logger.info("Scrubbed {} chunks in {}s, {} corrupt.", chunks,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), corrupt);
+        listener.onPassCompleted(chunks, corrupt);
+    }
+
+    private boolean isCurrent(long chunkId, ChunkLocation location) {
+        return location.equals(store.locate(chunkId));
+    }
+
+    /**
+     * Verify the blocks of a record one by one.
+     *
+     * @return false if the scrubber was closed meanwhile
+     */
+    private boolean verify(Segment segment, Segment.Entry entry,
+                           ByteBuffer buffer) throws IOException {
+        BlockChecksums checksums = segment.readChecksums(entry.position, entry.length);
+        int blockSize = checksums.getBlockSize();
+        for (int block = 0; block < checksums.getBlockCount(); block++) {
+            long offset = (long) block * blockSize;
+            int size = (int) Math.min(blockSize, entry.length - offset);
+            if (!awaitIdle() || !acquire(size)) {
+                return false;
+            }
+            buffer.clear().limit(size);
+            segment.read(entry.position + offset, buffer);
+            buffer.flip();
+            checksums.verify(buffer, block);
+            verifiedBytes.add(size);
+        }
+        return true;
+    }
+
+    private void reportCorrupt(long chunkId, ChunkLocation location,
+                               ChecksumException cause) {
+        corruptChunks.increment();
+        logger.error("Chunk {} at {} is corrupt: {}", chunkId, location,
+                cause.getMessage());
+        try {
+            listener.onCorruptChunk(chunkId, location, cause);
+        } catch (RuntimeException e) {
+            logger.warn("Scrub listener failed for chunk {}.", chunkId, e);
+        }
+    }
+
+    /**
+     * Wait until the disk is not busy with foreground work, backing
+     * off longer the longer it stays busy.
+     *
+     * @return false if the scrubber was closed meanwhile
+     */
+    private boolean awaitIdle() {
+        long backoff = MIN_BACKOFF;
+        while (isBusy()) {
+            long start = System.nanoTime();
+            if (!sleep(backoff)) {
+                return false;
+            }
+            backoffTime.add(System.nanoTime() - start);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+        return !closed;
+    }
+
+    private boolean isBusy() {
+        if (store.getReadLatency().getAverage() > policy.getLatencyThreshold()) {
+            return true;
+        }
+        return queueProbe.getQueueDepth() > policy.getMaxQueueDepth();
+    }
+
+    private boolean acquire(int bytes) {
+        while (!rateLimiter.tryAcquire(bytes, ACQUIRE_TIMEOUT, TimeUnit.NANOSECONDS)) {
+            if (closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sleep for the time unless closed meanwhile.
+     *
+     * @return false if closed
+     */
+    private boolean sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        synchronized (sleepLock) {
+            long remaining = nanos;
+            while (!closed && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(sleepLock, remaining);
+                } catch (InterruptedException e) {
+                    closed = true;
+                    Thread.currentThread().interrupt();
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+        return !closed;
+    }
+
+    public ScrubPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getVerifiedChunks() {
+        return verifiedChunks.sum();
+    }
+
+    public long getVerifiedBytes() {
+        return verifiedBytes.sum();
+    }
+
+    public long getCorruptChunks() {
+        return corruptChunks.sum();
+    }
+
+    public long getCompletedPasses() {
+        return completedPasses.sum();
+    }
+
+    /**
+     * Time in nanoseconds scrubbing paused for foreground work.
+     */
+    public long getBackoffTime() {
+        return backoffTime.sum();
+    }
+
+    /**
+     * Stop scrubbing, a pass in progress is abandoned. It does not
+     * close the store.
+     */
+    @Override
+    public void close() {
+        synchronized (sleepLock) {
+            closed = true;
+            sleepLock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (scrubber.isAlive()) {
+            try {
+                scrubber.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a segment file does not hold the expected layout.
+ *
+ * @author RollW
+ */
+public class CorruptSegmentException extends IOException {
+    public CorruptSegmentException(String message) {
+        super(message);
+    }
+
+    public CorruptSegmentException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.file.chunking.ChunkFingerprint;
+import scake.file.chunking.ChunkingPolicy;
+import scake.file.chunking.GearChunker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write path storing file data as deduplicated chunks.
+ * <p>
+ * A stream is cut at content-defined boundaries by a {@link GearChunker}
+ * and each chunk is fingerprinted. A chunk already in the
+ * {@link FingerprintIndex} only gets its reference count increased,
+ * others are written through the {@link GroupCommitWriter}.
+ *
+ * @author RollW
+ */
+public class DedupWriter {
+    private final GroupCommitWriter writer;
+    private final FingerprintIndex index;
+    private final GearChunker chunker;
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    public DedupWriter(GroupCommitWriter writer, FingerprintIndex index,
+                       ChunkingPolicy policy) {
+        this.writer = writer;
+        this.index = index;
+        this.chunker = new GearChunker(policy);
+    }
+
+    /**
+     * Write the stream, blocking until its chunks and the references
+     * to them are durable.
+     *
+     * @return references to the chunks of the stream in order
+     */
+    public List<ChunkReference> write(InputStream inputStream) throws IOException {
+        List<ChunkReference> references = new ArrayList<>();
+        List<CompletableFuture<ChunkLocation>> pending = new ArrayList<>();
+        try {
+            chunker.split(inputStream, (buffer, offset, length) -> {
+                ChunkFingerprint fingerprint = ChunkFingerprint.of(buffer, offset, length);
+                FingerprintIndex.Acquired acquired = index.acquire(fingerprint);
+                references.add(new ChunkReference(fingerprint,
+                        acquired.entry.chunkId, length));
+                writtenBytes.add(length);
+                if (acquired.created) {
+                    ByteBuffer data = ByteBuffer.allocate(length);
+                    data.put(buffer, offset, length).flip();
+                    store(acquired.entry, fingerprint, data);
+                    storedBytes.add(length);
+                }
+                if (acquired.entry.stored != null) {
+                    pending.add(acquired.entry.stored);
+                }
+            });
+            for (CompletableFuture<ChunkLocation> future : pending) {
+                future.join();
+            }
+            index.sync();
+        } catch (IOException | RuntimeException e) {
+            releaseQuietly(references, e);
+            if (e instanceof CompletionException && e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        return Collections.unmodifiableList(references);
+    }
+
+    private void store(FingerprintIndex.Entry entry, ChunkFingerprint fingerprint,
+                       ByteBuffer data) {
+        CompletableFuture<ChunkLocation> stored = entry.stored;
+        writer.write(entry.chunkId, data).whenComplete((location, error) -> {
+            if (error == null) {
+                stored.complete(location);
+            } else {
+                stored.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void releaseQuietly(List<ChunkReference> references, Exception cause) {
+        for (ChunkReference reference : references) {
+            try {
+                release(reference);
+            } catch (IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Drop a reference returned by {@link #write(InputStream)},
+     * deleting the chunk once it is no longer referenced.
+     */
+    public void release(ChunkReference reference) throws IOException {
+        long chunkId = index.release(reference.getFingerprint());
+        index.sync();
+        if (chunkId < 0) {
+            return;
+        }
+        try {
+            writer.delete(chunkId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Bytes of the streams written.
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    /**
+     * Bytes of new chunks stored for the streams written.
+     */
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * Ratio of the bytes written to the bytes stored, or 1 if
+     * nothing was written.
+     */
+    public double getDedupRatio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1.0 : (double) writtenBytes.sum() / stored;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reads the number of requests in flight on the block device
+ * holding a directory, from {@code /sys/class/block/<device>/inflight}
+ * on Linux.
+ *
+ * @author RollW
+ */
+final class DiskQueueProbe {
+    private static final Logger logger = LoggerFactory.getLogger(DiskQueueProbe.class);
+
+    private static final String DEVICE_PREFIX = "/dev/";
+    private static final Path SYS_BLOCK = Paths.get("/sys/class/block");
+
+    private final Path inflight;
+
+    private DiskQueueProbe(Path inflight) {
+        this.inflight = inflight;
+    }
+
+    /**
+     * Find the device of the directory. The probe reads -1 if the
+     * device is unknown, e.g. not on Linux or on a device mapper
+     * or network file system.
+     */
+    static DiskQueueProbe of(Path directory) {
+        try {
+            FileStore store = Files.getFileStore(directory);
+            String name = store.name();
+            if (name.startsWith(DEVICE_PREFIX)) {
+                Path inflight = SYS_BLOCK.resolve(
+                        name.substring(DEVICE_PREFIX.length())).resolve("inflight");
+                if (Files.isReadable(inflight)) {
+                    return new DiskQueueProbe(inflight);
+                }
+            }
+            logger.info("Disk queue depth of {} ({}) is not available.", directory, name);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to find the disk of {}.", directory, e);
+        }
+        return new DiskQueueProbe(null);
+    }
+
+    boolean isAvailable() {
+        return inflight != null;
+    }
+
+    /**
+     * Read and write requests in flight, or -1 if unknown.
+     */
+    int getQueueDepth() {
+        if (inflight == null) {
+            return -1;
+        }
+        try {
+            String[] values = new String(Files.readAllBytes(inflight),
+                    StandardCharsets.US_ASCII).trim().split("\\s+");
+            int depth = 0;
+            for (String value : values) {
+                depth += Integer.parseInt(value);
+            }
+            return depth;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+}
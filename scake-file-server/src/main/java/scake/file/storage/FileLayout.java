@@ -0,0 +1,134 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Layout of a file as a sequence of chunks, resolving ranges of
+ * the file to the chunks holding them.
+ *
+ * @author RollW
+ */
+public final class FileLayout {
+    private final long[] chunkIds;
+    // Offset of each chunk in the file, and the file length last.
+    private final long[] offsets;
+
+    private FileLayout(long[] chunkIds, long[] offsets) {
+        this.chunkIds = chunkIds;
+        this.offsets = offsets;
+    }
+
+    public static FileLayout of(List<ChunkReference> chunks) {
+        long[] chunkIds = new long[chunks.size()];
+        long[] offsets = new long[chunks.size() + 1];
+        for (int i = 0; i < chunkIds.length; i++) {
+            ChunkReference chunk = chunks.get(i);
+            chunkIds[i] = chunk.getChunkId();
+            offsets[i + 1] = offsets[i] + chunk.getLength();
+        }
+        return new FileLayout(chunkIds, offsets);
+    }
+
+    public long getLength() {
+        return offsets[chunkIds.length];
+    }
+
+    public int getChunkCount() {
+        return chunkIds.length;
+    }
+
+    /**
+     * Resolve a range of the file to slices of its chunks, in the
+     * order of the file.
+     *
+     * @throws IndexOutOfBoundsException if the range exceeds the file
+     */
+    public List<Slice> resolve(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > getLength()) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " +
+                    (offset + length) + ") exceeds file length " + getLength());
+        }
+        List<Slice> slices = new ArrayList<>();
+        if (length == 0) {
+            return slices;
+        }
+        int index = Arrays.binarySearch(offsets, 0, chunkIds.length, offset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        long end = offset + length;
+        long position = offset;
+        // Empty chunks share the offset of the next one and are skipped.
+        while (position < end) {
+            long chunkEnd = offsets[index + 1];
+            if (chunkEnd > position) {
+                int sliceLength = (int) (Math.min(end, chunkEnd) - position);
+                slices.add(new Slice(position, chunkIds[index],
+                        (int) (position - offsets[index]), sliceLength));
+                position += sliceLength;
+            }
+            index++;
+        }
+        return slices;
+    }
+
+    /**
+     * A range of a chunk holding a range of the file.
+     */
+    public static final class Slice {
+        private final long fileOffset;
+        private final long chunkId;
+        private final int chunkOffset;
+        private final int length;
+
+        Slice(long fileOffset, long chunkId, int chunkOffset, int length) {
+            this.fileOffset = fileOffset;
+            this.chunkId = chunkId;
+            this.chunkOffset = chunkOffset;
+            this.length = length;
+        }
+
+        public long getFileOffset() {
+            return fileOffset;
+        }
+
+        public long getChunkId() {
+            return chunkId;
+        }
+
+        public int getChunkOffset() {
+            return chunkOffset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "Slice[file offset=" + fileOffset + ", chunk=" + chunkId +
+                    ", chunk offset=" + chunkOffset + ", length=" + length + "]";
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scake.file.chunking.ChunkFingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps chunk fingerprints to stored chunks and counts the references
+ * to each, so a duplicate chunk is stored once.
+ * <p>
+ * Every change of an entry is appended to a journal as the new
+ * reference count of the entry, replayed on {@link #open open}.
+ * The journal is compacted on open once most of its records are
+ * outdated.
+ *
+ * @author RollW
+ */
+public class FingerprintIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FingerprintIndex.class);
+
+    // [fingerprint 32][chunk id 8][references 4]
+    private static final int RECORD_SIZE = ChunkFingerprint.SIZE + 12;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final Path path;
+    private final Map<ChunkFingerprint, Entry> entries;
+    private final Object journalLock = new Object();
+    private final Object syncLock = new Object();
+    private FileChannel journal;
+    private long journalSize;
+    private long journalRecords;
+    private long nextChunkId;
+    private volatile long syncedSize;
+
+    private FingerprintIndex(Path path, Map<ChunkFingerprint, Entry> entries,
+                             long nextChunkId) {
+        this.path = path;
+        this.entries = entries;
+        this.nextChunkId = nextChunkId;
+    }
+
+    /**
+     * Open the index journaled in the file, creating it if it does
+     * not exist. Entries of chunks missing in the store, e.g. lost
+     * in a crash before they were synced, are dropped.
+     */
+    public static FingerprintIndex open(Path path, SegmentStore store) throws IOException {
+        Map<ChunkFingerprint, Entry> entries = new ConcurrentHashMap<>();
+        long records = 0;
+        long maxChunkId = -1;
+        long validSize = 0;
+        if (Files.exists(path)) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(path)))) {
+                byte[] bytes = new byte[RECORD_SIZE];
+                ByteBuffer record = ByteBuffer.wrap(bytes);
+                while (true) {
+                    try {
+                        input.readFully(bytes);
+                    } catch (EOFException e) {
+                        // The end, or an incomplete record left by a crash.
+                        break;
+                    }
+                    record.clear();
+                    ChunkFingerprint fingerprint = ChunkFingerprint.read(record);
+                    long chunkId = record.getLong();
+                    int references = record.getInt();
+                    if (references > 0) {
+                        entries.put(fingerprint, new Entry(chunkId, references));
+                    } else {
+                        entries.remove(fingerprint);
+                    }
+                    maxChunkId = Math.max(maxChunkId, chunkId);
+                    validSize += RECORD_SIZE;
+                    records++;
+                }
+            }
+        }
+        entries.values().removeIf(entry -> !store.contains(entry.chunkId));
+        FingerprintIndex index = new FingerprintIndex(path, entries, maxChunkId + 1);
+        if (records > COMPACT_MIN_RECORDS && records > 2L * entries.size()) {
+            index.compact();
+        } else {
+            index.openJournal(validSize, records);
+        }
+        logger.info("Opened fingerprint index {} with {} chunks.", path, entries.size());
+        return index;
+    }
+
+    private void openJournal(long size, long records) throws IOException {
+        journal = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.truncate(size);
+        journalSize = size;
+        journalRecords = records;
+        syncedSize = size;
+    }
+
+    private void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+            for (Map.Entry<ChunkFingerprint, Entry> entry : entries.entrySet()) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+                putRecord(buffer, entry.getKey(), entry.getValue().chunkId,
+                        entry.getValue().references);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        openJournal((long) entries.size() * RECORD_SIZE, entries.size());
+    }
+
+    /**
+     * Take a reference to the chunk with the fingerprint, creating
+     * an entry with a new chunk id if there is none. The creator
+     * must store the chunk and complete the {@link Entry#stored}
+     * future of the entry.
+     */
+    Acquired acquire(ChunkFingerprint fingerprint) throws IOException {
+        boolean[] created = {false};
+        IOException[] failure = {null};
+        Entry entry = entries.compute(fingerprint, (key, current) -> {
+            Entry next;
+            if (current == null) {
+                next = new Entry(allocateChunkId(), 1);
+                next.stored = new CompletableFuture<>();
+                created[0] = true;
+            } else {
+                current.references++;
+                next = current;
+            }
+            try {
+                // Journaled while holding the entry, so records of
+                // the same entry are in order.
+                append(key, next.chunkId, next.references);
+            } catch (IOException e) {
+                failure[0] = e;
+                return rollback(current, next);
+            }
+            return next;
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return new Acquired(entry, created[0]);
+    }
+
+    private static Entry rollback(Entry current, Entry next) {
+        if (current == null) {
+            return null;
+        }
+        next.references--;
+        return next;
+    }
+
+    private long allocateChunkId() {
+        synchronized (journalLock) {
+            return nextChunkId++;
+        }
+    }
+
+    /**
+     * Drop a reference to the chunk with the fingerprint.
+     *
+     * @return the id of the chunk if it is no longer referenced and
+     * should be deleted, or -1
+     */
+    long release(ChunkFingerprint fingerprint) throws IOException {
+        long[] unreferenced = {-1};
+        IOException[] failure = {null};
+        entries.computeIfPresent(fingerprint, (key, current) -> {
+            int references = current.references - 1;
+            try {
+                append(key, current.chunkId, references);
+            } catch (IOException e) {
+                failure[0] = e;
+                return current;
+            }
+            current.references = references;
+            if (references > 0) {
+                return current;
+            }
+            unreferenced[0] = current.chunkId;
+            return null;
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return unreferenced[0];
+    }
+
+    private void append(ChunkFingerprint fingerprint, long chunkId,
+                        int references) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        putRecord(record, fingerprint, chunkId, references);
+        record.flip();
+        synchronized (journalLock) {
+            long position = journalSize;
+            while (record.hasRemaining()) {
+                position += journal.write(record, position);
+            }
+            journalSize = position;
+            journalRecords++;
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, ChunkFingerprint fingerprint,
+                                  long chunkId, int references) {
+        fingerprint.writeTo(buffer);
+        buffer.putLong(chunkId).putInt(references);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Make the changes journaled so far durable. Concurrent callers
+     * share a sync when their changes are covered by it.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (journalLock) {
+            target = journalSize;
+        }
+        if (syncedSize >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSize >= target) {
+                return;
+            }
+            long size;
+            synchronized (journalLock) {
+                size = journalSize;
+            }
+            journal.force(false);
+            syncedSize = size;
+        }
+    }
+
+    /**
+     * Get the id of the chunk with the fingerprint, or -1.
+     */
+    public long getChunkId(ChunkFingerprint fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        return entry == null ? -1 : entry.chunkId;
+    }
+
+    public int getChunkCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get the reference counts of the chunks, for inspection.
+     */
+    public Map<Long, Integer> getReferenceCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        entries.forEach((fingerprint, entry) -> counts.put(entry.chunkId, entry.references));
+        return counts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            journal.force(false);
+            journal.close();
+        }
+    }
+
+    static final class Entry {
+        final long chunkId;
+        // Guarded by the map entry.
+        int references;
+        /**
+         * Completed once the chunk is stored, null for entries
+         * replayed from the journal.
+         */
+        volatile CompletableFuture<ChunkLocation> stored;
+
+        Entry(long chunkId, int references) {
+            this.chunkId = chunkId;
+            this.references = references;
+        }
+    }
+
+    static final class Acquired {
+        final Entry entry;
+        final boolean created;
+
+        Acquired(Entry entry, boolean created) {
+            this.entry = entry;
+            this.created = created;
+        }
+    }
+}
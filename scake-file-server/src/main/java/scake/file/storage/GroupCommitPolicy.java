@@ -0,0 +1,135 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.Size;
+import scake.common.server.ConfigLoader;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds of the groups of writes synced together by
+ * a {@link GroupCommitWriter}.
+ *
+ * @author RollW
+ */
+public class GroupCommitPolicy {
+    public static final int DEFAULT_MAX_GROUP_SIZE = 256;
+    public static final long DEFAULT_MAX_GROUP_BYTES = 4L * 1024 * 1024;
+    public static final long DEFAULT_MAX_DELAY = 0;
+
+    /**
+     * Number of writes after which a group is synced without
+     * waiting any longer.
+     */
+    private final int maxGroupSize;
+
+    /**
+     * Bytes written after which a group is synced without
+     * waiting any longer.
+     */
+    private final long maxGroupBytes;
+
+    /**
+     * Time in nanoseconds the first write of a group may wait for
+     * more writes to join it. Zero syncs as soon as the previous
+     * sync is done, writes arriving during a sync still join the
+     * next group.
+     */
+    private final long maxDelay;
+
+    private GroupCommitPolicy(Builder builder) {
+        if (builder.maxGroupSize <= 0 || builder.maxGroupBytes <= 0) {
+            throw new IllegalArgumentException("Group bounds must be positive.");
+        }
+        if (builder.maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative.");
+        }
+        this.maxGroupSize = builder.maxGroupSize;
+        this.maxGroupBytes = builder.maxGroupBytes;
+        this.maxDelay = builder.maxDelay;
+    }
+
+    public int getMaxGroupSize() {
+        return maxGroupSize;
+    }
+
+    public long getMaxGroupBytes() {
+        return maxGroupBytes;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public static GroupCommitPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    /**
+     * Read the bounds from the configuration, bounds not given
+     * use the defaults.
+     */
+    public static GroupCommitPolicy from(ConfigLoader configLoader) {
+        return builder()
+                .setMaxGroupSize(configLoader.getInt(ConfigLoader.KEY_FILE_WRITE_GROUP_SIZE,
+                        DEFAULT_MAX_GROUP_SIZE))
+                .setMaxGroupBytes(configLoader.getSize(ConfigLoader.KEY_FILE_WRITE_GROUP_BYTES,
+                        Size.ofBytes(DEFAULT_MAX_GROUP_BYTES)))
+                .setMaxDelay(configLoader.getDuration(ConfigLoader.KEY_FILE_WRITE_GROUP_DELAY,
+                        Duration.ofNanos(DEFAULT_MAX_DELAY)).toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int maxGroupSize = DEFAULT_MAX_GROUP_SIZE;
+        private long maxGroupBytes = DEFAULT_MAX_GROUP_BYTES;
+        private long maxDelay = DEFAULT_MAX_DELAY;
+
+        public Builder setMaxGroupSize(int maxGroupSize) {
+            this.maxGroupSize = maxGroupSize;
+            return this;
+        }
+
+        public Builder setMaxGroupBytes(long maxGroupBytes) {
+            this.maxGroupBytes = maxGroupBytes;
+            return this;
+        }
+
+        public Builder setMaxGroupBytes(Size maxGroupBytes) {
+            this.maxGroupBytes = maxGroupBytes.toBytes();
+            return this;
+        }
+
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            this.maxDelay = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        public GroupCommitPolicy build() {
+            return new GroupCommitPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes writes to a {@link SegmentStore} durable in groups.
+ * <p>
+ * Writers append to the store right away and wait on a future,
+ * while a flusher thread syncs the store once for each group of
+ * appended writes and completes their futures together. A future
+ * completes only after its write is on the device, as if the writer
+ * had synced itself, but concurrent writers share one sync.
+ * <p>
+ * Futures are completed on the flusher thread, dependent actions
+ * that block or take long should run on another executor.
+ *
+ * @author RollW
+ */
+public class GroupCommitWriter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final SegmentStore store;
+    private final GroupCommitPolicy policy;
+    private final Thread flusher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private final LongAdder groupCount = new LongAdder();
+    private final LongAdder syncedCount = new LongAdder();
+
+    private List<Pending<?>> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+    private long firstPendingTime = 0;
+    private IOException syncFailure;
+    private boolean closed = false;
+
+    public GroupCommitWriter(SegmentStore store, GroupCommitPolicy policy) {
+        this.store = store;
+        this.policy = policy;
+        this.flusher = new Thread(this::runFlusher,
+                "scake-group-commit-" + THREAD_COUNTER.getAndIncrement());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Write a chunk, see {@link SegmentStore#put(long, ByteBuffer)}.
+     *
+     * @return a future completed with the location of the chunk once
+     * it is durable
+     */
+    public CompletableFuture<ChunkLocation> write(long chunkId, ByteBuffer data) {
+        CompletableFuture<ChunkLocation> future = new CompletableFuture<>();
+        int length = data.remaining();
+        ChunkLocation location;
+        try {
+            checkWritable();
+            location = store.put(chunkId, data);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        enqueue(new Pending<>(future, location), length);
+        return future;
+    }
+
+    /**
+     * Delete a chunk, see {@link SegmentStore#delete(long)}.
+     *
+     * @return a future completed with false if there is no such
+     * chunk, or true once the delete is durable
+     */
+    public CompletableFuture<Boolean> delete(long chunkId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            checkWritable();
+            if (!store.delete(chunkId)) {
+                future.complete(false);
+                return future;
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        enqueue(new Pending<>(future, true), 0);
+        return future;
+    }
+
+    private void checkWritable() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed.");
+            }
+            if (syncFailure != null) {
+                throw new IOException("A previous sync failed.", syncFailure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Pending<?> write, int length) {
+        lock.lock();
+        try {
+            if (closed || syncFailure != null) {
+                // Closed or failed after the append, the write is not
+                // known to be durable.
+                write.fail(syncFailure != null ? syncFailure
+                        : new IllegalStateException("Writer is closed."));
+                return;
+            }
+            if (pending.isEmpty()) {
+                firstPendingTime = System.nanoTime();
+                pendingChanged.signal();
+            }
+            pending.add(write);
+            pendingBytes += length;
+            if (isGroupFull()) {
+                pendingChanged.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isGroupFull() {
+        return pending.size() >= policy.getMaxGroupSize() ||
+                pendingBytes >= policy.getMaxGroupBytes();
+    }
+
+    private void runFlusher() {
+        while (true) {
+            List<Pending<?>> group;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    pendingChanged.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                long deadline = firstPendingTime + policy.getMaxDelay();
+                long waitTime;
+                while (!closed && !isGroupFull() &&
+                        (waitTime = deadline - System.nanoTime()) > 0) {
+                    try {
+                        pendingChanged.awaitNanos(waitTime);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                group = pending;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+            flush(group);
+        }
+    }
+
+    private void flush(List<Pending<?>> group) {
+        // Every write of the group was appended before it was queued,
+        // so one sync covers all of them.
+        try {
+            store.sync();
+        } catch (IOException | RuntimeException e) {
+            IOException failure = e instanceof IOException
+                    ? (IOException) e : new IOException(e);
+            logger.error("Sync of the segment store failed, rejecting further writes.", e);
+            lock.lock();
+            try {
+                // After a failed sync the state of the written pages
+                // is unknown, so later syncs can not be trusted either.
+                syncFailure = failure;
+                group.addAll(pending);
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+            for (Pending<?> write : group) {
+                write.fail(failure);
+            }
+            return;
+        }
+        groupCount.increment();
+        syncedCount.add(group.size());
+        for (Pending<?> write : group) {
+            write.complete();
+        }
+    }
+
+    /**
+     * Number of syncs issued for groups.
+     */
+    public long getGroupCount() {
+        return groupCount.sum();
+    }
+
+    /**
+     * Number of writes made durable.
+     */
+    public long getSyncedCount() {
+        return syncedCount.sum();
+    }
+
+    public GroupCommitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sync the writes already made and stop the flusher. It does
+     * not close the store.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Pending<T> {
+        private final CompletableFuture<T> future;
+        private final T result;
+
+        Pending(CompletableFuture<T> future, T result) {
+            this.future = future;
+            this.result = result;
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+
+        void fail(Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
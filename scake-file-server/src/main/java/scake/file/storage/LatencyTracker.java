@@ -0,0 +1,63 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moving average of the latency of recent operations. The average
+ * of operations that stopped a while ago is not recent and reads
+ * as zero.
+ *
+ * @author RollW
+ */
+final class LatencyTracker {
+    private static final long IDLE_TIME = TimeUnit.SECONDS.toNanos(1);
+    // Weight of a new sample is 1 / 2^WEIGHT_SHIFT.
+    private static final int WEIGHT_SHIFT = 3;
+
+    private final AtomicLong average = new AtomicLong();
+    private volatile long lastRecordTime = System.nanoTime() - IDLE_TIME;
+
+    void record(long latency) {
+        long now = System.nanoTime();
+        boolean idle = now - lastRecordTime >= IDLE_TIME;
+        lastRecordTime = now;
+        long current;
+        long next;
+        do {
+            current = average.get();
+            next = idle ? latency
+                    : current + ((latency - current) >> WEIGHT_SHIFT);
+        } while (!average.compareAndSet(current, next));
+    }
+
+    /**
+     * Average latency in nanoseconds, or zero if there were no
+     * recent operations.
+     */
+    long getAverage() {
+        if (System.nanoTime() - lastRecordTime >= IDLE_TIME) {
+            return 0;
+        }
+        return average.get();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.checksum.ChecksumException;
+
+/**
+ * Receives the findings of a {@link ChunkScrubber}, e.g. to have
+ * corrupt chunks replicated again from other servers.
+ * <p>
+ * Called on the scrubber thread, it should hand off work that
+ * takes long.
+ *
+ * @author RollW
+ */
+public interface ScrubListener {
+    /**
+     * Called for a stored chunk whose data does not match its
+     * checksums. The chunk stays in the store until it is
+     * replaced or deleted.
+     */
+    void onCorruptChunk(long chunkId, ChunkLocation location,
+                        ChecksumException cause);
+
+    /**
+     * Called after a pass over all chunks.
+     *
+     * @param chunks  chunks verified in the pass
+     * @param corrupt corrupt chunks found in the pass
+     */
+    default void onPassCompleted(long chunks, long corrupt) {
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.Size;
+import scake.common.server.ConfigLoader;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pace of the background verification by a {@link ChunkScrubber}.
+ *
+ * @author RollW
+ */
+public class ScrubPolicy {
+    public static final long DEFAULT_RATE = 16L * 1024 * 1024;
+    public static final long DEFAULT_INTERVAL = TimeUnit.DAYS.toNanos(7);
+    public static final long DEFAULT_LATENCY_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(20);
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 4;
+
+    /**
+     * Bytes read per second at most. Zero disables scrubbing.
+     */
+    private final long rate;
+
+    /**
+     * Time in nanoseconds from the start of a pass over all chunks
+     * to the start of the next one.
+     */
+    private final long interval;
+
+    /**
+     * Average latency in nanoseconds of foreground reads from the
+     * files above which scrubbing backs off.
+     */
+    private final long latencyThreshold;
+
+    /**
+     * Requests in flight on the disk above which scrubbing backs
+     * off, if the queue depth of the disk can be read.
+     */
+    private final int maxQueueDepth;
+
+    private ScrubPolicy(Builder builder) {
+        if (builder.rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative.");
+        }
+        if (builder.interval < 0 || builder.latencyThreshold <= 0) {
+            throw new IllegalArgumentException("Durations must be positive.");
+        }
+        if (builder.maxQueueDepth <= 0) {
+            throw new IllegalArgumentException("maxQueueDepth must be positive.");
+        }
+        this.rate = builder.rate;
+        this.interval = builder.interval;
+        this.latencyThreshold = builder.latencyThreshold;
+        this.maxQueueDepth = builder.maxQueueDepth;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    public static ScrubPolicy defaultPolicy() {
+        return builder().build();
+    }
+
+    /**
+     * Read the policy from the configuration, values not given
+     * use the defaults.
+     */
+    public static ScrubPolicy from(ConfigLoader configLoader) {
+        return builder()
+                .setRate(configLoader.getSize(ConfigLoader.KEY_FILE_SCRUB_RATE,
+                        Size.ofBytes(DEFAULT_RATE)))
+                .setInterval(configLoader.getDuration(ConfigLoader.KEY_FILE_SCRUB_INTERVAL,
+                        Duration.ofNanos(DEFAULT_INTERVAL)).toNanos(), TimeUnit.NANOSECONDS)
+                .setLatencyThreshold(configLoader.getDuration(ConfigLoader.KEY_FILE_SCRUB_LATENCY_THRESHOLD,
+                        Duration.ofNanos(DEFAULT_LATENCY_THRESHOLD)).toNanos(), TimeUnit.NANOSECONDS)
+                .setMaxQueueDepth(configLoader.getInt(ConfigLoader.KEY_FILE_SCRUB_QUEUE_DEPTH,
+                        DEFAULT_MAX_QUEUE_DEPTH))
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long rate = DEFAULT_RATE;
+        private long interval = DEFAULT_INTERVAL;
+        private long latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+        private int maxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+
+        /**
+         * Set the bytes read per second.
+         */
+        public Builder setRate(Size rate) {
+            this.rate = rate.toBytes();
+            return this;
+        }
+
+        public Builder setRate(long rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        public Builder setInterval(long interval, TimeUnit unit) {
+            this.interval = unit.toNanos(interval);
+            return this;
+        }
+
+        public Builder setLatencyThreshold(long latencyThreshold, TimeUnit unit) {
+            this.latencyThreshold = unit.toNanos(latencyThreshold);
+            return this;
+        }
+
+        public Builder setMaxQueueDepth(int maxQueueDepth) {
+            this.maxQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        public ScrubPolicy build() {
+            return new ScrubPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+import scake.common.checksum.Crc32c;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-only segment file holding the records of many chunks.
+ * <p>
+ * Appends are serialized by the {@link SegmentStore}, reads use
+ * positional I/O and may run concurrently with appends and with
+ * each other.
+ *
+ * @author RollW
+ */
+final class Segment implements Closeable {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final int checksumBlockSize;
+    private final List<Entry> entries;
+    private final ByteBuffer recordHeader =
+            ByteBuffer.allocateDirect(SegmentFormat.RECORD_HEADER_SIZE);
+    private final Object syncLock = new Object();
+    private long writePosition;
+    private volatile int recordCount;
+    // Records made durable by the last sync, and the count last
+    // written to the header, guarded by the sync lock.
+    private int syncedRecords;
+    private int writtenSyncedRecords;
+    private volatile boolean sealed;
+
+    private Segment(int id, Path path, FileChannel channel, int checksumBlockSize,
+                    List<Entry> entries, long writePosition, boolean sealed) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.checksumBlockSize = checksumBlockSize;
+        this.entries = entries;
+        this.writePosition = writePosition;
+        this.recordCount = entries.size();
+        this.writtenSyncedRecords = -1;
+        this.sealed = sealed;
+    }
+
+    /**
+     * Create a new empty segment file.
+     *
+     * @param checksumBlockSize block size of the checksums of the
+     *                          records, or zero to store none
+     */
+    static Segment create(Path path, int id, long size, boolean preallocate,
+                          int checksumBlockSize) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+            header.putLong(SegmentFormat.FILE_MAGIC)
+                    .putInt(SegmentFormat.VERSION)
+                    .putInt(id)
+                    .putLong(System.currentTimeMillis())
+                    .putInt(checksumBlockSize)
+                    .putInt(0)
+                    .flip();
+            writeFully(channel, header, 0);
+            if (preallocate) {
+                // Extending the file up front keeps its size fixed while
+                // appending, so a data-only force() is enough to sync.
+                writeFully(channel, ByteBuffer.allocate(1), size - 1);
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new Segment(id, path, channel, checksumBlockSize, new ArrayList<>(),
+                SegmentFormat.HEADER_SIZE, false);
+    }
+
+    /**
+     * Open an existing segment file. A sealed segment is indexed
+     * from its footer, an unsealed one by scanning its records up
+     * to the first incomplete one. The data of every record of an
+     * unsealed segment after its synced records is verified, as a
+     * crash may have left the header of a record on the device but
+     * not all of its data, and the records from the first one that
+     * fails on are dropped.
+     */
+    static Segment open(Path path, int expectedId) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < SegmentFormat.HEADER_SIZE) {
+                throw new CorruptSegmentException("Segment file too short: " + path);
+            }
+            ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            long magic = header.getLong();
+            int version = header.getInt();
+            int id = header.getInt();
+            header.getLong();
+            int checksumBlockSize = header.getInt();
+            int syncedRecords = header.getInt();
+            if (magic != SegmentFormat.FILE_MAGIC) {
+                throw new CorruptSegmentException("Not a segment file: " + path);
+            }
+            if (version != SegmentFormat.VERSION) {
+                throw new CorruptSegmentException("Unsupported segment version " +
+                        version + ": " + path);
+            }
+            if (id != expectedId) {
+                throw new CorruptSegmentException("Segment id " + id +
+                        " does not match file name: " + path);
+            }
+            if (checksumBlockSize != 0 && !BlockChecksums.isValidBlockSize(checksumBlockSize)) {
+                throw new CorruptSegmentException("Invalid checksum block size " +
+                        checksumBlockSize + ": " + path);
+            }
+            if (syncedRecords < 0) {
+                throw new CorruptSegmentException("Invalid synced record count " +
+                        syncedRecords + ": " + path);
+            }
+            List<Entry> entries = readFooter(channel, fileSize);
+            if (entries != null) {
+                return new Segment(id, path, channel, checksumBlockSize,
+                        entries, -1, true);
+            }
+            entries = new ArrayList<>();
+            long end = scan(channel, fileSize, checksumBlockSize, entries);
+            Segment segment = new Segment(id, path, channel, checksumBlockSize,
+                    entries, end, false);
+            segment.dropTornRecords(syncedRecords);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static List<Entry> readFooter(FileChannel channel, long fileSize)
+            throws IOException {
+        if (fileSize < SegmentFormat.HEADER_SIZE + SegmentFormat.TRAILER_SIZE) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(SegmentFormat.TRAILER_SIZE);
+        readFully(channel, trailer, fileSize - SegmentFormat.TRAILER_SIZE);
+        trailer.flip();
+        int count = trailer.getInt();
+        long footerPosition = trailer.getLong();
+        if (trailer.getLong() != SegmentFormat.FOOTER_MAGIC) {
+            return null;
+        }
+        long footerSize = (long) count * SegmentFormat.FOOTER_ENTRY_SIZE;
+        if (count < 0 || footerPosition < SegmentFormat.HEADER_SIZE ||
+                footerPosition + footerSize + SegmentFormat.TRAILER_SIZE != fileSize) {
+            throw new CorruptSegmentException("Invalid segment footer.");
+        }
+        ByteBuffer footer = ByteBuffer.allocate((int) footerSize);
+        readFully(channel, footer, footerPosition);
+        footer.flip();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long chunkId = footer.getLong();
+            long position = footer.getLong();
+            int length = footer.getInt();
+            byte flags = footer.get();
+            entries.add(new Entry(chunkId, position, length, flags));
+        }
+        return entries;
+    }
+
+    private static long scan(FileChannel channel, long fileSize, int checksumBlockSize,
+                             List<Entry> entries) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SegmentFormat.RECORD_HEADER_SIZE);
+        long position = SegmentFormat.HEADER_SIZE;
+        while (position + SegmentFormat.RECORD_HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            if (header.getInt() != SegmentFormat.RECORD_MAGIC ||
+                    !hasValidHeaderChecksum(header)) {
+                break;
+            }
+            byte flags = header.get();
+            long chunkId = header.getLong();
+            int length = header.getInt();
+            if (length < 0) {
+                break;
+            }
+            long dataPosition = position + SegmentFormat.RECORD_HEADER_SIZE;
+            if ((flags & SegmentFormat.FLAG_CHECKSUMS) != 0) {
+                dataPosition += SegmentFormat.checksumTableSize(length, checksumBlockSize);
+            }
+            if (dataPosition + length > fileSize) {
+                break;
+            }
+            entries.add(new Entry(chunkId, dataPosition, length, flags));
+            position = dataPosition + length;
+        }
+        return position;
+    }
+
+    private void dropTornRecords(int syncedRecords) throws IOException {
+        for (int i = Math.min(syncedRecords, entries.size()); i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            try {
+                readVerified(entry.position, entry.length);
+            } catch (ChecksumException e) {
+                // Records are synced in order, none after a torn one
+                // was synced either.
+                writePosition = entry.position - SegmentFormat.RECORD_HEADER_SIZE -
+                        SegmentFormat.checksumTableSize(entry.length, checksumBlockSize);
+                entries.subList(i, entries.size()).clear();
+                recordCount = i;
+                return;
+            }
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Block size of the checksums of the records, zero if the records
+     * have none.
+     */
+    int getChecksumBlockSize() {
+        return checksumBlockSize;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Entries of the records in the order they were appended.
+     */
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    boolean hasRoom(int length, long segmentSize) {
+        return writePosition + SegmentFormat.RECORD_HEADER_SIZE +
+                SegmentFormat.checksumTableSize(length, checksumBlockSize) +
+                length <= segmentSize;
+    }
+
+    /**
+     * Append a record, returning the position of its data.
+     *
+     * @param checksums checksums of the data in the block size of
+     *                  the segment, computed if null
+     */
+    long append(long chunkId, byte flags, ByteBuffer data,
+                BlockChecksums checksums) throws IOException {
+        checkWritable();
+        int length = data.remaining();
+        ByteBuffer table = EMPTY;
+        int checksum;
+        if (checksumBlockSize > 0 && (flags & SegmentFormat.FLAG_TOMBSTONE) == 0) {
+            if (checksums == null) {
+                checksums = BlockChecksums.compute(data, checksumBlockSize);
+            }
+            table = ByteBuffer.allocate(checksums.getBlockCount() * 4);
+            for (int i = 0; i < checksums.getBlockCount(); i++) {
+                table.putInt(checksums.getBlockChecksum(i));
+            }
+            table.flip();
+            checksum = checksums.getChecksum();
+            flags |= SegmentFormat.FLAG_CHECKSUMS;
+        } else {
+            checksum = Crc32c.compute(data);
+        }
+        recordHeader.clear();
+        recordHeader.putInt(SegmentFormat.RECORD_MAGIC)
+                .put(flags)
+                .putLong(chunkId)
+                .putInt(length)
+                .putInt(checksum);
+        recordHeader.flip();
+        int headerChecksum = Crc32c.compute(recordHeader);
+        recordHeader.limit(SegmentFormat.RECORD_HEADER_SIZE);
+        recordHeader.putInt(SegmentFormat.RECORD_HEADER_CHECKED_SIZE, headerChecksum);
+        long position = writePosition;
+        // Only the appending thread moves the channel position,
+        // readers use positional reads.
+        channel.position(position);
+        ByteBuffer[] sources = {recordHeader, table, data};
+        long total = SegmentFormat.RECORD_HEADER_SIZE + table.remaining() + (long) length;
+        long written = 0;
+        while (written < total) {
+            written += channel.write(sources);
+        }
+        long dataPosition = position + SegmentFormat.RECORD_HEADER_SIZE + table.limit();
+        entries.add(new Entry(chunkId, dataPosition, length, flags));
+        recordCount = entries.size();
+        writePosition = dataPosition + length;
+        return dataPosition;
+    }
+
+    /**
+     * Drop whatever follows the last complete record of a recovered
+     * segment, so a torn record is never taken for a valid one once
+     * new records are appended over it.
+     */
+    void discardTail(long segmentSize, boolean preallocate) throws IOException {
+        checkWritable();
+        channel.truncate(writePosition);
+        if (preallocate && segmentSize > writePosition) {
+            writeFully(channel, ByteBuffer.allocate(1), segmentSize - 1);
+        }
+        synchronized (syncLock) {
+            syncedRecords = recordCount;
+            writeSyncedRecords();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Read bytes at the position into the buffer until it is full.
+     */
+    void read(long position, ByteBuffer dst) throws IOException {
+        readFully(channel, dst, position);
+    }
+
+    /**
+     * Read the checksums stored with the data of a record, verified
+     * against the checksum in the header of the record.
+     *
+     * @return the checksums, or null if the segment stores none
+     * @throws ChecksumException if the header or the checksums
+     *                           are corrupt
+     */
+    BlockChecksums readChecksums(long position, int length) throws IOException {
+        if (checksumBlockSize == 0) {
+            return null;
+        }
+        int tableSize = SegmentFormat.checksumTableSize(length, checksumBlockSize);
+        ByteBuffer record = ByteBuffer.allocate(SegmentFormat.RECORD_HEADER_SIZE + tableSize);
+        readFully(channel, record, position - tableSize - SegmentFormat.RECORD_HEADER_SIZE);
+        record.flip();
+        return readTable(record, position, length);
+    }
+
+    /**
+     * Read the data of a record with its header and checksums in one
+     * read, and verify all of them.
+     *
+     * @return the data in a heap buffer
+     * @throws ChecksumException if the record is corrupt
+     */
+    ByteBuffer readVerified(long position, int length) throws IOException {
+        int tableSize = SegmentFormat.checksumTableSize(length, checksumBlockSize);
+        int prefix = SegmentFormat.RECORD_HEADER_SIZE + tableSize;
+        ByteBuffer record = ByteBuffer.allocate(prefix + length);
+        readFully(channel, record, position - prefix);
+        record.flip();
+        record.limit(prefix);
+        ByteBuffer header = record.duplicate();
+        BlockChecksums checksums = readTable(record, position, length);
+        record.limit(record.capacity());
+        ByteBuffer data = record.slice();
+        if (checksums != null) {
+            checksums.verify(data);
+        } else {
+            verifyData(header, data, position);
+        }
+        return data;
+    }
+
+    /**
+     * Read the data of a record into the remaining space of the
+     * buffer, and verify it against its header and checksums.
+     *
+     * @throws ChecksumException if the record is corrupt
+     */
+    void readVerified(long position, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        BlockChecksums checksums = readChecksums(position, length);
+        ByteBuffer header = null;
+        if (checksums == null) {
+            header = ByteBuffer.allocate(SegmentFormat.RECORD_HEADER_SIZE);
+            readFully(channel, header, position - SegmentFormat.RECORD_HEADER_SIZE);
+            header.flip();
+            checkHeader(header.duplicate(), position, length);
+        }
+        ByteBuffer data = dst.duplicate();
+        readFully(channel, dst, position);
+        data.limit(dst.position());
+        if (checksums != null) {
+            checksums.verify(data);
+        } else {
+            verifyData(header, data, position);
+        }
+    }
+
+    /**
+     * Check the record header at the position of the buffer and read
+     * the checksum table following it, moving the position past both.
+     *
+     * @return the checksums, or null if the record has none
+     */
+    private BlockChecksums readTable(ByteBuffer record, long position,
+                                     int length) throws ChecksumException {
+        byte flags = checkHeader(record.duplicate(), position, length);
+        int checksum = record.getInt(record.position() + SegmentFormat.RECORD_HEADER_CHECKED_SIZE - 4);
+        record.position(record.position() + SegmentFormat.RECORD_HEADER_SIZE);
+        if ((flags & SegmentFormat.FLAG_CHECKSUMS) == 0) {
+            return null;
+        }
+        int[] checksums = new int[record.remaining() / 4];
+        for (int i = 0; i < checksums.length; i++) {
+            checksums[i] = record.getInt();
+        }
+        BlockChecksums table = new BlockChecksums(checksumBlockSize, length, checksums);
+        if (table.getChecksum() != checksum) {
+            throw new ChecksumException("Checksums of the record at " + position +
+                    " do not match its header.", position);
+        }
+        return table;
+    }
+
+    /**
+     * Verify the header of the record with data at the position.
+     *
+     * @return the flags of the record
+     */
+    private static byte checkHeader(ByteBuffer header, long position,
+                                    int length) throws ChecksumException {
+        if (header.getInt() != SegmentFormat.RECORD_MAGIC ||
+                !hasValidHeaderChecksum(header)) {
+            throw new ChecksumException("Corrupt header of the record at " + position, position);
+        }
+        byte flags = header.get();
+        header.getLong();
+        if (header.getInt() != length) {
+            throw new ChecksumException("Length of the record at " + position +
+                    " does not match its header.", position);
+        }
+        return flags;
+    }
+
+    /**
+     * Verify data without block checksums against the checksum of
+     * its header.
+     */
+    private static void verifyData(ByteBuffer header, ByteBuffer data,
+                                   long position) throws ChecksumException {
+        int checksum = header.getInt(header.position() +
+                SegmentFormat.RECORD_HEADER_CHECKED_SIZE - 4);
+        if (Crc32c.compute(data) != checksum) {
+            throw new ChecksumException("Checksum mismatch in the record at " + position,
+                    position);
+        }
+    }
+
+    /**
+     * Whether the header checksum matches, with the position of the
+     * buffer right after the magic.
+     */
+    private static boolean hasValidHeaderChecksum(ByteBuffer header) {
+        int start = header.position() - 4;
+        ByteBuffer checked = header.duplicate();
+        checked.position(start).limit(start + SegmentFormat.RECORD_HEADER_CHECKED_SIZE);
+        return Crc32c.compute(checked) ==
+                header.getInt(start + SegmentFormat.RECORD_HEADER_CHECKED_SIZE);
+    }
+
+    MappedByteBuffer map(long position, int length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * Flush appended records to the device. The records made durable
+     * by the previous sync are counted in the header on the way, so
+     * the count is only written once they are on the device.
+     */
+    void sync() throws IOException {
+        synchronized (syncLock) {
+            int count = recordCount;
+            if (!sealed) {
+                writeSyncedRecords();
+            }
+            channel.force(false);
+            syncedRecords = count;
+        }
+    }
+
+    private void writeSyncedRecords() throws IOException {
+        if (syncedRecords == writtenSyncedRecords) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(syncedRecords).flip();
+        writeFully(channel, buffer, SegmentFormat.SYNCED_RECORDS_OFFSET);
+        writtenSyncedRecords = syncedRecords;
+    }
+
+    /**
+     * Write the footer and truncate the preallocated space
+     * behind it. No records may be appended afterwards.
+     */
+    void seal() throws IOException {
+        checkWritable();
+        int count = entries.size();
+        ByteBuffer footer = ByteBuffer.allocate(
+                count * SegmentFormat.FOOTER_ENTRY_SIZE + SegmentFormat.TRAILER_SIZE);
+        for (Entry entry : entries) {
+            footer.putLong(entry.chunkId)
+                    .putLong(entry.position)
+                    .putInt(entry.length)
+                    .put(entry.flags);
+        }
+        footer.putInt(count)
+                .putLong(writePosition)
+                .putLong(SegmentFormat.FOOTER_MAGIC)
+                .flip();
+        long end = writePosition + footer.remaining();
+        channel.truncate(end);
+        writeFully(channel, footer, writePosition);
+        channel.force(true);
+        sealed = true;
+    }
+
+    private void checkWritable() {
+        if (sealed) {
+            throw new IllegalStateException("Segment " + id + " is sealed.");
+        }
+    }
+
+    /**
+     * Close the segment file. The records synced so far are counted
+     * in the header of an unsealed segment first, so recovery does
+     * not verify them again.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (syncLock) {
+                if (!sealed && channel.isOpen() && syncedRecords != writtenSyncedRecords) {
+                    writeSyncedRecords();
+                    channel.force(false);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Segment[" + path.getFileName() + ", records=" + entries.size() +
+                (sealed ? ", sealed" : ", write position=" + writePosition) + "]";
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst,
+                                  long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src,
+                                   long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    static final class Entry {
+        final long chunkId;
+        final long position;
+        final int length;
+        final byte flags;
+
+        Entry(long chunkId, long position, int length, byte flags) {
+            this.chunkId = chunkId;
+            this.position = position;
+            this.length = length;
+            this.flags = flags;
+        }
+
+        boolean isTombstone() {
+            return (flags & SegmentFormat.FLAG_TOMBSTONE) != 0;
+        }
+
+        boolean hasChecksums() {
+            return (flags & SegmentFormat.FLAG_CHECKSUMS) != 0;
+        }
+    }
+}
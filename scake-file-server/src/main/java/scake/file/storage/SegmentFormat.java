@@ -0,0 +1,116 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.checksum.BlockChecksums;
+
+/**
+ * On-disk layout of a segment file.
+ * <pre>
+ * header:  [magic 8][version 4][segment id 4][created at 8]
+ *          [checksum block size 4][synced records 4]
+ * record:  [magic 4][flags 1][chunk id 8][length 4][checksum 4]
+ *          [header checksum 4][block checksums 4 per block][data]
+ * footer:  [chunk id 8][position 8][length 4][flags 1] per record
+ * trailer: [entry count 4][footer position 8][magic 8]
+ * </pre>
+ * Records are appended after the header. The footer and trailer
+ * are written when the segment is sealed, so the index of a sealed
+ * segment is read without scanning its records. All values are
+ * big-endian.
+ * <p>
+ * The synced records of the header count the records known to be
+ * on the device, it is updated as the segment is synced. Recovery
+ * verifies the records after them, which a crash may have torn.
+ * <p>
+ * If the checksum block size of the segment is not zero, each data
+ * record holds the CRC32C of every block of its data before the
+ * data, and the CRC32C of those as the checksum of its header,
+ * flagged with {@link #FLAG_CHECKSUMS}. The checksum of any other
+ * record, e.g. a tombstone, is the CRC32C of its data. The header
+ * checksum is the CRC32C of the header fields before it, so a torn
+ * or corrupt header is never taken for a record.
+ *
+ * @author RollW
+ */
+final class SegmentFormat {
+    static final long FILE_MAGIC = 0x5343414B45534547L; // "SCAKESEG"
+    static final long FOOTER_MAGIC = 0x5343414B45465452L; // "SCAKEFTR"
+    static final int RECORD_MAGIC = 0x5343524B; // "SCRK"
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 32;
+    static final int SYNCED_RECORDS_OFFSET = 28;
+    static final int RECORD_HEADER_SIZE = 25;
+    /**
+     * Size of the record header fields covered by the header checksum.
+     */
+    static final int RECORD_HEADER_CHECKED_SIZE = 21;
+    static final int FOOTER_ENTRY_SIZE = 21;
+    static final int TRAILER_SIZE = 20;
+
+    static final byte FLAG_TOMBSTONE = 0x01;
+    static final byte FLAG_CHECKSUMS = 0x02;
+
+    static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+    static final String FILE_SUFFIX = ".seg";
+
+    /**
+     * Size of the block checksums of a record of the given length.
+     */
+    static int checksumTableSize(int length, int blockSize) {
+        if (blockSize == 0) {
+            return 0;
+        }
+        return BlockChecksums.blockCount(length, blockSize) * 4;
+    }
+
+    static String fileName(int segmentId) {
+        return String.format("%08d%s", segmentId, FILE_SUFFIX);
+    }
+
+    /**
+     * Parse the segment id from the file name, or return -1
+     * if it is not a segment file.
+     */
+    static int parseFileName(String fileName) {
+        if (!fileName.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        String id = fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+        if (id.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private SegmentFormat() {
+    }
+}
@@ -0,0 +1,582 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scake.common.buffer.DirectBufferPool;
+import scake.common.checksum.BlockChecksums;
+import scake.common.checksum.ChecksumException;
+import space.lingu.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores chunks as records of large append-only segment files,
+ * instead of one file per chunk.
+ * <p>
+ * Chunks are appended to the active segment, which is sealed and
+ * replaced once it reaches the segment size. An in-memory index
+ * maps chunk ids to their {@link ChunkLocation}, and is rebuilt on
+ * {@link #open(SegmentStoreConfig) open} from the footers of sealed
+ * segments and a scan of the active one.
+ * <p>
+ * Writes are serialized, reads use positional I/O and do not block
+ * writes or each other. Appended chunks are durable only after
+ * {@link #sync()}. Reads may go through a {@link ChunkCache}, so
+ * hot chunks are served from memory even when sequential scans
+ * evict them from the page cache.
+ * <p>
+ * The CRC32C checksums of the blocks of each chunk are stored with
+ * it and verified on reads from the files.
+ *
+ * @author RollW
+ */
+public class SegmentStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentStore.class);
+
+    private final SegmentStoreConfig config;
+    @Nullable
+    private final ChunkCache cache;
+    private final Map<Long, ChunkLocation> index = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final LatencyTracker readLatency = new LatencyTracker();
+    private Segment active;
+    private volatile boolean closed = false;
+
+    private SegmentStore(SegmentStoreConfig config, @Nullable ChunkCache cache) {
+        this.config = config;
+        this.cache = cache;
+    }
+
+    /**
+     * Open the store in the configured directory, creating the
+     * directory if it does not exist.
+     */
+    public static SegmentStore open(SegmentStoreConfig config) throws IOException {
+        return open(config, null);
+    }
+
+    /**
+     * Open the store with a cache for chunk reads.
+     *
+     * @param cache the cache, or null to read from the files only
+     */
+    public static SegmentStore open(SegmentStoreConfig config,
+                                    @Nullable ChunkCache cache) throws IOException {
+        SegmentStore store = new SegmentStore(config, cache);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            try {
+                store.closeSegments();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return store;
+    }
+
+    private void recover() throws IOException {
+        Path directory = config.getDirectory();
+        Files.createDirectories(directory);
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                int id = SegmentFormat.parseFileName(path.getFileName().toString());
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            }
+        }
+        Collections.sort(ids);
+        long startTime = System.nanoTime();
+        Segment last = null;
+        for (int id : ids) {
+            Segment segment = Segment.open(segmentPath(id), id);
+            segments.put(id, segment);
+            applyEntries(segment);
+            if (last != null && !last.isSealed()) {
+                // Left unsealed by a crash while rolling over.
+                last.seal();
+            }
+            last = segment;
+        }
+        if (last == null || last.isSealed()) {
+            active = createSegment(last == null ? 0 : last.getId() + 1);
+        } else {
+            active = last;
+            active.discardTail(config.getSegmentSize(), config.isPreallocate());
+        }
+        logger.info("Opened segment store {} with {} segments and {} chunks in {}ms.",
+                directory, segments.size(), index.size(),
+                (System.nanoTime() - startTime) / 1_000_000);
+    }
+
+    private void applyEntries(Segment segment) {
+        for (Segment.Entry entry : segment.getEntries()) {
+            if (entry.isTombstone()) {
+                index.remove(entry.chunkId);
+            } else {
+                index.put(entry.chunkId, new ChunkLocation(
+                        segment.getId(), entry.position, entry.length));
+            }
+        }
+    }
+
+    /**
+     * Append a chunk, replacing the chunk with the same id
+     * if there is one.
+     *
+     * @param data the remaining bytes of the buffer are stored
+     */
+    public ChunkLocation put(long chunkId, ByteBuffer data) throws IOException {
+        return put(chunkId, data, null);
+    }
+
+    /**
+     * Append a chunk with checksums of its data, e.g. received with
+     * it and verified already, so they are not computed again. They
+     * are computed anyway if their block size differs from the one
+     * of the store.
+     */
+    public ChunkLocation put(long chunkId, ByteBuffer data,
+                             @Nullable BlockChecksums checksums) throws IOException {
+        int length = data.remaining();
+        if (length > config.getMaxChunkSize()) {
+            throw new IllegalArgumentException("Chunk of " + length +
+                    " Bytes exceeds the max chunk size " + config.getMaxChunkSize());
+        }
+        synchronized (writeLock) {
+            checkOpen();
+            Segment segment = segmentFor(length);
+            if (checksums != null && (checksums.getLength() != length ||
+                    checksums.getBlockSize() != segment.getChecksumBlockSize())) {
+                checksums = null;
+            }
+            long position = segment.append(chunkId, (byte) 0, data, checksums);
+            ChunkLocation location = new ChunkLocation(segment.getId(), position, length);
+            invalidate(index.put(chunkId, location));
+            return location;
+        }
+    }
+
+    /**
+     * Delete a chunk by appending a tombstone for it. The space
+     * it takes is not reclaimed.
+     *
+     * @return false if there is no such chunk
+     */
+    public boolean delete(long chunkId) throws IOException {
+        synchronized (writeLock) {
+            checkOpen();
+            if (!index.containsKey(chunkId)) {
+                return false;
+            }
+            Segment segment = segmentFor(0);
+            segment.append(chunkId, SegmentFormat.FLAG_TOMBSTONE,
+                    ByteBuffer.allocate(0), null);
+            invalidate(index.remove(chunkId));
+            return true;
+        }
+    }
+
+    private void invalidate(@Nullable ChunkLocation location) {
+        if (cache != null && location != null) {
+            cache.invalidate(location);
+        }
+    }
+
+    private Segment segmentFor(int length) throws IOException {
+        if (active.hasRoom(length, config.getSegmentSize())) {
+            return active;
+        }
+        active.seal();
+        active = createSegment(active.getId() + 1);
+        return active;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = Segment.create(segmentPath(id), id,
+                config.getSegmentSize(), config.isPreallocate(),
+                config.getChecksumBlockSize());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Path segmentPath(int id) {
+        return config.getDirectory().resolve(SegmentFormat.fileName(id));
+    }
+
+    /**
+     * Get the location of a chunk, or null if there is no such chunk.
+     */
+    public ChunkLocation locate(long chunkId) {
+        return index.get(chunkId);
+    }
+
+    public boolean contains(long chunkId) {
+        return index.containsKey(chunkId);
+    }
+
+    /**
+     * Get the checksums stored with a chunk.
+     *
+     * @return the checksums, or null if there is no such chunk or
+     * it is stored without checksums
+     */
+    @Nullable
+    public BlockChecksums getChecksums(long chunkId) throws IOException {
+        ChunkLocation location = index.get(chunkId);
+        if (location == null) {
+            return null;
+        }
+        return getChecksums(location);
+    }
+
+    /**
+     * Get the checksums stored with the chunk at the location.
+     *
+     * @return the checksums, or null if the chunk is stored without
+     * checksums
+     */
+    @Nullable
+    public BlockChecksums getChecksums(ChunkLocation location) throws IOException {
+        return segmentOf(location).readChecksums(location.getPosition(),
+                location.getLength());
+    }
+
+    /**
+     * Read a whole chunk into a new heap buffer, verified against its
+     * checksums. Use {@link #read(long, ByteBuffer)} to read into a
+     * reused or direct buffer.
+     *
+     * @return the data, or null if there is no such chunk
+     * @throws ChecksumException if the data does not match
+     */
+    public ByteBuffer read(long chunkId) throws IOException {
+        ChunkLocation location = index.get(chunkId);
+        if (location == null) {
+            return null;
+        }
+        if (cache != null) {
+            ByteBuffer cached = cache.read(location);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long start = System.nanoTime();
+        ByteBuffer data = segmentOf(location).readVerified(location.getPosition(),
+                location.getLength());
+        readLatency.record(System.nanoTime() - start);
+        if (cache != null) {
+            cache.put(location, data);
+        }
+        return data;
+    }
+
+    /**
+     * Read a whole chunk into the remaining space of the buffer,
+     * verified against its checksums. A cached chunk is copied
+     * straight from the cache, so a pooled direct buffer keeps
+     * the data off the heap.
+     *
+     * @return the length of the chunk, or -1 if there is no such chunk
+     * @throws IllegalArgumentException if the chunk does not fit in
+     *                                  the buffer
+     * @throws ChecksumException        if the data does not match
+     */
+    public int read(long chunkId, ByteBuffer dst) throws IOException {
+        ChunkLocation location = index.get(chunkId);
+        if (location == null) {
+            return -1;
+        }
+        if (dst.remaining() < location.getLength()) {
+            throw new IllegalArgumentException("Chunk of " + location.getLength() +
+                    " Bytes does not fit in " + dst.remaining() + " Bytes.");
+        }
+        read(location, dst);
+        return location.getLength();
+    }
+
+    private void read(ChunkLocation location, ByteBuffer dst) throws IOException {
+        if (cache != null && cache.read(location, 0, dst) >= 0) {
+            return;
+        }
+        ByteBuffer data = dst.duplicate();
+        data.limit(data.position() + location.getLength());
+        long start = System.nanoTime();
+        segmentOf(location).readVerified(location.getPosition(), data);
+        readLatency.record(System.nanoTime() - start);
+        data.flip().position(dst.position());
+        if (cache != null) {
+            cache.put(location, data);
+        }
+        dst.position(dst.position() + location.getLength());
+    }
+
+    /**
+     * Read the chunk bytes from the offset into the remaining space
+     * of the buffer, up to the end of the chunk. Only the checksum
+     * blocks the range touches are read and verified.
+     *
+     * @param offset offset in the chunk
+     * @return number of bytes read, or -1 if there is no such chunk
+     * @throws ChecksumException if the data does not match
+     */
+    public int read(long chunkId, int offset, ByteBuffer dst) throws IOException {
+        ChunkLocation location = index.get(chunkId);
+        if (location == null) {
+            return -1;
+        }
+        return read(location, offset, dst);
+    }
+
+    /**
+     * Read the bytes of the chunk at the location from the offset,
+     * like {@link #read(long, int, ByteBuffer)}.
+     *
+     * @return number of bytes read
+     * @throws ChecksumException if the data does not match
+     */
+    public int read(ChunkLocation location, int offset, ByteBuffer dst) throws IOException {
+        if (offset < 0 || offset > location.getLength()) {
+            throw new IndexOutOfBoundsException("offset " + offset +
+                    " out of chunk of " + location.getLength() + " Bytes.");
+        }
+        if (cache != null) {
+            int read = cache.read(location, offset, dst);
+            if (read >= 0) {
+                return read;
+            }
+        }
+        int length = Math.min(dst.remaining(), location.getLength() - offset);
+        if (length == 0) {
+            return 0;
+        }
+        long readStart = System.nanoTime();
+        Segment segment = segmentOf(location);
+        BlockChecksums checksums = segment.readChecksums(location.getPosition(),
+                location.getLength());
+        if (checksums == null) {
+            ByteBuffer slice = dst.duplicate();
+            slice.limit(slice.position() + length);
+            segment.read(location.getPosition() + offset, slice);
+            readLatency.record(System.nanoTime() - readStart);
+            dst.position(dst.position() + length);
+            return length;
+        }
+        int firstBlock = checksums.blockOf(offset);
+        int lastBlock = checksums.blockOf(offset + length - 1);
+        int start = firstBlock * checksums.getBlockSize();
+        int end = (int) Math.min(location.getLength(),
+                (long) (lastBlock + 1) * checksums.getBlockSize());
+        DirectBufferPool pool = DirectBufferPool.shared();
+        ByteBuffer blocks = pool.acquire(end - start);
+        try {
+            segment.read(location.getPosition() + start, blocks);
+            readLatency.record(System.nanoTime() - readStart);
+            blocks.flip();
+            checksums.verify(blocks, firstBlock);
+            if (cache != null && end - start == location.getLength()) {
+                // The blocks are the whole chunk, so offer them to the
+                // cache without another read.
+                cache.put(location, blocks);
+            }
+            blocks.position(offset - start);
+            blocks.limit(offset - start + length);
+            dst.put(blocks);
+            return length;
+        } finally {
+            pool.release(blocks);
+        }
+    }
+
+    /**
+     * Get the cache of chunk reads, or null if reads are not cached.
+     */
+    @Nullable
+    public ChunkCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Map a chunk into memory read-only, avoiding a copy for large
+     * chunks that are read in place. The data is not verified, see
+     * {@link #getChecksums(long)}.
+     *
+     * @return the mapped data, or null if there is no such chunk
+     */
+    public ByteBuffer map(long chunkId) throws IOException {
+        ChunkLocation location = index.get(chunkId);
+        if (location == null) {
+            return null;
+        }
+        return segmentOf(location).map(location.getPosition(), location.getLength());
+    }
+
+    /**
+     * Get the channel of the segment file holding the location, to
+     * transfer the chunk data directly from the file. The channel
+     * must not be closed by the caller. The data is not verified,
+     * send it with {@link #getChecksums(ChunkLocation) its checksums}.
+     * Record the time taken by the transfer with
+     * {@link #recordReadLatency(long)}.
+     */
+    public FileChannel getChannel(ChunkLocation location) {
+        return segmentOf(location).getChannel();
+    }
+
+    /**
+     * Record the latency of a read of chunk data from a segment file
+     * done outside the store, e.g. a transfer from
+     * {@link #getChannel(ChunkLocation) its channel}, so the
+     * {@link ChunkScrubber} backs off for it too.
+     */
+    public void recordReadLatency(long nanos) {
+        readLatency.record(nanos);
+    }
+
+    private Segment segmentOf(ChunkLocation location) {
+        checkOpen();
+        Segment segment = segments.get(location.getSegmentId());
+        if (segment == null) {
+            throw new IllegalStateException("No segment " + location.getSegmentId());
+        }
+        return segment;
+    }
+
+    /**
+     * Make the chunks appended so far durable.
+     */
+    public void sync() throws IOException {
+        Segment segment;
+        synchronized (writeLock) {
+            checkOpen();
+            segment = active;
+        }
+        // Sealed segments are forced when they are sealed.
+        segment.sync();
+    }
+
+    /**
+     * Segments in the order they were created.
+     */
+    List<Segment> getSegments() {
+        checkOpen();
+        List<Segment> list = new ArrayList<>(segments.values());
+        list.sort(Comparator.comparingInt(Segment::getId));
+        return list;
+    }
+
+    /**
+     * Copy the entries of the records appended to the segment so far.
+     */
+    List<Segment.Entry> copyEntries(Segment segment) {
+        synchronized (writeLock) {
+            return new ArrayList<>(segment.getEntries());
+        }
+    }
+
+    /**
+     * Latency of the reads of chunk data from the files, cache hits
+     * excluded.
+     */
+    LatencyTracker getReadLatency() {
+        return readLatency;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    public int getChunkCount() {
+        return index.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public SegmentStoreConfig getConfig() {
+        return config;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Segment store is closed.");
+        }
+    }
+
+    /**
+     * Sync the active segment and close all segment files. The
+     * active segment is left unsealed, so appending continues in
+     * it after reopening.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (active != null) {
+                    active.sync();
+                }
+            } finally {
+                closeSegments();
+            }
+        }
+    }
+
+    private void closeSegments() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        segments.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import scake.common.checksum.BlockChecksums;
+
+import java.nio.file.Path;
+
+/**
+ * Options of a {@link SegmentStore}.
+ *
+ * @author RollW
+ */
+public class SegmentStoreConfig {
+    public static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * Directory holding the segment files.
+     */
+    private final Path directory;
+
+    /**
+     * Size in Bytes after which a segment is sealed and
+     * a new one is started.
+     */
+    private final long segmentSize;
+
+    /**
+     * Whether a new segment file is extended to its full size
+     * when it is created, so appends do not grow the file and
+     * a data-only sync is enough to make them durable.
+     */
+    private final boolean preallocate;
+
+    /**
+     * Size of the blocks of chunk data a CRC32C checksum is stored
+     * for, zero to store no checksums.
+     */
+    private final int checksumBlockSize;
+
+    private SegmentStoreConfig(Builder builder) {
+        if (builder.directory == null) {
+            throw new IllegalArgumentException("directory must not be null.");
+        }
+        if (builder.segmentSize < SegmentFormat.MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " +
+                    SegmentFormat.MIN_SEGMENT_SIZE + " Bytes.");
+        }
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        if (builder.checksumBlockSize != 0 &&
+                !BlockChecksums.isValidBlockSize(builder.checksumBlockSize)) {
+            throw new IllegalArgumentException("checksumBlockSize must be zero or a power of two of at least " +
+                    BlockChecksums.MIN_BLOCK_SIZE + " Bytes.");
+        }
+        this.preallocate = builder.preallocate;
+        this.checksumBlockSize = builder.checksumBlockSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public int getChecksumBlockSize() {
+        return checksumBlockSize;
+    }
+
+    /**
+     * Largest chunk that fits in a single segment.
+     */
+    public int getMaxChunkSize() {
+        long max = segmentSize - SegmentFormat.HEADER_SIZE - SegmentFormat.RECORD_HEADER_SIZE;
+        if (checksumBlockSize > 0) {
+            max -= BlockChecksums.blockCount(max, checksumBlockSize) * 4L;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, max);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private Path directory;
+        private long segmentSize = DEFAULT_SEGMENT_SIZE;
+        private boolean preallocate = true;
+        private int checksumBlockSize = BlockChecksums.DEFAULT_BLOCK_SIZE;
+
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder setPreallocate(boolean preallocate) {
+            this.preallocate = preallocate;
+            return this;
+        }
+
+        public Builder setChecksumBlockSize(int checksumBlockSize) {
+            this.checksumBlockSize = checksumBlockSize;
+            return this;
+        }
+
+        public SegmentStoreConfig build() {
+            return new SegmentStoreConfig(this);
+        }
+    }
+}
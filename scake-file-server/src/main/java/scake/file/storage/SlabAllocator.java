@@ -0,0 +1,103 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.file.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hands out fixed-size pages of large direct buffers. Slabs are
+ * allocated on demand up to the capacity and never freed, freed
+ * pages are reused.
+ *
+ * @author RollW
+ */
+final class SlabAllocator {
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final int totalPages;
+    private final ByteBuffer[] slabs;
+    private final int[] freePages;
+    private int freeCount = 0;
+    private int nextFreshPage = 0;
+
+    SlabAllocator(long capacity, int pageSize, int slabSize) {
+        this.pageSize = pageSize;
+        this.pagesPerSlab = slabSize / pageSize;
+        this.totalPages = (int) (capacity / pageSize);
+        this.slabs = new ByteBuffer[(totalPages + pagesPerSlab - 1) / pagesPerSlab];
+        this.freePages = new int[totalPages];
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    int getTotalPages() {
+        return totalPages;
+    }
+
+    synchronized int getUsedPages() {
+        return nextFreshPage - freeCount;
+    }
+
+    /**
+     * Allocate the given number of pages, or return null if there
+     * are not enough free pages.
+     */
+    synchronized int[] allocate(int count) {
+        if (count > freeCount + (totalPages - nextFreshPage)) {
+            return null;
+        }
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeCount > 0) {
+                pages[i] = freePages[--freeCount];
+                continue;
+            }
+            int page = nextFreshPage++;
+            int slab = page / pagesPerSlab;
+            if (slabs[slab] == null) {
+                int slabPages = Math.min(pagesPerSlab, totalPages - slab * pagesPerSlab);
+                slabs[slab] = ByteBuffer.allocateDirect(slabPages * pageSize);
+            }
+            pages[i] = page;
+        }
+        return pages;
+    }
+
+    synchronized void free(int[] pages) {
+        for (int page : pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+    /**
+     * Get a view of the page, positioned at its start with
+     * the limit at its end.
+     */
+    ByteBuffer page(int page) {
+        // The slab is visible to the caller, as the pages were handed
+        // out by allocate() before being published through the cache.
+        ByteBuffer view = slabs[page / pagesPerSlab].duplicate();
+        int start = (page % pagesPerSlab) * pageSize;
+        view.limit(start + pageSize).position(start);
+        return view;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A pre-parsed boolean config value, kept up to date when the
+ * configuration is reloaded. Reading it is a volatile field load.
+ *
+ * @author RollW
+ * @see ConfigLoader#booleanValue(String, boolean)
+ */
+public final class BooleanConfigValue implements ReloadableValue {
+    private final String key;
+    private final boolean defaultValue;
+    private final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean value;
+
+    BooleanConfigValue(String key, boolean defaultValue, ConfigLoader configLoader) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.value = resolve(configLoader);
+    }
+
+    public boolean getAsBoolean() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Add a listener called with the new value when it changes.
+     */
+    public BooleanConfigValue addListener(Consumer<Boolean> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void reload(ConfigLoader configLoader) {
+        boolean next = resolve(configLoader);
+        if (next == value) {
+            return;
+        }
+        value = next;
+        for (Consumer<Boolean> listener : listeners) {
+            ReloadableValue.notifyListener(this, () -> listener.accept(next));
+        }
+    }
+
+    private boolean resolve(ConfigLoader configLoader) {
+        String raw = configLoader.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(raw.trim());
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
@@ -20,18 +20,39 @@
 package scake.common.server;
 
 import com.google.common.base.Strings;
+import org.slf4j.LoggerFactory;
 import scake.common.ScakeException;
+import scake.common.Size;
+import scake.common.rpc.ChannelSelectStrategy;
+import scake.common.rpc.RpcConfig;
+import scake.common.rpc.TransportMode;
 import space.lingu.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration loader.
+ * <p>
+ * The configuration is an immutable snapshot swapped atomically on
+ * {@link #reload()}. Components reading a value on a hot path, or
+ * retuning themselves when it changes, use the pre-parsed values
+ * like {@link #intValue(String, int)} instead of parsing it on
+ * each read.
  *
  * @author RollW
  */
@@ -39,13 +60,81 @@ public class ConfigLoader implements LoggerConfiguration {
     public static final String KEY_LOG_LEVEL = "scake.log.level";
     public static final String KEY_LOG_PATH = "scake.log.path";
 
+    public static final String KEY_LOG_MAX_HISTORY = "scake.log.max-history";
+    public static final String KEY_LOG_MAX_SIZE = "scake.log.max-size";
+    public static final String KEY_LOG_ASYNC = "scake.log.async";
+    public static final String KEY_LOG_ASYNC_BUFFER_SIZE = "scake.log.async.buffer-size";
+    public static final String KEY_LOG_ASYNC_OVERFLOW_POLICY = "scake.log.async.overflow-policy";
+
     public static final String LOG_LEVEL_DEFAULT = "info";
+    public static final int LOG_MAX_HISTORY_DEFAULT = 7;
+    public static final Size LOG_MAX_SIZE_DEFAULT = Size.ofMegabytes(10);
+    public static final int ASYNC_LOG_BUFFER_SIZE_DEFAULT = 8192;
+
+    public static final String KEY_RPC_MAX_REQUEST_SIZE = "scake.rpc.max-request-size";
+    public static final String KEY_RPC_TRANSPORT = "scake.rpc.transport";
+    public static final String KEY_RPC_EVENT_LOOP_THREADS = "scake.rpc.event-loop-threads";
+    public static final String KEY_RPC_EXECUTOR_THREADS = "scake.rpc.executor-threads";
+    public static final String KEY_RPC_CHANNELS_PER_SERVER = "scake.rpc.channel.per-server";
+    public static final String KEY_RPC_CHANNEL_SELECT_STRATEGY = "scake.rpc.channel.select-strategy";
+    public static final String KEY_RPC_CHANNEL_MAX_SERVERS = "scake.rpc.channel.max-servers";
+    public static final String KEY_RPC_CHANNEL_IDLE_TIMEOUT = "scake.rpc.channel.idle-timeout";
+    public static final String KEY_RPC_CHANNEL_DRAIN_TIMEOUT = "scake.rpc.channel.drain-timeout";
+    public static final String KEY_RPC_KEEP_ALIVE_TIME = "scake.rpc.keep-alive.time";
+    public static final String KEY_RPC_KEEP_ALIVE_TIMEOUT = "scake.rpc.keep-alive.timeout";
+    public static final String KEY_RPC_KEEP_ALIVE_WITHOUT_CALLS = "scake.rpc.keep-alive.without-calls";
+    public static final String KEY_RPC_FLOW_CONTROL_WINDOW = "scake.rpc.flow-control.window";
+    public static final String KEY_RPC_FLOW_CONTROL_AUTO = "scake.rpc.flow-control.auto";
+    public static final String KEY_RPC_MAX_CONCURRENT_CALLS = "scake.rpc.max-concurrent-calls";
+    public static final String KEY_RPC_COMPRESSION = "scake.rpc.compression";
+
+    public static final String KEY_FILE_CACHE_SIZE = "scake.file.cache.size";
+    public static final String KEY_FILE_CACHE_PAGE_SIZE = "scake.file.cache.page-size";
+    public static final String KEY_FILE_CACHE_MAX_CHUNK_SIZE = "scake.file.cache.max-chunk-size";
+    public static final String KEY_FILE_WRITE_GROUP_SIZE = "scake.file.write.group-size";
+    public static final String KEY_FILE_WRITE_GROUP_BYTES = "scake.file.write.group-bytes";
+    public static final String KEY_FILE_WRITE_GROUP_DELAY = "scake.file.write.group-delay";
+    public static final String KEY_FILE_SCRUB_RATE = "scake.file.scrub.rate";
+    public static final String KEY_FILE_SCRUB_INTERVAL = "scake.file.scrub.interval";
+    public static final String KEY_FILE_SCRUB_LATENCY_THRESHOLD = "scake.file.scrub.latency-threshold";
+    public static final String KEY_FILE_SCRUB_QUEUE_DEPTH = "scake.file.scrub.queue-depth";
 
-    private final Properties properties;
+    public static final String KEY_CONFIG_WATCH = "scake.config.watch";
+    public static final String KEY_STARTUP_FAST = "scake.startup.fast";
+
+    private volatile Properties properties;
+    @Nullable
+    private final Path source;
+    private final List<ReloadableValue> values = new CopyOnWriteArrayList<>();
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object reloadLock = new Object();
 
     public ConfigLoader(Map<Object, Object> properties) {
-        this.properties = new Properties();
-        this.properties.putAll(properties);
+        this(properties, null);
+    }
+
+    /**
+     * @param source the file the properties are loaded from, or null
+     *               if they are not loaded from a file
+     */
+    public ConfigLoader(Map<Object, Object> properties, @Nullable Path source) {
+        this.properties = copyOf(properties);
+        this.source = source;
+    }
+
+    private static Properties copyOf(Map<Object, Object> properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * Get the file the configuration is loaded from, or null if it is
+     * not loaded from a file, e.g. from the classpath.
+     */
+    @Nullable
+    public Path getSource() {
+        return source;
     }
 
     @Override
@@ -58,6 +147,32 @@ public class ConfigLoader implements LoggerConfiguration {
         return get(KEY_LOG_PATH, LOG_CONSOLE);
     }
 
+    @Override
+    public int getLogMaxHistory() {
+        return getInt(KEY_LOG_MAX_HISTORY, LOG_MAX_HISTORY_DEFAULT);
+    }
+
+    @Override
+    public Size getLogMaxSize() {
+        return getSize(KEY_LOG_MAX_SIZE, LOG_MAX_SIZE_DEFAULT);
+    }
+
+    @Override
+    public boolean isAsyncLogging() {
+        return getBoolean(KEY_LOG_ASYNC, false);
+    }
+
+    @Override
+    public int getAsyncLogBufferSize() {
+        return getInt(KEY_LOG_ASYNC_BUFFER_SIZE, ASYNC_LOG_BUFFER_SIZE_DEFAULT);
+    }
+
+    @Override
+    public LogOverflowPolicy getAsyncLogOverflowPolicy() {
+        return getEnum(KEY_LOG_ASYNC_OVERFLOW_POLICY, LogOverflowPolicy.class,
+                LogOverflowPolicy.DROP);
+    }
+
     public final String get(String key) {
         return properties.getProperty(key, null);
     }
@@ -78,6 +193,282 @@ public class ConfigLoader implements LoggerConfiguration {
         }
     }
 
+    public final long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public final boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Get a size value, e.g. "64MB", see {@link Size#parse(String)}.
+     */
+    public final Size getSize(String key, Size defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Size.parse(value);
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a duration value, e.g. "500ms", "30s", "5m", "2h" or "1d".
+     * A value without unit is in milliseconds.
+     */
+    public final Duration getDuration(String key, Duration defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return parseDuration(value);
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    public final <E extends Enum<E>> E getEnum(String key, Class<E> enumClass,
+                                               E defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(enumClass, value.trim()
+                    .replace('-', '_')
+                    .toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    public IntConfigValue intValue(String key, int defaultValue) {
+        return register(new IntConfigValue(key, defaultValue, this));
+    }
+
+    public LongConfigValue longValue(String key, long defaultValue) {
+        return register(new LongConfigValue(key, defaultValue, this));
+    }
+
+    public BooleanConfigValue booleanValue(String key, boolean defaultValue) {
+        return register(new BooleanConfigValue(key, defaultValue, this));
+    }
+
+    public ConfigValue<Size> sizeValue(String key, Size defaultValue) {
+        return register(new ConfigValue<>(key, defaultValue, Size::parse, this));
+    }
+
+    public ConfigValue<Duration> durationValue(String key, Duration defaultValue) {
+        return register(new ConfigValue<>(key, defaultValue,
+                ConfigLoader::parseDuration, this));
+    }
+
+    private <V extends ReloadableValue> V register(V value) {
+        values.add(value);
+        return value;
+    }
+
+    public void addListener(ConfigChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConfigChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reload the configuration from its source file.
+     *
+     * @throws ScakeException if the configuration is not loaded from
+     *                        a file, or the file cannot be read
+     */
+    public void reload() throws ScakeException {
+        if (source == null) {
+            throw new ScakeException("Config is not loaded from a file.");
+        }
+        Properties loaded = new Properties();
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            loaded.load(inputStream);
+        } catch (IOException e) {
+            throw new ScakeException("Read config failed.", e);
+        }
+        reload(loaded);
+    }
+
+    /**
+     * Replace the configuration, updating the pre-parsed values and
+     * notifying the listeners of the changed keys. A value or listener
+     * that fails is logged and does not keep the others from being
+     * updated.
+     */
+    public void reload(Map<Object, Object> newProperties) {
+        Set<String> changedKeys;
+        synchronized (reloadLock) {
+            Properties next = copyOf(newProperties);
+            changedKeys = diff(properties, next);
+            if (changedKeys.isEmpty()) {
+                return;
+            }
+            properties = next;
+            for (ReloadableValue value : values) {
+                try {
+                    value.reload(this);
+                } catch (RuntimeException e) {
+                    // The logger is looked up here, since the logging
+                    // is configured from this loader.
+                    LoggerFactory.getLogger(ConfigLoader.class)
+                            .error("Failed to reload config value {}.", value, e);
+                }
+            }
+        }
+        Set<String> unmodifiableKeys = Collections.unmodifiableSet(changedKeys);
+        for (ConfigChangeListener listener : listeners) {
+            try {
+                listener.onConfigChanged(this, unmodifiableKeys);
+            } catch (RuntimeException e) {
+                LoggerFactory.getLogger(ConfigLoader.class)
+                        .error("Config change listener {} failed.", listener, e);
+            }
+        }
+    }
+
+    private static Set<String> diff(Properties previous, Properties next) {
+        Set<String> changed = new HashSet<>();
+        for (String key : previous.stringPropertyNames()) {
+            if (!Objects.equals(previous.getProperty(key), next.getProperty(key))) {
+                changed.add(key);
+            }
+        }
+        for (String key : next.stringPropertyNames()) {
+            if (!previous.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Start watching the source file, reloading the configuration
+     * when it changes.
+     *
+     * @return the watcher, close it to stop watching
+     * @throws ScakeException if the configuration is not loaded from
+     *                        a file, or the file cannot be watched
+     */
+    public ConfigWatcher watch() throws ScakeException {
+        if (source == null) {
+            throw new ScakeException("Config is not loaded from a file.");
+        }
+        try {
+            ConfigWatcher watcher = new ConfigWatcher(this, source);
+            watcher.start();
+            return watcher;
+        } catch (IOException e) {
+            throw new ScakeException("Watch config file failed.", e);
+        }
+    }
+
+    /**
+     * Get the RPC configuration, settings not given use the
+     * defaults of {@link RpcConfig}.
+     */
+    public RpcConfig getRpcConfig() {
+        RpcConfig defaults = RpcConfig.builder().build();
+        return RpcConfig.builder()
+                .setMaxRequestSize(getSize(KEY_RPC_MAX_REQUEST_SIZE,
+                        Size.ofBytes(defaults.getMaxRequestSize())))
+                .setTransportMode(getEnum(KEY_RPC_TRANSPORT, TransportMode.class,
+                        defaults.getTransportMode()))
+                .setEventLoopThreads(getInt(KEY_RPC_EVENT_LOOP_THREADS,
+                        defaults.getEventLoopThreads()))
+                .setExecutorThreads(getInt(KEY_RPC_EXECUTOR_THREADS,
+                        defaults.getExecutorThreads()))
+                .setChannelsPerServer(getInt(KEY_RPC_CHANNELS_PER_SERVER,
+                        defaults.getChannelsPerServer()))
+                .setChannelSelectStrategy(getEnum(KEY_RPC_CHANNEL_SELECT_STRATEGY,
+                        ChannelSelectStrategy.class, defaults.getChannelSelectStrategy()))
+                .setMaxPooledServers(getInt(KEY_RPC_CHANNEL_MAX_SERVERS,
+                        defaults.getMaxPooledServers()))
+                .setChannelIdleTimeout(getMillis(KEY_RPC_CHANNEL_IDLE_TIMEOUT,
+                        defaults.getChannelIdleTimeout()), TimeUnit.MILLISECONDS)
+                .setChannelDrainTimeout(getMillis(KEY_RPC_CHANNEL_DRAIN_TIMEOUT,
+                        defaults.getChannelDrainTimeout()), TimeUnit.MILLISECONDS)
+                .setKeepAliveTime(getMillis(KEY_RPC_KEEP_ALIVE_TIME,
+                        defaults.getKeepAliveTime()), TimeUnit.MILLISECONDS)
+                .setKeepAliveTimeout(getMillis(KEY_RPC_KEEP_ALIVE_TIMEOUT,
+                        defaults.getKeepAliveTimeout()), TimeUnit.MILLISECONDS)
+                .setKeepAliveWithoutCalls(getBoolean(KEY_RPC_KEEP_ALIVE_WITHOUT_CALLS,
+                        defaults.isKeepAliveWithoutCalls()))
+                .setFlowControlWindow(getSize(KEY_RPC_FLOW_CONTROL_WINDOW,
+                        Size.ofBytes(defaults.getFlowControlWindow())))
+                .setAutoFlowControl(getBoolean(KEY_RPC_FLOW_CONTROL_AUTO,
+                        defaults.isAutoFlowControl()))
+                .setMaxConcurrentCallsPerConnection(getInt(KEY_RPC_MAX_CONCURRENT_CALLS,
+                        defaults.getMaxConcurrentCallsPerConnection()))
+                .setCompression(get(KEY_RPC_COMPRESSION, defaults.getCompression()))
+                .build();
+    }
+
+    private long getMillis(String key, long defaultValue) {
+        return getDuration(key, Duration.ofMillis(defaultValue)).toMillis();
+    }
+
+    /**
+     * Parse a duration like "500ms", "30s", "5m", "2h" or "1d".
+     * A value without unit is in milliseconds.
+     *
+     * @throws IllegalArgumentException if the value is not a valid duration
+     */
+    public static Duration parseDuration(String value) {
+        String trimmed = value.trim().toLowerCase(Locale.ROOT);
+        int index = 0;
+        while (index < trimmed.length() && Character.isDigit(trimmed.charAt(index))) {
+            index++;
+        }
+        if (index == 0) {
+            throw new IllegalArgumentException("Invalid duration: '" + value + "'.");
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(trimmed.substring(0, index));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: '" + value + "'.", e);
+        }
+        String unit = trimmed.substring(index).trim();
+        switch (unit) {
+            case "":
+            case "ms":
+                return Duration.ofMillis(amount);
+            case "s":
+                return Duration.ofSeconds(amount);
+            case "m":
+                return Duration.ofMinutes(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            case "d":
+                return Duration.ofDays(amount);
+            default:
+                throw new IllegalArgumentException("Invalid duration unit: '" + value + "'.");
+        }
+    }
+
     /**
      * Load configuration from the given class and path.
      * <p>
@@ -86,20 +477,26 @@ public class ConfigLoader implements LoggerConfiguration {
      */
     public static ConfigLoader load(Class<?> appClz,
                                     @Nullable String path) throws ScakeException {
-        InputStream inputStream = openConfigInput(appClz, path);
+        File confFile = tryFile(path);
+        InputStream inputStream = openConfigInput(appClz, confFile);
         Properties properties = new Properties();
-        try {
-            properties.load(inputStream);
+        try (InputStream input = inputStream) {
+            properties.load(input);
         } catch (IOException e) {
             throw new ScakeException("Read config failed.", e);
         }
 
-        return new ConfigLoader(properties);
+        Path source = confFile.exists() ? confFile.toPath() : null;
+        return new ConfigLoader(properties, source);
     }
 
     protected static InputStream openConfigInput(Class<?> appClz,
                                                  @Nullable String path) throws ScakeException {
-        File confFile = tryFile(path);
+        return openConfigInput(appClz, tryFile(path));
+    }
+
+    private static InputStream openConfigInput(Class<?> appClz,
+                                               File confFile) throws ScakeException {
         if (confFile.exists()) {
             try {
                 return Files.newInputStream(confFile.toPath());
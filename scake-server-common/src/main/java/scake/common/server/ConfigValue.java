@@ -0,0 +1,98 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.server;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A pre-parsed config value, kept up to date when the configuration
+ * is reloaded. Reading it is a volatile field load.
+ * <p>
+ * Invalid values fall back to the default value.
+ *
+ * @author RollW
+ * @see ConfigLoader#sizeValue(String, scake.common.Size)
+ * @see ConfigLoader#durationValue(String, java.time.Duration)
+ */
+public final class ConfigValue<T> implements ReloadableValue {
+    private final String key;
+    private final T defaultValue;
+    private final Function<String, T> parser;
+    private final List<Consumer<? super T>> listeners = new CopyOnWriteArrayList<>();
+    private volatile T value;
+
+    ConfigValue(String key, T defaultValue,
+                Function<String, T> parser,
+                ConfigLoader configLoader) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.parser = parser;
+        this.value = resolve(configLoader);
+    }
+
+    public T get() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Add a listener called with the new value when it changes.
+     */
+    public ConfigValue<T> addListener(Consumer<? super T> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void reload(ConfigLoader configLoader) {
+        T next = resolve(configLoader);
+        if (Objects.equals(next, value)) {
+            return;
+        }
+        value = next;
+        for (Consumer<? super T> listener : listeners) {
+            ReloadableValue.notifyListener(this, () -> listener.accept(next));
+        }
+    }
+
+    private T resolve(ConfigLoader configLoader) {
+        String raw = configLoader.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(raw);
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
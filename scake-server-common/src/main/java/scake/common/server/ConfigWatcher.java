@@ -0,0 +1,136 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the config file of a {@link ConfigLoader} and reloads it
+ * when the file changes.
+ * <p>
+ * Changes are debounced, so that editors writing the file in
+ * several steps cause one reload. A file that fails to load keeps
+ * the previous configuration.
+ *
+ * @author RollW
+ */
+public class ConfigWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    public static final long DEBOUNCE_MILLIS = 200;
+
+    private final ConfigLoader configLoader;
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    ConfigWatcher(ConfigLoader configLoader, Path file) throws IOException {
+        this.configLoader = configLoader;
+        this.file = file.toAbsolutePath();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Path directory = this.file.getParent();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new ThreadFactoryBuilder()
+                .setNameFormat("scake-config-watcher")
+                .setDaemon(true)
+                .build()
+                .newThread(this::watch);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private void watch() {
+        while (!closed) {
+            try {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanged(key);
+                // wait for the writes to settle, then take
+                // everything that happened meanwhile
+                while (true) {
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= pollChanged(key);
+                }
+                if (changed) {
+                    reload();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean pollChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                    (context instanceof Path &&
+                            file.getFileName().equals(context))) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            configLoader.reload();
+            logger.info("Reloaded config from '{}'.", file);
+        } catch (Exception e) {
+            logger.warn("Reload config from '{}' failed, keeping the current config.",
+                    file, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+}
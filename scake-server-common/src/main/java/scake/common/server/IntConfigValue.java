@@ -0,0 +1,89 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * A pre-parsed int config value, kept up to date when the
+ * configuration is reloaded. Reading it is a volatile field load.
+ *
+ * @author RollW
+ * @see ConfigLoader#intValue(String, int)
+ */
+public final class IntConfigValue implements ReloadableValue {
+    private final String key;
+    private final int defaultValue;
+    private final List<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+    private volatile int value;
+
+    IntConfigValue(String key, int defaultValue, ConfigLoader configLoader) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.value = resolve(configLoader);
+    }
+
+    public int getAsInt() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Add a listener called with the new value when it changes.
+     */
+    public IntConfigValue addListener(IntConsumer listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void reload(ConfigLoader configLoader) {
+        int next = resolve(configLoader);
+        if (next == value) {
+            return;
+        }
+        value = next;
+        for (IntConsumer listener : listeners) {
+            ReloadableValue.notifyListener(this, () -> listener.accept(next));
+        }
+    }
+
+    private int resolve(ConfigLoader configLoader) {
+        String raw = configLoader.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(raw.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
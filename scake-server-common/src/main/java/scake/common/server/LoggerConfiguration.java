@@ -19,6 +19,8 @@
 
 package scake.common.server;
 
+import scake.common.Size;
+
 /**
  * @author RollW
  */
@@ -30,5 +32,28 @@ public interface LoggerConfiguration {
 
     String getLogPath();
 
+    /**
+     * Days of rolled log files to keep.
+     */
+    int getLogMaxHistory();
+
+    /**
+     * Size of a log file before it is rolled.
+     */
+    Size getLogMaxSize();
+
+    /**
+     * Whether log events are written by a background thread,
+     * through a bounded ring buffer. Off by default.
+     */
+    boolean isAsyncLogging();
+
+    /**
+     * Capacity of the ring buffer in events.
+     */
+    int getAsyncLogBufferSize();
+
+    LogOverflowPolicy getAsyncLogOverflowPolicy();
+
     String LOG_CONSOLE = "[console]";
 }
@@ -0,0 +1,89 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.common.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * A pre-parsed long config value, kept up to date when the
+ * configuration is reloaded. Reading it is a volatile field load.
+ *
+ * @author RollW
+ * @see ConfigLoader#longValue(String, long)
+ */
+public final class LongConfigValue implements ReloadableValue {
+    private final String key;
+    private final long defaultValue;
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    private volatile long value;
+
+    LongConfigValue(String key, long defaultValue, ConfigLoader configLoader) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.value = resolve(configLoader);
+    }
+
+    public long getAsLong() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Add a listener called with the new value when it changes.
+     */
+    public LongConfigValue addListener(LongConsumer listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void reload(ConfigLoader configLoader) {
+        long next = resolve(configLoader);
+        if (next == value) {
+            return;
+        }
+        value = next;
+        for (LongConsumer listener : listeners) {
+            ReloadableValue.notifyListener(this, () -> listener.accept(next));
+        }
+    }
+
+    private long resolve(ConfigLoader configLoader) {
+        String raw = configLoader.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(raw.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value;
+    }
+}
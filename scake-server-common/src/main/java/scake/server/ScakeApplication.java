@@ -24,12 +24,17 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
 import scake.common.ScakeException;
 import scake.common.server.ConfigLoader;
 import scake.common.server.ConfigNotFoundException;
+import scake.common.server.ConfigWatcher;
 import scake.common.server.LoggerConfiguration;
+import scake.server.logging.AsyncLoggingInstaller;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -43,17 +48,31 @@ public class ScakeApplication {
     public static final String CONFIG_PATH = "--config";
     public static final String SHORTAGE_CONFIG_PATH = "-c";
 
+    /**
+     * Name of the {@link ConfigLoader} bean in the context.
+     */
+    public static final String CONFIG_LOADER_BEAN = "scakeConfigLoader";
+
+    /**
+     * System property making the application exit once it is ready,
+     * used by the training run generating the AppCDS archive.
+     */
+    public static final String EXIT_ON_READY = "scake.startup.exit-on-ready";
+
     private static final Logger logger = LoggerFactory.getLogger(ScakeApplication.class);
 
     private final Class<?> applicationClass;
     private final String artifact;
     private final SpringApplication springApplication;
+    private final StartupReport startupReport;
 
     public ScakeApplication(Class<?> applicationClass,
                             String artifact) {
+        this.startupReport = new StartupReport(artifact);
         this.applicationClass = applicationClass;
         this.springApplication = new SpringApplication(applicationClass);
         this.artifact = artifact;
+        this.springApplication.addListeners(startupReport);
     }
 
     private void initApplication(String[] args) throws ScakeException {
@@ -76,15 +95,57 @@ public class ScakeApplication {
             configLoader = new ConfigLoader(configs);
         }
 
+        startupReport.mark("config");
+
         Map<String, Object> overrideProperties = new HashMap<>();
         setupLogging(configLoader, overrideProperties);
+        setupFastStart(configLoader, overrideProperties);
 
         springApplication.setDefaultProperties(overrideProperties);
+        setupConfig(configLoader);
     }
 
+    /**
+     * Expose the config loader to the context, and reload it when
+     * its file changes so that components can retune themselves.
+     */
+    private void setupConfig(ConfigLoader configLoader) throws ScakeException {
+        springApplication.addInitializers(context -> context.getBeanFactory()
+                .registerSingleton(CONFIG_LOADER_BEAN, configLoader));
+        if (configLoader.getSource() == null ||
+                !configLoader.getBoolean(ConfigLoader.KEY_CONFIG_WATCH, true)) {
+            return;
+        }
+        ConfigWatcher watcher = configLoader.watch();
+        springApplication.addListeners((ApplicationListener<ContextClosedEvent>) event -> {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.warn("Close config watcher failed.", e);
+            }
+        });
+    }
+
+
+    /**
+     * Fast start initializes beans lazily, on first use, and skips
+     * JMX. Components are found from the index generated at build
+     * time by spring-context-indexer (META-INF/spring.components)
+     * instead of classpath scanning, whenever the index is present.
+     */
+    private void setupFastStart(
+            ConfigLoader configLoader,
+            Map<String, Object> overrideProperties) {
+        if (!configLoader.getBoolean(ConfigLoader.KEY_STARTUP_FAST, false)) {
+            return;
+        }
+        springApplication.setLazyInitialization(true);
+        overrideProperties.put("spring.jmx.enabled", false);
+        logger.info("Fast start enabled, beans are initialized on first use.");
+    }
 
     private static final String LOG_FILE = "scake-{artifact}.out";
-    private static final String ARCHIVE_LOG_FILE = "scake-{artifact}-log.%d'{yyyy-MM-dd}'.%i.log";
+    private static final String ARCHIVE_LOG_FILE = "scake-{artifact}-log.%d{yyyy-MM-dd}.%i.log";
 
     private String logFileName(String fileTemplate, String artifact) {
         return fileTemplate.replace("{artifact}", artifact);
@@ -99,15 +160,18 @@ public class ScakeApplication {
         overrideProperties.put("logging.level.root", logLevel);
 
         if (LoggerConfiguration.LOG_CONSOLE.equalsIgnoreCase(logPath)) {
-            overrideProperties.put("logging.file", "");
+            overrideProperties.put("logging.file.name", "");
         } else {
             logPath = logPath.endsWith("/") ? logPath : logPath + "/";
-            overrideProperties.put("logging.file", logPath + logFileName(LOG_FILE, artifact));
-            // TODO: max-history and max-size should be configurable
-            overrideProperties.put("logging.file.max-history", 7);
-            overrideProperties.put("logging.file.max-size", "10MB");
-            overrideProperties.put("logging.file.archive", logPath + logFileName(ARCHIVE_LOG_FILE, artifact));
+            overrideProperties.put("logging.file.name", logPath + logFileName(LOG_FILE, artifact));
+            overrideProperties.put("logging.logback.rollingpolicy.max-history",
+                    configLoader.getLogMaxHistory());
+            overrideProperties.put("logging.logback.rollingpolicy.max-file-size",
+                    configLoader.getLogMaxSize().toBytes() + "B");
+            overrideProperties.put("logging.logback.rollingpolicy.file-name-pattern",
+                    logPath + logFileName(ARCHIVE_LOG_FILE, artifact));
         }
+        springApplication.addListeners(new AsyncLoggingInstaller(configLoader));
     }
 
     private static final String CONFIG_PATH_VALUE = CONFIG_PATH + "=";
@@ -131,7 +195,12 @@ public class ScakeApplication {
         initApplication(args);
 
         springApplication.setAddCommandLineProperties(false);
-        return springApplication.run();
+        ConfigurableApplicationContext context = springApplication.run();
+        if (Boolean.getBoolean(EXIT_ON_READY)) {
+            logger.info("Exit on ready requested, shutting down.");
+            System.exit(SpringApplication.exit(context));
+        }
+        return context;
     }
 
     public static ConfigurableApplicationContext startApplication(
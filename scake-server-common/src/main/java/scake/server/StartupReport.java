@@ -0,0 +1,121 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationFailedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the startup phases of a {@link ScakeApplication} and logs
+ * them once it is ready to serve.
+ * <p>
+ * The first phase runs from the start of the JVM to the creation
+ * of the application, the last one ends when the application is
+ * ready, so the total is the time-to-serving of the node.
+ *
+ * @author RollW
+ */
+final class StartupReport implements ApplicationListener<ApplicationEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(StartupReport.class);
+
+    private final String artifact;
+    private final List<Phase> phases = new ArrayList<>();
+    private final long jvmStartMillis;
+    private long lastMillis;
+    private boolean reported = false;
+
+    StartupReport(String artifact) {
+        this.artifact = artifact;
+        this.jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        this.lastMillis = jvmStartMillis;
+        mark("jvm");
+    }
+
+    /**
+     * End the current phase.
+     *
+     * @param name name of the phase ending now
+     */
+    synchronized void mark(String name) {
+        long now = System.currentTimeMillis();
+        phases.add(new Phase(name, now - lastMillis));
+        lastMillis = now;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ApplicationEnvironmentPreparedEvent) {
+            mark("environment");
+        } else if (event instanceof ApplicationPreparedEvent) {
+            mark("context-prepare");
+        } else if (event instanceof ApplicationStartedEvent) {
+            mark("context-refresh");
+        } else if (event instanceof ApplicationReadyEvent) {
+            mark("ready");
+            report(true);
+        } else if (event instanceof ApplicationFailedEvent) {
+            mark("failed");
+            report(false);
+        }
+    }
+
+    private synchronized void report(boolean ready) {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : phases) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(phase.name).append('=').append(phase.millis).append("ms");
+        }
+        long total = lastMillis - jvmStartMillis;
+        if (ready) {
+            logger.info("Started scake-{} in {}ms (time-to-serving), phases: [{}].",
+                    artifact, total, builder);
+        } else {
+            logger.warn("Failed to start scake-{} after {}ms, phases: [{}].",
+                    artifact, total, builder);
+        }
+    }
+
+    private static final class Phase {
+        private final String name;
+        private final long millis;
+
+        Phase(String name, long millis) {
+            this.name = name;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.logging;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import scake.common.server.LoggerConfiguration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Moves the appenders of the root logger behind a
+ * {@link RingBufferAsyncAppender}, once Spring Boot has
+ * configured the logging system.
+ *
+ * @author RollW
+ */
+public class AsyncLoggingInstaller implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncLoggingInstaller.class);
+
+    public static final String APPENDER_NAME = "SCAKE_ASYNC";
+
+    private final LoggerConfiguration configuration;
+    private volatile RingBufferAsyncAppender appender;
+
+    public AsyncLoggingInstaller(LoggerConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the installed appender, or null if it is not installed.
+     */
+    public RingBufferAsyncAppender getAppender() {
+        return appender;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+        if (!configuration.isAsyncLogging()) {
+            return;
+        }
+        ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+        if (!(loggerFactory instanceof LoggerContext)) {
+            logger.warn("Async logging requires logback, logging stays synchronous.");
+            return;
+        }
+        appender = install((LoggerContext) loggerFactory);
+    }
+
+    private RingBufferAsyncAppender install(LoggerContext context) {
+        ch.qos.logback.classic.Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root.getAppender(APPENDER_NAME) != null) {
+            return (RingBufferAsyncAppender) root.getAppender(APPENDER_NAME);
+        }
+        List<Appender<ILoggingEvent>> targets = new ArrayList<>();
+        Iterator<Appender<ILoggingEvent>> iterator = root.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            targets.add(iterator.next());
+        }
+        RingBufferAsyncAppender asyncAppender = new RingBufferAsyncAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.setName(APPENDER_NAME);
+        asyncAppender.setBufferSize(configuration.getAsyncLogBufferSize());
+        asyncAppender.setOverflowPolicy(configuration.getAsyncLogOverflowPolicy());
+        for (Appender<ILoggingEvent> target : targets) {
+            asyncAppender.addAppender(target);
+        }
+        asyncAppender.start();
+        if (!asyncAppender.isStarted()) {
+            return null;
+        }
+        root.addAppender(asyncAppender);
+        for (Appender<ILoggingEvent> target : targets) {
+            root.detachAppender(target);
+        }
+        logger.debug("Async logging enabled, buffer size: {}, overflow policy: {}.",
+                asyncAppender.getBufferSize(), asyncAppender.getOverflowPolicy());
+        return asyncAppender;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Scake - A high available, scalable distributed file system.
+ * Copyright (C) 2024 RollW
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package scake.server.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import scake.common.server.LogOverflowPolicy;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous appender passing events through a bounded
+ * lock-free {@link RingBuffer} to a single writer thread, which
+ * calls the attached appenders.
+ * <p>
+ * Unlike logback's {@code AsyncAppender}, the logging threads never
+ * take a lock: with {@link LogOverflowPolicy#DROP} a full buffer drops
+ * the event and counts it, with {@link LogOverflowPolicy#BLOCK} the
+ * logging thread waits until the writer frees a slot. Like logback's,
+ * it never drops {@code WARN} and {@code ERROR} events, their logging
+ * threads wait under either policy.
+ *
+ * @author RollW
+ */
+public class RingBufferAsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_MAX_FLUSH_MILLIS = 1000;
+
+    // The writer is unparked for every event, the timeout only
+    // bounds the delay of a drop report while idle.
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders =
+            new AppenderAttachableImpl<>();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder blockedEvents = new LongAdder();
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private LogOverflowPolicy overflowPolicy = LogOverflowPolicy.DROP;
+    private long maxFlushMillis = DEFAULT_MAX_FLUSH_MILLIS;
+
+    private RingBuffer<ILoggingEvent> buffer;
+    private Thread writer;
+    private volatile boolean writerParked = false;
+    private long reportedDrops = 0;
+    private long lastDropReport = 0;
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setOverflowPolicy(LogOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public LogOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Time the appender waits for the writer to flush the buffered
+     * events when stopped.
+     */
+    public void setMaxFlushMillis(long maxFlushMillis) {
+        this.maxFlushMillis = maxFlushMillis;
+    }
+
+    /**
+     * Events dropped because the buffer was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * Events whose logging thread had to wait for room in the buffer.
+     */
+    public long getBlockedEvents() {
+        return blockedEvents.sum();
+    }
+
+    /**
+     * Approximate number of buffered events.
+     */
+    public int getBufferedEvents() {
+        RingBuffer<ILoggingEvent> current = buffer;
+        return current == null ? 0 : current.size();
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (bufferSize <= 0) {
+            addError("Invalid buffer size " + bufferSize + ".");
+            return;
+        }
+        buffer = new RingBuffer<>(bufferSize);
+        writer = new Thread(this::runWriter, "scake-log-writer-" + getName());
+        writer.setDaemon(true);
+        super.start();
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        LockSupport.unpark(writer);
+        try {
+            writer.join(maxFlushMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            addWarn("Writer did not flush " + buffer.size() +
+                    " events within " + maxFlushMillis + "ms.");
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // caller data, MDC and the formatted message must be taken
+        // on the logging thread
+        event.prepareForDeferredProcessing();
+        if (buffer.offer(event)) {
+            wakeWriter();
+            return;
+        }
+        if (overflowPolicy == LogOverflowPolicy.DROP &&
+                !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            droppedEvents.increment();
+            return;
+        }
+        blockedEvents.increment();
+        wakeWriter();
+        while (!buffer.offer(event)) {
+            if (!isStarted() || Thread.currentThread() == writer) {
+                droppedEvents.increment();
+                return;
+            }
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+        wakeWriter();
+    }
+
+    private void wakeWriter() {
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void runWriter() {
+        while (isStarted()) {
+            ILoggingEvent event = buffer.poll();
+            if (event != null) {
+                write(event);
+                continue;
+            }
+            reportDrops();
+            writerParked = true;
+            if (buffer.isEmpty() && isStarted()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+        ILoggingEvent event;
+        while ((event = buffer.poll()) != null) {
+            write(event);
+        }
+        reportDrops();
+    }
+
+    private void write(ILoggingEvent event) {
+        try {
+            appenders.appendLoopOnAppenders(event);
+        } catch (RuntimeException e) {
+            addError("Failed to write log event.", e);
+        }
+    }
+
+    private void reportDrops() {
+        long dropped = droppedEvents.sum();
+        if (dropped == reportedDrops) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastDropReport != 0 && now - lastDropReport < DROP_REPORT_INTERVAL_NANOS) {
+            return;
+        }
+        addWarn("Dropped " + (dropped - reportedDrops) +
+                " log events, the buffer of " + buffer.capacity() + " was full.");
+        reportedDrops = dropped;
+        lastDropReport = now;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        appenders.addAppender(newAppender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}